@@ -0,0 +1,83 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.Values;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Compares {@link HRecordJsonCodec} with the {@link JsonFormat} based path it replaced. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HRecordJsonCodecBenchmark {
+
+  @Param({"small", "medium", "nested"})
+  private String shape;
+
+  private Struct struct;
+  private ByteString payload;
+
+  @Setup
+  public void setUp() throws Exception {
+    switch (shape) {
+      case "small":
+        struct =
+            Struct.newBuilder()
+                .putFields("temperature", Values.of(22.5))
+                .putFields("humidity", Values.of(40))
+                .putFields("device", Values.of("sensor-1"))
+                .build();
+        break;
+      case "medium":
+        Struct.Builder builder = Struct.newBuilder();
+        for (int i = 0; i < 40; ++i) {
+          builder.putFields("number_field_" + i, Values.of(i * 1000.5));
+          builder.putFields("string_field_" + i, Values.of("value of field " + i));
+        }
+        struct = builder.build();
+        break;
+      case "nested":
+        Struct current = Struct.newBuilder().putFields("leaf", Values.of("value")).build();
+        for (int i = 0; i < 30; ++i) {
+          current =
+              Struct.newBuilder()
+                  .putFields("level", Values.of(i))
+                  .putFields("child", Values.of(current))
+                  .build();
+        }
+        struct = current;
+        break;
+      default:
+        throw new IllegalArgumentException(shape);
+    }
+    payload = ByteString.copyFrom(JsonFormat.printer().print(struct), StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ByteString encodeJsonFormat() throws Exception {
+    return ByteString.copyFrom(JsonFormat.printer().print(struct), StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ByteString encodeCodec() {
+    return HRecordJsonCodec.encode(struct);
+  }
+
+  @Benchmark
+  public Struct decodeJsonFormat() throws Exception {
+    Struct.Builder structBuilder = Struct.newBuilder();
+    JsonFormat.parser().merge(payload.toStringUtf8(), structBuilder);
+    return structBuilder.build();
+  }
+
+  @Benchmark
+  public Struct decodeCodec() throws Exception {
+    return HRecordJsonCodec.decode(payload);
+  }
+}
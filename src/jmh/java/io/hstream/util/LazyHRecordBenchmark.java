@@ -0,0 +1,52 @@
+package io.hstream.util;
+
+import io.hstream.HRecord;
+import io.hstream.HRecordBuilder;
+import io.hstream.HRecordFormat;
+import io.hstream.HStreamRecord;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reads three fields out of a record of 40, the way most receivers do, with eager and lazy
+ * decoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LazyHRecordBenchmark {
+
+  @Param({"JSON", "PROTOBUF"})
+  private HRecordFormat format;
+
+  private HStreamRecord hStreamRecord;
+
+  @Setup
+  public void setUp() {
+    HRecordBuilder builder = HRecord.newBuilder();
+    for (int i = 0; i < 20; ++i) {
+      builder.put("number_field_" + i, i * 1000.5);
+      builder.put("string_field_" + i, "value of field " + i);
+    }
+    hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(builder.build(), format);
+  }
+
+  private static double readFields(HRecord hRecord) {
+    return hRecord.getDouble("number_field_3")
+        + hRecord.getString("string_field_11").length()
+        + hRecord.getDouble("number_field_17");
+  }
+
+  @Benchmark
+  public double eager() {
+    return readFields(RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord));
+  }
+
+  @Benchmark
+  public double lazy() {
+    return readFields(RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord));
+  }
+}
@@ -0,0 +1,24 @@
+package io.hstream;
+
+/** a received record together with the {@link Responder} that acks it */
+public class AckableRecord<T> implements Responder {
+
+  private T record;
+
+  private Responder responder;
+
+  public AckableRecord(T record, Responder responder) {
+    this.record = record;
+    this.responder = responder;
+  }
+
+  public T getRecord() {
+    return record;
+  }
+
+  /** Ack this record and, like {@link Responder#ack()}, every record received before it. */
+  @Override
+  public void ack() {
+    responder.ack();
+  }
+}
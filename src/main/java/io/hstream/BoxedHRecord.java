@@ -0,0 +1,97 @@
+package io.hstream;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.Values;
+
+/**
+ * A {@link HRecord} whose fields are held as boxed values, an Integer, Long, Float, Double, Boolean
+ * or String each. Numeric getters read the boxed value directly, so integers keep their exact value
+ * and {@link #getLong(String)} does not lose precision above 2^53. The {@link Struct} view is only
+ * built if {@link #getDelegate()} is called.
+ */
+public abstract class BoxedHRecord extends HRecord {
+
+  private Struct delegate;
+
+  /**
+   * @return the number of fields the record may have
+   */
+  protected abstract int getFieldCount();
+
+  protected abstract String getFieldName(int index);
+
+  /**
+   * @return the value of the field at the index, null if it is unset
+   */
+  protected abstract Object getFieldValue(int index);
+
+  /**
+   * @return the index of the field with the name, negative if the record has no such field
+   */
+  protected abstract int indexOf(String name);
+
+  /** the {@link Struct} view, integer fields in it are converted to double */
+  @Override
+  public synchronized Struct getDelegate() {
+    if (delegate == null) {
+      Struct.Builder builder = Struct.newBuilder();
+      for (int i = 0; i < getFieldCount(); ++i) {
+        Object value = getFieldValue(i);
+        if (value != null) {
+          builder.putFields(getFieldName(i), toValue(value));
+        }
+      }
+      delegate = builder.build();
+    }
+    return delegate;
+  }
+
+  @Override
+  public boolean contains(String name) {
+    int index = indexOf(name);
+    return index >= 0 && getFieldValue(index) != null;
+  }
+
+  @Override
+  protected Value getField(String name) {
+    return toValue(getSetFieldValue(name));
+  }
+
+  @Override
+  public int getInt(String name) {
+    Object value = getSetFieldValue(name);
+    return value instanceof Number ? ((Number) value).intValue() : super.getInt(name);
+  }
+
+  @Override
+  public long getLong(String name) {
+    Object value = getSetFieldValue(name);
+    return value instanceof Number ? ((Number) value).longValue() : super.getLong(name);
+  }
+
+  @Override
+  public double getDouble(String name) {
+    Object value = getSetFieldValue(name);
+    return value instanceof Number ? ((Number) value).doubleValue() : super.getDouble(name);
+  }
+
+  private Object getSetFieldValue(String name) {
+    int index = indexOf(name);
+    Object value = index < 0 ? null : getFieldValue(index);
+    if (value == null) {
+      throw new IllegalArgumentException("record has no field " + name);
+    }
+    return value;
+  }
+
+  private static Value toValue(Object value) {
+    if (value instanceof Number) {
+      return Values.of(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      return Values.of((Boolean) value);
+    } else {
+      return Values.of((String) value);
+    }
+  }
+}
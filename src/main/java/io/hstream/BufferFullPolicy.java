@@ -0,0 +1,17 @@
+package io.hstream;
+
+/** what a batching {@link Producer} does when its buffer memory is used up */
+public enum BufferFullPolicy {
+
+  /** block the writer until enough buffered records have been acknowledged by the server. */
+  BLOCK,
+
+  /**
+   * block the writer for at most {@link ProducerBuilder#maxBlockMs(long)}, then fail the write with
+   * {@link HStreamDBClientException.BufferFullException}.
+   */
+  BLOCK_WITH_TIMEOUT,
+
+  /** fail the write with {@link HStreamDBClientException.BufferFullException} immediately. */
+  FAIL_FAST
+}
@@ -1,18 +1,221 @@
 package io.hstream;
 
 import io.hstream.impl.ClientImpl;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /** used to construct a hstream client, which you can use it to interact with hstream server */
 public class ClientBuilder {
 
-  private String serviceUrl;
+  /**
+   * Load balancing policy sending every call to the server with the fewest outstanding calls. The
+   * default with several service urls.
+   */
+  public static final String LEAST_OUTSTANDING_REQUESTS = "hstream_least_outstanding_requests";
+
+  /**
+   * Load balancing policy sending every call to the server with the lowest moving average latency,
+   * weighted by its outstanding calls.
+   */
+  public static final String EWMA_LATENCY = "hstream_ewma_latency";
+
+  private List<String> serviceUrls;
+
+  private String loadBalancingPolicy;
+
+  private int channelCount = 1;
+
+  private boolean nativeTransport = true;
+
+  private int ioThreads = 0;
+
+  private Executor executor;
+
+  private int flowControlWindow = 4 * 1024 * 1024;
+
+  private int maxInboundMessageSize = 64 * 1024 * 1024;
+
+  private long keepAliveTimeMs = 0;
+
+  private long keepAliveTimeoutMs = 20 * 1000;
+
+  private boolean keepAliveWithoutCalls = false;
+
+  private long metadataCacheTtlMs = 0;
 
   public ClientBuilder serviceUrl(String serviceUrl) {
-    this.serviceUrl = serviceUrl;
+    this.serviceUrls = List.of(serviceUrl);
+    return this;
+  }
+
+  /**
+   * Set the servers of the cluster, in the form {@code host:port}. Calls are balanced over all of
+   * them by the load balancing policy.
+   *
+   * @param serviceUrls the servers.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder serviceUrls(List<String> serviceUrls) {
+    this.serviceUrls = new ArrayList<>(serviceUrls);
+    return this;
+  }
+
+  /**
+   * Set how calls are balanced over the servers: {@link #LEAST_OUTSTANDING_REQUESTS}, {@link
+   * #EWMA_LATENCY}, or the name of any policy in gRPC's load balancer registry, such as {@code
+   * round_robin}. Both policies of the client eject servers whose calls keep failing, and try them
+   * again later. Defaults to {@code pick_first} with a single service url, and to {@link
+   * #LEAST_OUTSTANDING_REQUESTS} with several.
+   *
+   * @param loadBalancingPolicy the policy name.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder loadBalancingPolicy(String loadBalancingPolicy) {
+    this.loadBalancingPolicy = loadBalancingPolicy;
+    return this;
+  }
+
+  /**
+   * Set the number of channels the client opens to the server, each with its own connection.
+   * Producers and consumers are spread over the channels round robin, so a busy producer does not
+   * hold up the others on a single connection. With more than one channel, the first is kept for
+   * admin calls and the others carry producers and consumers. Defaults to 1.
+   *
+   * @param channelCount the number of channels.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder channelCount(int channelCount) {
+    if (channelCount < 1) {
+      throw new IllegalArgumentException("channelCount must be at least 1");
+    }
+    this.channelCount = channelCount;
+    return this;
+  }
+
+  /**
+   * Set whether to use the native epoll transport where it is available, otherwise the NIO
+   * transport. Defaults to true.
+   *
+   * @param nativeTransport whether to use the native transport.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder nativeTransport(boolean nativeTransport) {
+    this.nativeTransport = nativeTransport;
+    return this;
+  }
+
+  /**
+   * Set the number of I/O threads the connections run on, shared by all channels of the client and
+   * shut down when it is closed. They use the transport chosen by {@link
+   * #nativeTransport(boolean)}. By default gRPC's shared I/O threads are used with the native
+   * transport, and the client starts its own with the NIO transport, two for every core.
+   *
+   * @param ioThreads the number of I/O threads, 0 for the default.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder ioThreads(int ioThreads) {
+    if (ioThreads < 0) {
+      throw new IllegalArgumentException("ioThreads must not be negative");
+    }
+    this.ioThreads = ioThreads;
+    return this;
+  }
+
+  /**
+   * Set the executor that runs call callbacks, such as received records and append results. By
+   * default gRPC's shared cached thread pool is used.
+   *
+   * @param executor the executor.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder executor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Set the initial HTTP/2 flow control window in bytes, which gRPC then tunes to the bandwidth of
+   * the connection. A large window keeps streams from stalling on round trips. Defaults to 4 MiB.
+   *
+   * @param flowControlWindow the window in bytes.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder flowControlWindow(int flowControlWindow) {
+    if (flowControlWindow <= 0) {
+      throw new IllegalArgumentException("flowControlWindow must be positive");
+    }
+    this.flowControlWindow = flowControlWindow;
+    return this;
+  }
+
+  /**
+   * Set the max size in bytes of a message received from the server, such as a fetched batch of
+   * records. Defaults to 64 MiB.
+   *
+   * @param maxInboundMessageSize the max size in bytes.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder maxInboundMessageSize(int maxInboundMessageSize) {
+    if (maxInboundMessageSize <= 0) {
+      throw new IllegalArgumentException("maxInboundMessageSize must be positive");
+    }
+    this.maxInboundMessageSize = maxInboundMessageSize;
+    return this;
+  }
+
+  /**
+   * Enable keepalive pings, sent once a connection has been idle for the given time, which close
+   * the connection if they are not acked within the timeout. The server must permit pings this
+   * often, or it closes the connection. Disabled by default.
+   *
+   * @param keepAliveTimeMs the idle time before a ping, 0 to disable.
+   * @param keepAliveTimeoutMs the time to wait for the ack.
+   * @param keepAliveWithoutCalls whether to ping when there are no outstanding calls.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder keepAlive(
+      long keepAliveTimeMs, long keepAliveTimeoutMs, boolean keepAliveWithoutCalls) {
+    this.keepAliveTimeMs = keepAliveTimeMs;
+    this.keepAliveTimeoutMs = keepAliveTimeoutMs;
+    this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+    return this;
+  }
+
+  /**
+   * Cache the listings of streams and subscriptions for the given time, which serve {@link
+   * HStreamClient#listStreams()}, {@link HStreamClient#streamExists(String)} and the like without a
+   * call to the server. A listing is refreshed in the background as it nears the end of its TTL,
+   * and dropped at once by the client's own creates and deletes, but changes made by other clients
+   * may be seen up to the TTL late. Disabled by default.
+   *
+   * @param metadataCacheTtlMs the TTL in milliseconds, 0 to disable.
+   * @return the {@link ClientBuilder}.
+   */
+  public ClientBuilder metadataCache(long metadataCacheTtlMs) {
+    if (metadataCacheTtlMs < 0) {
+      throw new IllegalArgumentException("metadataCacheTtlMs must not be negative");
+    }
+    this.metadataCacheTtlMs = metadataCacheTtlMs;
     return this;
   }
 
   public HStreamClient build() {
-    return new ClientImpl(serviceUrl);
+    if (serviceUrls == null) {
+      throw new IllegalArgumentException("serviceUrl is not set");
+    }
+    return new ClientImpl(
+        serviceUrls,
+        loadBalancingPolicy,
+        channelCount,
+        nativeTransport,
+        ioThreads,
+        executor,
+        flowControlWindow,
+        maxInboundMessageSize,
+        keepAliveTimeMs,
+        keepAliveTimeoutMs,
+        keepAliveWithoutCalls,
+        metadataCacheTtlMs);
   }
 }
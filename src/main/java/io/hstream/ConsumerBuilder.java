@@ -1,6 +1,13 @@
 package io.hstream;
 
 import io.hstream.impl.ConsumerImpl;
+import io.hstream.impl.MappedRecordReceiver;
+import io.hstream.impl.SubscriptionPublisher;
+import io.hstream.util.HRecordMapper;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
 
 /** used to construct a consumer */
 public class ConsumerBuilder {
@@ -11,6 +18,24 @@ public class ConsumerBuilder {
   private String subscription;
   private RawRecordReceiver rawRecordReceiver;
   private HRecordReceiver hRecordReceiver;
+  private MappedRecordReceiver<?> mappedRecordReceiver;
+  private RawRecordBatchReceiver rawRecordBatchReceiver;
+  private HRecordBatchReceiver hRecordBatchReceiver;
+  private boolean lazyHRecordDecoding = false;
+  private Map<String, HRecordSchema> schemas = new HashMap<>();
+  private long commitIntervalMs = 1000;
+  private int commitAckCount = 1000;
+  private int parallelism = 1;
+  private Function<HStreamRecord, String> keyExtractor =
+      hStreamRecord -> hStreamRecord.getHeader().getKey();
+  private int maxUnackedRecords = 10000;
+  private long pollTimeoutMs = 1000;
+  private int maxPollRecords = 1000;
+  private long targetBatchLatencyMs;
+  private int maxFetchesInFlight = 1;
+  private int maxBufferedRecords = 2000;
+  private long maxBufferedBytes = 64 * 1024 * 1024;
+  private boolean streamingFetch;
 
   public ConsumerBuilder(
       HStreamApiGrpc.HStreamApiStub grpcStub,
@@ -36,11 +61,298 @@ public class ConsumerBuilder {
 
   public ConsumerBuilder hRecordReceiver(HRecordReceiver hRecordReceiver) {
     this.hRecordReceiver = hRecordReceiver;
+    this.mappedRecordReceiver = null;
+    return this;
+  }
+
+  /**
+   * Receive raw records a fetched batch at a time, replaces the {@link RawRecordReceiver}.
+   *
+   * @param rawRecordBatchReceiver the {@link RawRecordBatchReceiver}
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder rawRecordBatchReceiver(RawRecordBatchReceiver rawRecordBatchReceiver) {
+    this.rawRecordBatchReceiver = rawRecordBatchReceiver;
+    return this;
+  }
+
+  /**
+   * Receive {@link HRecord}s a fetched batch at a time, replaces the {@link HRecordReceiver}.
+   *
+   * @param hRecordBatchReceiver the {@link HRecordBatchReceiver}
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder hRecordBatchReceiver(HRecordBatchReceiver hRecordBatchReceiver) {
+    this.hRecordBatchReceiver = hRecordBatchReceiver;
+    return this;
+  }
+
+  /**
+   * Receive {@link HRecord}s as objects, replaces the {@link HRecordReceiver}. Only the fields
+   * mapped to the object's properties are decoded, whatever {@link #lazyHRecordDecoding(boolean)}
+   * is, and they are mapped while the consumer parses the record, so a malformed field fails there
+   * rather than inside the receiver.
+   *
+   * @param mapper the {@link HRecordMapper} of the received objects' class
+   * @param typedRecordReceiver the receiver of the mapped objects
+   * @return the ConsumerBuilder instance
+   */
+  public <T> ConsumerBuilder typedRecordReceiver(
+      HRecordMapper<T> mapper, TypedRecordReceiver<T> typedRecordReceiver) {
+    this.mappedRecordReceiver = new MappedRecordReceiver<>(mapper, typedRecordReceiver);
+    this.hRecordReceiver = null;
+    return this;
+  }
+
+  /**
+   * @param lazyHRecordDecoding when true the {@link HRecord}s passed to the {@link HRecordReceiver}
+   *     decode a field only when it is read, so fields the receiver never reads cost nothing, but a
+   *     malformed payload then throws from the field getters inside the receiver. When false, which
+   *     is the default, every record is fully decoded before it is delivered and a malformed
+   *     payload fails while the consumer parses it.
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder lazyHRecordDecoding(boolean lazyHRecordDecoding) {
+    this.lazyHRecordDecoding = lazyHRecordDecoding;
+    return this;
+  }
+
+  /**
+   * Register a schema that producers of the subscribed stream write {@link HRecord}s with, may be
+   * called once per schema. Records of an unregistered schema fail to decode.
+   *
+   * @param schema the {@link HRecordSchema} registered with {@link
+   *     ProducerBuilder#schema(HRecordSchema)}
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder schema(HRecordSchema schema) {
+    this.schemas.put(schema.getId(), schema);
+    return this;
+  }
+
+  /**
+   * Acks are recorded locally and committed in the background, at most this long after they were
+   * made. Defaults to 1000 ms. Acks not yet committed are committed when the consumer stops, a
+   * crash may redeliver them.
+   *
+   * @param commitIntervalMs the interval between background commits
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder commitIntervalMs(long commitIntervalMs) {
+    this.commitIntervalMs = commitIntervalMs;
+    return this;
+  }
+
+  /**
+   * @param commitAckCount commit without waiting for the interval once this many acks are waiting
+   *     to be committed, defaults to 1000
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder commitAckCount(int commitAckCount) {
+    this.commitAckCount = commitAckCount;
+    return this;
+  }
+
+  /**
+   * Run receivers on this many threads instead of the single fetching thread, defaults to 1.
+   * Records are assigned to a thread by their key, see {@link #keyExtractor(Function)}: records
+   * with the same key are processed in order, records with different keys in parallel, and records
+   * without a key are spread over the threads in no particular order.
+   *
+   * <p>With more than one thread acks are no longer cumulative: a {@link Responder} acks only its
+   * own records, and the committed offset only moves past records that are all acked.
+   *
+   * @param parallelism the number of receiver threads
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder parallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * @param keyExtractor the ordering key of a record when {@link #parallelism(int)} is more than 1,
+   *     defaults to the key in the record header. A null or empty key means the record has no
+   *     ordering requirement.
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder keyExtractor(Function<HStreamRecord, String> keyExtractor) {
+    this.keyExtractor = keyExtractor;
+    return this;
+  }
+
+  /**
+   * With {@link #parallelism(int)} more than 1, a record that is never acked keeps the committed
+   * offset from moving past it, and every record delivered after it is kept until it is acked. Once
+   * this many records are kept, no more records are dispatched to the receivers and a warning is
+   * logged. Defaults to 10000, and is never less than {@link #maxPollRecords(int)} or {@link
+   * #maxBufferedRecords(int)}.
+   *
+   * @param maxUnackedRecords the most records kept behind the oldest unacked record
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder maxUnackedRecords(int maxUnackedRecords) {
+    if (maxUnackedRecords < 1) {
+      throw new IllegalArgumentException("maxUnackedRecords must be at least 1");
+    }
+    this.maxUnackedRecords = maxUnackedRecords;
+    return this;
+  }
+
+  /**
+   * @param pollTimeoutMs how long the server may wait for records to fill a fetch, defaults to 1000
+   *     ms. With {@link #adaptiveFetchSizing(long)} this is the longest wait.
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder pollTimeoutMs(long pollTimeoutMs) {
+    this.pollTimeoutMs = pollTimeoutMs;
+    return this;
+  }
+
+  /**
+   * @param maxPollRecords the most records a fetch returns, defaults to 1000. With {@link
+   *     #adaptiveFetchSizing(long)} this is the initial size.
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder maxPollRecords(int maxPollRecords) {
+    this.maxPollRecords = maxPollRecords;
+    return this;
+  }
+
+  /**
+   * Adapt the size of fetches to the subscription instead of using {@link #maxPollRecords(int)} for
+   * every fetch. Fetches that come back full within the target latency grow the size, up to {@link
+   * #maxBufferedRecords(int)}, so a backlog is caught up in big batches. Fetches that come back
+   * partly filled or empty shrink the size, so live data is tailed in small batches. Every fetch
+   * waits up to the smaller of {@link #pollTimeoutMs(long)} and the target latency for records.
+   *
+   * @param targetBatchLatencyMs the time a fetch should take at most
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder adaptiveFetchSizing(long targetBatchLatencyMs) {
+    if (targetBatchLatencyMs <= 0) {
+      throw new IllegalArgumentException("targetBatchLatencyMs must be positive");
+    }
+    this.targetBatchLatencyMs = targetBatchLatencyMs;
+    return this;
+  }
+
+  /**
+   * Records are fetched ahead of processing, so the next batch is already on its way while the
+   * current one is processed. This bounds the fetch requests sent ahead, defaults to 1. Batches are
+   * processed in the order their fetches were sent.
+   *
+   * @param maxFetchesInFlight the number of fetch requests that may wait for a response at once
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder maxFetchesInFlight(int maxFetchesInFlight) {
+    if (maxFetchesInFlight < 1) {
+      throw new IllegalArgumentException("maxFetchesInFlight must be at least 1");
+    }
+    this.maxFetchesInFlight = maxFetchesInFlight;
+    return this;
+  }
+
+  /**
+   * @param maxBufferedRecords the number of records fetched ahead and not yet processed, defaults
+   *     to 2000. A fetch in flight counts as a full batch, no fetch is sent ahead while this is
+   *     less than a batch.
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder maxBufferedRecords(int maxBufferedRecords) {
+    this.maxBufferedRecords = maxBufferedRecords;
+    return this;
+  }
+
+  /**
+   * @param maxBufferedBytes no fetch is sent ahead once the records fetched ahead and not yet
+   *     processed take this many bytes, defaults to 64 MiB
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder maxBufferedBytes(long maxBufferedBytes) {
+    this.maxBufferedBytes = maxBufferedBytes;
+    return this;
+  }
+
+  /**
+   * @param streamingFetch when true, records are pushed by the server over one long-lived stream as
+   *     they arrive, instead of being polled with fetch requests, and acks are sent back on the
+   *     same stream. {@link #maxBufferedRecords(int)} and {@link #maxBufferedBytes(long)} still
+   *     bound the records received ahead of processing. Falls back to polling if the server does
+   *     not support it. Defaults to false.
+   * @return the ConsumerBuilder instance
+   */
+  public ConsumerBuilder streamingFetch(boolean streamingFetch) {
+    this.streamingFetch = streamingFetch;
     return this;
   }
 
   public Consumer build() {
     return new ConsumerImpl(
-        grpcStub, grpcBlockingStub, name, subscription, rawRecordReceiver, hRecordReceiver);
+        grpcStub,
+        grpcBlockingStub,
+        name,
+        subscription,
+        rawRecordReceiver,
+        hRecordReceiver,
+        mappedRecordReceiver,
+        rawRecordBatchReceiver,
+        hRecordBatchReceiver,
+        lazyHRecordDecoding,
+        new HashMap<>(schemas),
+        commitIntervalMs,
+        commitAckCount,
+        parallelism,
+        keyExtractor,
+        maxUnackedRecords,
+        pollTimeoutMs,
+        maxPollRecords,
+        targetBatchLatencyMs,
+        maxFetchesInFlight,
+        maxBufferedRecords,
+        maxBufferedBytes,
+        streamingFetch);
+  }
+
+  /**
+   * Build a {@link Flow.Publisher} of the subscription's raw records instead of a {@link Consumer}
+   * with receivers. Every subscriber attaches to the subscription on its own, records are fetched
+   * only as the subscriber requests them, in fetches of at most {@link #maxPollRecords(int)}
+   * records, and acked through the {@link AckableRecord}s they are delivered in. Receivers,
+   * parallelism and the prefetch settings do not apply.
+   *
+   * @return the {@link Flow.Publisher} of the subscription
+   */
+  public Flow.Publisher<AckableRecord<ReceivedRawRecord>> buildRawRecordPublisher() {
+    return SubscriptionPublisher.ofRawRecords(
+        grpcStub,
+        grpcBlockingStub,
+        subscription,
+        pollTimeoutMs,
+        maxPollRecords,
+        commitIntervalMs,
+        commitAckCount);
+  }
+
+  /**
+   * Build a {@link Flow.Publisher} of the subscription's {@link HRecord}s, like {@link
+   * #buildRawRecordPublisher()}.
+   *
+   * @return the {@link Flow.Publisher} of the subscription
+   */
+  public Flow.Publisher<AckableRecord<ReceivedHRecord>> buildHRecordPublisher() {
+    return SubscriptionPublisher.ofHRecords(
+        grpcStub,
+        grpcBlockingStub,
+        subscription,
+        pollTimeoutMs,
+        maxPollRecords,
+        commitIntervalMs,
+        commitAckCount,
+        lazyHRecordDecoding,
+        new HashMap<>(schemas));
   }
 }
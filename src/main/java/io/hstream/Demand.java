@@ -0,0 +1,16 @@
+package io.hstream;
+
+/** the handle a {@link FlowControlledObserver} signals how many more values it can receive with */
+public interface Demand {
+
+  /**
+   * Ask for more values, the publisher delivers no more values than requested in total.
+   *
+   * @param n the number of further values the observer can receive, {@link Long#MAX_VALUE} for no
+   *     limit
+   */
+  void request(long n);
+
+  /** Stop receiving values, no further value, error or completion is delivered. */
+  void cancel();
+}
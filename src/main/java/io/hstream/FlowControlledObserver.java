@@ -0,0 +1,17 @@
+package io.hstream;
+
+/**
+ * An {@link Observer} that controls how fast a {@link Publisher} delivers values. The publisher
+ * only delivers as many values as requested through the {@link Demand}, values not requested yet
+ * are left with the server instead of piling up in the client.
+ */
+public interface FlowControlledObserver<V> extends Observer<V> {
+
+  /**
+   * Receives the handle to request values with, before any other method is called. Nothing is
+   * delivered until values are requested.
+   *
+   * @param demand the {@link Demand} of this observer
+   */
+  void onSubscribe(Demand demand);
+}
@@ -2,6 +2,7 @@ package io.hstream;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
 
 /** the data structure defined by hstream */
 public class HRecord {
@@ -16,43 +17,63 @@ public class HRecord {
     this.delegate = delegate;
   }
 
+  /**
+   * For subclasses that decode their fields on demand, they must override {@link #getDelegate()}
+   * and {@link #getField(String)}.
+   */
+  protected HRecord() {}
+
   public Struct getDelegate() {
     return delegate;
   }
 
+  /**
+   * @throws IllegalArgumentException if the record has no field with the name
+   */
+  protected Value getField(String name) {
+    return delegate.getFieldsOrThrow(name);
+  }
+
+  /**
+   * @return whether the record has a field with the name
+   */
+  public boolean contains(String name) {
+    return getDelegate().containsFields(name);
+  }
+
   public String toString() {
-    return delegate.toString();
+    return getDelegate().toString();
   }
 
   public boolean getBoolean(String name) {
-    return delegate.getFieldsOrThrow(name).getBoolValue();
+    return getField(name).getBoolValue();
   }
 
   public int getInt(String name) {
-    return (int) delegate.getFieldsOrThrow(name).getNumberValue();
+    return (int) getField(name).getNumberValue();
   }
 
   public long getLong(String name) {
-    return (long) delegate.getFieldsOrThrow(name).getNumberValue();
+    return (long) getField(name).getNumberValue();
   }
 
   public double getDouble(String name) {
-    return (double) delegate.getFieldsOrThrow(name).getNumberValue();
+    return (double) getField(name).getNumberValue();
   }
 
   public String getString(String name) {
-    return delegate.getFieldsOrThrow(name).getStringValue();
+    return getField(name).getStringValue();
   }
 
   public HArray getHArray(String name) {
-    return new HArray(delegate.getFieldsOrThrow(name).getListValue());
+    return new HArray(getField(name).getListValue());
   }
 
   public HRecord getHRecord(String name) {
-    return new HRecord(delegate.getFieldsOrThrow(name).getStructValue());
+    return new HRecord(getField(name).getStructValue());
   }
 
   public ByteString toByteString() {
-    return delegate.toByteString();
+    return getDelegate().toByteString();
   }
 }
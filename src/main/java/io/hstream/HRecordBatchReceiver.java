@@ -0,0 +1,17 @@
+package io.hstream;
+
+import java.util.List;
+
+/**
+ * the interface that user use to process {@link HRecord}s received from server a batch at a time
+ */
+public interface HRecordBatchReceiver {
+
+  /**
+   * used to consume a batch of {@link HRecord} format records, in the order they were fetched.
+   *
+   * @param receivedHRecords records received from producer
+   * @param responder {@link Responder} used to ack every record of the batch in one call.
+   */
+  void processHRecords(List<ReceivedHRecord> receivedHRecords, Responder responder);
+}
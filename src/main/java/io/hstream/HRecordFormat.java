@@ -0,0 +1,14 @@
+package io.hstream;
+
+/** the wire format used by a {@link Producer} to encode {@link HRecord} payloads */
+public enum HRecordFormat {
+
+  /** JSON text, the format understood by the server's SQL engine. */
+  JSON,
+
+  /**
+   * the protobuf binary encoding of the underlying {@code google.protobuf.Struct}, cheaper to
+   * produce and consume than JSON but opaque to server side SQL.
+   */
+  PROTOBUF
+}
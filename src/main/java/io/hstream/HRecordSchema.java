@@ -0,0 +1,133 @@
+package io.hstream;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ordered, typed fields of {@link HRecord}s written in the compact schema encoding. The field
+ * names and types are registered once with the {@link ProducerBuilder} and {@link ConsumerBuilder}
+ * instead of being repeated in every record, only the schema id travels with a record.
+ */
+public final class HRecordSchema {
+
+  /** the type of a field, integers are kept exact rather than converted to double */
+  public enum FieldType {
+    INT32,
+    INT64,
+    DOUBLE,
+    BOOL,
+    STRING
+  }
+
+  private final List<String> fieldNames;
+  private final List<FieldType> fieldTypes;
+  private final Map<String, Integer> fieldIndexes;
+  private final String id;
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  private HRecordSchema(List<String> fieldNames, List<FieldType> fieldTypes) {
+    this.fieldNames = Collections.unmodifiableList(fieldNames);
+    this.fieldTypes = Collections.unmodifiableList(fieldTypes);
+    this.fieldIndexes = new HashMap<>();
+    for (int i = 0; i < fieldNames.size(); ++i) {
+      fieldIndexes.put(fieldNames.get(i), i);
+    }
+    this.id = fingerprint(fieldNames, fieldTypes);
+  }
+
+  /**
+   * @return an id derived from the field names and types, so a producer and a consumer agree on it
+   *     exactly when they registered the same fields in the same order
+   */
+  public String getId() {
+    return id;
+  }
+
+  public int getFieldCount() {
+    return fieldNames.size();
+  }
+
+  public String getFieldName(int index) {
+    return fieldNames.get(index);
+  }
+
+  public FieldType getFieldType(int index) {
+    return fieldTypes.get(index);
+  }
+
+  /**
+   * @return the position of the field, or -1 if the schema has no field with the name
+   */
+  public int indexOf(String fieldName) {
+    return fieldIndexes.getOrDefault(fieldName, -1);
+  }
+
+  /**
+   * @return a builder of {@link HRecord}s in this schema that keeps 64-bit integers exact
+   */
+  public SchemaHRecordBuilder newRecordBuilder() {
+    return new SchemaHRecordBuilder(this);
+  }
+
+  public String toString() {
+    StringBuilder builder = new StringBuilder("HRecordSchema{id=").append(id);
+    for (int i = 0; i < fieldNames.size(); ++i) {
+      builder.append(", ").append(fieldNames.get(i)).append(':').append(fieldTypes.get(i));
+    }
+    return builder.append('}').toString();
+  }
+
+  private static String fingerprint(List<String> fieldNames, List<FieldType> fieldTypes) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (int i = 0; i < fieldNames.size(); ++i) {
+        digest.update(fieldTypes.get(i).name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(fieldNames.get(i).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+      byte[] hash = digest.digest();
+      StringBuilder id = new StringBuilder();
+      for (int i = 0; i < 8; ++i) {
+        id.append(String.format("%02x", hash[i]));
+      }
+      return id.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /** used to construct a {@link HRecordSchema} */
+  public static final class Builder {
+
+    private final List<String> fieldNames = new ArrayList<>();
+    private final List<FieldType> fieldTypes = new ArrayList<>();
+
+    private Builder() {}
+
+    public Builder field(String fieldName, FieldType fieldType) {
+      if (fieldNames.contains(fieldName)) {
+        throw new IllegalArgumentException("duplicate field " + fieldName);
+      }
+      fieldNames.add(fieldName);
+      fieldTypes.add(fieldType);
+      return this;
+    }
+
+    public HRecordSchema build() {
+      if (fieldNames.isEmpty()) {
+        throw new IllegalArgumentException("schema has no fields");
+      }
+      return new HRecordSchema(new ArrayList<>(fieldNames), new ArrayList<>(fieldTypes));
+    }
+  }
+}
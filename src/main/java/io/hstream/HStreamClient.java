@@ -1,6 +1,9 @@
 package io.hstream;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
 /** HstreamClient implement the hstream client, user can use it to interact with server */
 public interface HStreamClient extends AutoCloseable {
@@ -37,6 +40,15 @@ public interface HStreamClient extends AutoCloseable {
    */
   Publisher<HRecord> streamQuery(String sql);
 
+  /**
+   * Execute a single sql query as a {@link Flow.Publisher}, results are only fetched from the
+   * server as the subscriber requests them.
+   *
+   * @param sql sql query wait to execute.
+   * @return a {@link Flow.Publisher} of the results, every subscriber executes the query anew.
+   */
+  Flow.Publisher<HRecord> streamQueryPublisher(String sql);
+
   /**
    * Create a stream.
    *
@@ -44,6 +56,14 @@ public interface HStreamClient extends AutoCloseable {
    */
   void createStream(String stream);
 
+  /**
+   * Create a stream.
+   *
+   * @param stream the name of stream.
+   * @param replicationFactor the number of replicas of the stream.
+   */
+  void createStream(String stream, int replicationFactor);
+
   /**
    * Delete specified stream with streamName.
    *
@@ -52,7 +72,7 @@ public interface HStreamClient extends AutoCloseable {
   void deleteStream(String stream);
 
   /**
-   * Return all created {@link Stream}.
+   * Return all created {@link Stream}, from the metadata cache if it is enabled.
    *
    * @return the list of created streams.
    */
@@ -66,7 +86,7 @@ public interface HStreamClient extends AutoCloseable {
   void createSubscription(Subscription subscription);
 
   /**
-   * Return all created {@link Subscription}.
+   * Return all created {@link Subscription}, from the metadata cache if it is enabled.
    *
    * @return the list of created Subscriptions.
    */
@@ -78,4 +98,115 @@ public interface HStreamClient extends AutoCloseable {
    * @param subscriptionId the id of the subscription to be deleted.
    */
   void deleteSubscription(String subscriptionId);
+
+  /**
+   * Check whether a stream exists, from the metadata cache if it is enabled.
+   *
+   * @param stream the name of stream.
+   * @return whether the stream exists.
+   */
+  boolean streamExists(String stream);
+
+  /**
+   * Look up a subscription by its id, from the metadata cache if it is enabled.
+   *
+   * @param subscriptionId the id of the subscription.
+   * @return the {@link Subscription}, or null if there is none with the id.
+   */
+  Subscription getSubscription(String subscriptionId);
+
+  /**
+   * Create a stream asynchronously.
+   *
+   * @param stream the name of stream.
+   * @return a future completed once the stream is created.
+   */
+  CompletableFuture<Void> createStreamAsync(String stream);
+
+  /**
+   * Create a stream asynchronously.
+   *
+   * @param stream the name of stream.
+   * @param replicationFactor the number of replicas of the stream.
+   * @return a future completed once the stream is created.
+   */
+  CompletableFuture<Void> createStreamAsync(String stream, int replicationFactor);
+
+  /**
+   * Delete specified stream with streamName asynchronously.
+   *
+   * @param stream the name of stream.
+   * @return a future completed once the stream is deleted.
+   */
+  CompletableFuture<Void> deleteStreamAsync(String stream);
+
+  /**
+   * Return all created {@link Stream} asynchronously.
+   *
+   * @return a future of the list of created streams.
+   */
+  CompletableFuture<List<Stream>> listStreamsAsync();
+
+  /**
+   * Create a new Subscription asynchronously.
+   *
+   * @param subscription {@link Subscription}.
+   * @return a future completed once the subscription is created.
+   */
+  CompletableFuture<Void> createSubscriptionAsync(Subscription subscription);
+
+  /**
+   * Return all created {@link Subscription} asynchronously.
+   *
+   * @return a future of the list of created Subscriptions.
+   */
+  CompletableFuture<List<Subscription>> listSubscriptionsAsync();
+
+  /**
+   * Delete specified subscription with subscriptionId asynchronously.
+   *
+   * @param subscriptionId the id of the subscription to be deleted.
+   * @return a future completed once the subscription is deleted.
+   */
+  CompletableFuture<Void> deleteSubscriptionAsync(String subscriptionId);
+
+  /**
+   * Create many streams, with at most {@code parallelism} requests in flight.
+   *
+   * @param streams the names of the streams.
+   * @param replicationFactor the number of replicas of each stream.
+   * @param parallelism the max number of concurrent requests.
+   * @return a future completed once every request is, exceptionally if any of them failed.
+   */
+  CompletableFuture<Void> createStreamsAsync(
+      Collection<String> streams, int replicationFactor, int parallelism);
+
+  /**
+   * Delete many streams, with at most {@code parallelism} requests in flight.
+   *
+   * @param streams the names of the streams.
+   * @param parallelism the max number of concurrent requests.
+   * @return a future completed once every request is, exceptionally if any of them failed.
+   */
+  CompletableFuture<Void> deleteStreamsAsync(Collection<String> streams, int parallelism);
+
+  /**
+   * Create many subscriptions, with at most {@code parallelism} requests in flight.
+   *
+   * @param subscriptions the subscriptions.
+   * @param parallelism the max number of concurrent requests.
+   * @return a future completed once every request is, exceptionally if any of them failed.
+   */
+  CompletableFuture<Void> createSubscriptionsAsync(
+      Collection<Subscription> subscriptions, int parallelism);
+
+  /**
+   * Delete many subscriptions, with at most {@code parallelism} requests in flight.
+   *
+   * @param subscriptionIds the ids of the subscriptions.
+   * @param parallelism the max number of concurrent requests.
+   * @return a future completed once every request is, exceptionally if any of them failed.
+   */
+  CompletableFuture<Void> deleteSubscriptionsAsync(
+      Collection<String> subscriptionIds, int parallelism);
 }
@@ -25,6 +25,12 @@ public class HStreamDBClientException extends RuntimeException {
     }
   }
 
+  public static final class BufferFullException extends HStreamDBClientException {
+    public BufferFullException(final String message) {
+      super(message);
+    }
+  }
+
   public static final class ConsumerException extends HStreamDBClientException {
     public ConsumerException(final String message) {
       super(message);
@@ -1,9 +1,10 @@
 package io.hstream;
 
+import io.hstream.util.HRecordMapper;
 import java.util.concurrent.CompletableFuture;
 
 /** the interface of hstream producer */
-public interface Producer {
+public interface Producer extends AutoCloseable {
 
   /**
    * Sync method to generate a raw format message.
@@ -39,6 +40,36 @@ public interface Producer {
    */
   CompletableFuture<RecordId> writeAsync(HRecord hRecord);
 
+  /**
+   * Sync method to generate a {@link HRecord} format message from an object.
+   *
+   * @param object the object to write.
+   * @param mapper the {@link HRecordMapper} of the object's class.
+   * @return the {@link RecordId} of generated message.
+   */
+  default <T> RecordId write(T object, HRecordMapper<T> mapper) {
+    return write(mapper.toHRecord(object));
+  }
+
+  /**
+   * Async method to generate a {@link HRecord} format message from an object.
+   *
+   * @param object the object to write, its properties are read when the record is encoded.
+   * @param mapper the {@link HRecordMapper} of the object's class.
+   * @return the {@link RecordId} of generated message which wrapped in a {@link CompletableFuture}
+   *     object.
+   */
+  default <T> CompletableFuture<RecordId> writeAsync(T object, HRecordMapper<T> mapper) {
+    return writeAsync(mapper.toHRecord(object));
+  }
+
   /** Flush buffed message. */
   void flush();
+
+  /**
+   * Flush buffered messages and release the resources of the producer, which must not be used
+   * afterwards.
+   */
+  @Override
+  void close();
 }
@@ -1,20 +1,61 @@
 package io.hstream;
 
 import io.hstream.impl.ProducerImpl;
+import java.util.concurrent.ScheduledExecutorService;
 
 /** used to construct a producer */
 public class ProducerBuilder {
 
   private HStreamApiGrpc.HStreamApiStub grpcStub;
 
+  private ScheduledExecutorService timer;
+
   private String streamName;
 
   private boolean enableBatch = false;
 
   private int recordCountLimit = 1;
 
+  private int batchBytesLimit = 1024 * 1024;
+
+  private long maxLingerMs = 100;
+
+  private int maxInFlightRequests = 1;
+
+  private long bufferMemory = 32 * 1024 * 1024;
+
+  private BufferFullPolicy bufferFullPolicy = BufferFullPolicy.BLOCK;
+
+  private long maxBlockMs = 60 * 1000;
+
+  private HRecordFormat hRecordFormat = HRecordFormat.JSON;
+
+  private HRecordSchema schema;
+
+  private boolean streamingAppend = false;
+
+  private long requestTimeoutMs = 30 * 1000;
+
+  private int maxRetries = 0;
+
+  private long retryBackoffMs = 100;
+
+  private long maxRetryBackoffMs = 5 * 1000;
+
+  private double hedgePercentile = 0;
+
   public ProducerBuilder(HStreamApiGrpc.HStreamApiStub stub) {
+    this(stub, null);
+  }
+
+  /**
+   * @param stub the stub to append with.
+   * @param timer the timer of linger flushes, retry backoffs and hedges, owned and shut down by the
+   *     caller, or null to let each producer create its own.
+   */
+  public ProducerBuilder(HStreamApiGrpc.HStreamApiStub stub, ScheduledExecutorService timer) {
     this.grpcStub = stub;
+    this.timer = timer;
   }
 
   public ProducerBuilder stream(String streamName) {
@@ -32,7 +73,199 @@ public class ProducerBuilder {
     return this;
   }
 
+  /**
+   * Set the max size in bytes of a batch, a batch is flushed once its payloads reach this size.
+   * Only takes effect when batch is enabled.
+   *
+   * @param batchBytesLimit max size in bytes of a batch.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder batchBytesLimit(int batchBytesLimit) {
+    this.batchBytesLimit = batchBytesLimit;
+    return this;
+  }
+
+  /**
+   * Set the max time a buffered record waits before its batch is flushed, a non-positive value
+   * means records are only flushed by count, size or an explicit {@link Producer#flush()}. Only
+   * takes effect when batch is enabled.
+   *
+   * @param maxLingerMs max linger time in milliseconds.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder maxLingerMs(long maxLingerMs) {
+    this.maxLingerMs = maxLingerMs;
+    return this;
+  }
+
+  /**
+   * Set the max number of flushed batches waiting for the server's response, writers block only
+   * when this many batches are in flight. Batches sent concurrently may be appended by the server
+   * in a different order, keep the default of 1 if records must be stored in write order.
+   *
+   * @param maxInFlightRequests max number of in-flight append requests.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder maxInFlightRequests(int maxInFlightRequests) {
+    this.maxInFlightRequests = maxInFlightRequests;
+    return this;
+  }
+
+  /**
+   * Set the total serialized size of the records a batching producer may hold, counting records
+   * that are buffered or waiting for the server's response. A record counts with its header, not
+   * just its payload. Only takes effect when batch is enabled.
+   *
+   * @param bufferMemory buffer memory in bytes, at most {@link Integer#MAX_VALUE}.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder bufferMemory(long bufferMemory) {
+    if (bufferMemory < 1 || bufferMemory > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("bufferMemory must be in [1, Integer.MAX_VALUE]");
+    }
+    this.bufferMemory = bufferMemory;
+    return this;
+  }
+
+  /**
+   * Set what a write does when the buffer memory is used up, see {@link BufferFullPolicy}.
+   *
+   * @param bufferFullPolicy the {@link BufferFullPolicy}.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder bufferFullPolicy(BufferFullPolicy bufferFullPolicy) {
+    this.bufferFullPolicy = bufferFullPolicy;
+    return this;
+  }
+
+  /**
+   * Set how long a write may block for buffer memory under {@link
+   * BufferFullPolicy#BLOCK_WITH_TIMEOUT}.
+   *
+   * @param maxBlockMs max block time in milliseconds.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder maxBlockMs(long maxBlockMs) {
+    this.maxBlockMs = maxBlockMs;
+    return this;
+  }
+
+  /**
+   * Set the wire format of written {@link HRecord}s, defaults to {@link HRecordFormat#JSON} which
+   * is required if the stream is queried with SQL.
+   *
+   * @param hRecordFormat the {@link HRecordFormat}.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder hRecordFormat(HRecordFormat hRecordFormat) {
+    this.hRecordFormat = hRecordFormat;
+    return this;
+  }
+
+  /**
+   * Write {@link HRecord}s in the compact positional encoding of a schema instead of the {@link
+   * HRecordFormat}. Only the schema id is sent with each record, consumers must register the same
+   * schema with {@link ConsumerBuilder#schema(HRecordSchema)} to read them.
+   *
+   * @param schema the {@link HRecordSchema} every written {@link HRecord} conforms to.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder schema(HRecordSchema schema) {
+    this.schema = schema;
+    return this;
+  }
+
+  /**
+   * Append over one long-lived stream instead of a unary call per request, which saves the setup of
+   * a call for every batch at high write rates. Falls back to unary calls if the server does not
+   * support it. Defaults to false.
+   *
+   * @param streamingAppend whether to append over a stream.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder streamingAppend(boolean streamingAppend) {
+    this.streamingAppend = streamingAppend;
+    return this;
+  }
+
+  /**
+   * Set the deadline of every append call, after which the call fails with {@code
+   * DEADLINE_EXCEEDED} and may be retried. With {@link #streamingAppend(boolean)} it bounds how
+   * long each batch waits for its response on the stream, a batch that times out there fails
+   * without a retry. A non-positive value means no deadline. Defaults to 30 seconds.
+   *
+   * @param requestTimeoutMs the deadline in milliseconds.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder requestTimeoutMs(long requestTimeoutMs) {
+    this.requestTimeoutMs = requestTimeoutMs;
+    return this;
+  }
+
+  /**
+   * Set how many times an append that failed with {@code UNAVAILABLE}, {@code DEADLINE_EXCEEDED} or
+   * {@code RESOURCE_EXHAUSTED} is sent again, after an exponential backoff with jitter. A retried
+   * append may be stored twice if the failed call reached the server. Defaults to 0.
+   *
+   * @param maxRetries max number of retries.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder maxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  /**
+   * Set the backoff before the first retry, which doubles for every further retry up to the max.
+   * The backoff actually waited is picked at random below it. Defaults to 100 ms and 5 seconds.
+   *
+   * @param retryBackoffMs the backoff before the first retry in milliseconds.
+   * @param maxRetryBackoffMs the max backoff in milliseconds.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder retryBackoffMs(long retryBackoffMs, long maxRetryBackoffMs) {
+    this.retryBackoffMs = retryBackoffMs;
+    this.maxRetryBackoffMs = maxRetryBackoffMs;
+    return this;
+  }
+
+  /**
+   * Hedge appends: an append still waiting for its response after the given percentile of recent
+   * append latencies, such as 0.99, is sent once more, and the first response wins. This cuts the
+   * tail latency a slow server adds, at the cost of the hedged appends, which may be stored twice.
+   * Applies to unary appends. Disabled by default.
+   *
+   * @param hedgePercentile the latency percentile in (0, 1), 0 to disable.
+   * @return the {@link ProducerBuilder}.
+   */
+  public ProducerBuilder hedgeAfterPercentile(double hedgePercentile) {
+    if (hedgePercentile < 0 || hedgePercentile >= 1) {
+      throw new IllegalArgumentException("hedgePercentile must be in [0, 1)");
+    }
+    this.hedgePercentile = hedgePercentile;
+    return this;
+  }
+
   public Producer build() {
-    return new ProducerImpl(grpcStub, streamName, enableBatch, recordCountLimit);
+    return new ProducerImpl(
+        grpcStub,
+        streamName,
+        enableBatch,
+        recordCountLimit,
+        batchBytesLimit,
+        maxLingerMs,
+        maxInFlightRequests,
+        bufferMemory,
+        bufferFullPolicy,
+        maxBlockMs,
+        hRecordFormat,
+        schema,
+        streamingAppend,
+        requestTimeoutMs,
+        maxRetries,
+        retryBackoffMs,
+        maxRetryBackoffMs,
+        hedgePercentile,
+        timer);
   }
 }
@@ -4,7 +4,9 @@ package io.hstream;
 public interface Publisher<V> {
 
   /**
-   * Request {@link Publisher} to start streaming data.
+   * Request {@link Publisher} to start streaming data. A {@link FlowControlledObserver} receives
+   * values as it requests them, any other {@link Observer} receives the next value once it returns
+   * from {@link Observer#onNext(Object)}.
    *
    * @param o the {@link Observer} that will consume data from this {@link Publisher}
    */
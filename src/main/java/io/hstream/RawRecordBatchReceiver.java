@@ -0,0 +1,15 @@
+package io.hstream;
+
+import java.util.List;
+
+/** the interface that user use to process raw records received from server a batch at a time */
+public interface RawRecordBatchReceiver {
+
+  /**
+   * used to consume a batch of raw format records, in the order they were fetched.
+   *
+   * @param receivedRawRecords records received from producer
+   * @param responder {@link Responder} used to ack every record of the batch in one call.
+   */
+  void processRawRecords(List<ReceivedRawRecord> receivedRawRecords, Responder responder);
+}
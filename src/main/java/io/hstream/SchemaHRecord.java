@@ -0,0 +1,54 @@
+package io.hstream;
+
+/** A {@link HRecord} whose fields are the typed slots of a {@link HRecordSchema}. */
+public class SchemaHRecord extends BoxedHRecord {
+
+  private final HRecordSchema schema;
+  // one value per schema field, a boxed Integer, Long, Double, Boolean or String, null if unset
+  private final Object[] values;
+
+  /**
+   * @param values in schema field order, each of the boxed type of its field or null if unset
+   */
+  public SchemaHRecord(HRecordSchema schema, Object[] values) {
+    if (values.length != schema.getFieldCount()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "expect %d values for schema %s, but got %d",
+              schema.getFieldCount(), schema.getId(), values.length));
+    }
+    this.schema = schema;
+    this.values = values;
+  }
+
+  public HRecordSchema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @return the value of the field at the schema position, null if it is unset
+   */
+  public Object getValue(int index) {
+    return values[index];
+  }
+
+  @Override
+  protected int getFieldCount() {
+    return values.length;
+  }
+
+  @Override
+  protected String getFieldName(int index) {
+    return schema.getFieldName(index);
+  }
+
+  @Override
+  protected Object getFieldValue(int index) {
+    return values[index];
+  }
+
+  @Override
+  protected int indexOf(String name) {
+    return schema.indexOf(name);
+  }
+}
@@ -0,0 +1,81 @@
+package io.hstream;
+
+/** used to construct a {@link SchemaHRecord}, see {@link HRecordSchema#newRecordBuilder()} */
+public class SchemaHRecordBuilder {
+
+  private final HRecordSchema schema;
+  private final Object[] values;
+
+  SchemaHRecordBuilder(HRecordSchema schema) {
+    this.schema = schema;
+    this.values = new Object[schema.getFieldCount()];
+  }
+
+  public SchemaHRecordBuilder put(String fieldName, int intValue) {
+    return put(fieldName, (long) intValue);
+  }
+
+  public SchemaHRecordBuilder put(String fieldName, long longValue) {
+    int index = indexOf(fieldName);
+    switch (schema.getFieldType(index)) {
+      case INT32:
+        values[index] = Math.toIntExact(longValue);
+        break;
+      case INT64:
+        values[index] = longValue;
+        break;
+      case DOUBLE:
+        values[index] = (double) longValue;
+        break;
+      default:
+        throw typeMismatch(index, "integer");
+    }
+    return this;
+  }
+
+  public SchemaHRecordBuilder put(String fieldName, double doubleValue) {
+    int index = indexOf(fieldName);
+    if (schema.getFieldType(index) != HRecordSchema.FieldType.DOUBLE) {
+      throw typeMismatch(index, "double");
+    }
+    values[index] = doubleValue;
+    return this;
+  }
+
+  public SchemaHRecordBuilder put(String fieldName, boolean boolValue) {
+    int index = indexOf(fieldName);
+    if (schema.getFieldType(index) != HRecordSchema.FieldType.BOOL) {
+      throw typeMismatch(index, "boolean");
+    }
+    values[index] = boolValue;
+    return this;
+  }
+
+  public SchemaHRecordBuilder put(String fieldName, String stringValue) {
+    int index = indexOf(fieldName);
+    if (schema.getFieldType(index) != HRecordSchema.FieldType.STRING) {
+      throw typeMismatch(index, "string");
+    }
+    values[index] = stringValue;
+    return this;
+  }
+
+  public SchemaHRecord build() {
+    return new SchemaHRecord(schema, values.clone());
+  }
+
+  private int indexOf(String fieldName) {
+    int index = schema.indexOf(fieldName);
+    if (index < 0) {
+      throw new IllegalArgumentException("schema " + schema.getId() + " has no field " + fieldName);
+    }
+    return index;
+  }
+
+  private IllegalArgumentException typeMismatch(int index, String valueType) {
+    return new IllegalArgumentException(
+        String.format(
+            "field %s is %s, can not put a %s",
+            schema.getFieldName(index), schema.getFieldType(index), valueType));
+  }
+}
@@ -0,0 +1,17 @@
+package io.hstream;
+
+/**
+ * the interface that user use to process {@link HRecord}s received from server as objects, see
+ * {@link ConsumerBuilder#typedRecordReceiver(io.hstream.util.HRecordMapper, TypedRecordReceiver)}
+ */
+public interface TypedRecordReceiver<T> {
+
+  /**
+   * used to consume {@link HRecord} format message mapped to an object.
+   *
+   * @param recordId the {@link RecordId} of the message
+   * @param record the object mapped from the message
+   * @param responder {@link Responder} used to ack producer when received message.
+   */
+  void processRecord(RecordId recordId, T record, Responder responder);
+}
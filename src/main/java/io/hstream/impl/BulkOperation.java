@@ -0,0 +1,109 @@
+package io.hstream.impl;
+
+import io.hstream.HStreamDBClientException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Runs an asynchronous operation for each of many items, with at most {@code parallelism} of them
+ * in flight. The result completes once every operation has, exceptionally if any of them failed,
+ * with the other failures suppressed by the first.
+ */
+final class BulkOperation<T> {
+
+  private final Function<T, CompletableFuture<?>> operation;
+  private final int itemCount;
+  private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+  // guarded by this
+  private final Iterator<T> items;
+  private final List<Throwable> failures = new ArrayList<>();
+  private int completed;
+
+  private BulkOperation(Collection<T> items, Function<T, CompletableFuture<?>> operation) {
+    this.items = new ArrayList<>(items).iterator();
+    this.itemCount = items.size();
+    this.operation = operation;
+  }
+
+  static <T> CompletableFuture<Void> run(
+      Collection<T> items, Function<T, CompletableFuture<?>> operation, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+    BulkOperation<T> bulkOperation = new BulkOperation<>(items, operation);
+    if (items.isEmpty()) {
+      bulkOperation.result.complete(null);
+    }
+    for (int i = 0; i < Math.min(parallelism, items.size()); ++i) {
+      bulkOperation.runNext();
+    }
+    return bulkOperation.result;
+  }
+
+  private void runNext() {
+    while (true) {
+      T item;
+      synchronized (this) {
+        if (!items.hasNext()) {
+          return;
+        }
+        item = items.next();
+      }
+
+      CompletableFuture<?> future;
+      try {
+        future = operation.apply(item);
+      } catch (RuntimeException e) {
+        future = CompletableFuture.failedFuture(e);
+      }
+      if (!future.isDone()) {
+        future.whenComplete(
+            (r, e) -> {
+              onCompleted(unwrap(e));
+              runNext();
+            });
+        return;
+      }
+      // loop rather than recurse on operations that complete at once
+      try {
+        future.join();
+        onCompleted(null);
+      } catch (RuntimeException e) {
+        onCompleted(unwrap(e));
+      }
+    }
+  }
+
+  private static Throwable unwrap(Throwable t) {
+    return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+  }
+
+  private void onCompleted(Throwable failure) {
+    synchronized (this) {
+      if (failure != null) {
+        failures.add(failure);
+      }
+      if (++completed < itemCount) {
+        return;
+      }
+    }
+    if (failures.isEmpty()) {
+      result.complete(null);
+      return;
+    }
+    HStreamDBClientException e =
+        new HStreamDBClientException(
+            String.format("%d of %d operations failed", failures.size(), itemCount),
+            failures.get(0));
+    for (Throwable suppressed : failures.subList(1, failures.size())) {
+      e.addSuppressed(suppressed);
+    }
+    result.completeExceptionally(e);
+  }
+}
@@ -0,0 +1,66 @@
+package io.hstream.impl;
+
+import io.grpc.ManagedChannel;
+import io.hstream.HStreamApiGrpc;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of channels to the same target, each with its own connection. Producers and consumers
+ * are spread over them round robin, so a busy producer does not hold up the others on a single
+ * connection. Admin calls always go through the first channel, which is left out of the rotation
+ * when there is more than one, so stream and subscription management is not queued behind
+ * producer traffic.
+ */
+final class ChannelPool {
+
+  static final int adminChannel = 0;
+
+  private final ManagedChannel[] channels;
+  private final HStreamApiGrpc.HStreamApiStub[] stubs;
+  private final HStreamApiGrpc.HStreamApiBlockingStub[] blockingStubs;
+  private final AtomicInteger nextChannel = new AtomicInteger();
+
+  ChannelPool(int channelCount, Supplier<ManagedChannel> channelFactory) {
+    if (channelCount < 1) {
+      throw new IllegalArgumentException("channelCount must be at least 1");
+    }
+    this.channels = new ManagedChannel[channelCount];
+    this.stubs = new HStreamApiGrpc.HStreamApiStub[channelCount];
+    this.blockingStubs = new HStreamApiGrpc.HStreamApiBlockingStub[channelCount];
+    for (int i = 0; i < channelCount; ++i) {
+      channels[i] = channelFactory.get();
+      stubs[i] = HStreamApiGrpc.newStub(channels[i]);
+      blockingStubs[i] = HStreamApiGrpc.newBlockingStub(channels[i]);
+    }
+  }
+
+  int size() {
+    return channels.length;
+  }
+
+  /**
+   * @return the channel for the next producer or consumer, round robin over every channel but the
+   *     admin one, or the admin one if it is the only channel
+   */
+  int nextChannel() {
+    if (channels.length == 1) {
+      return adminChannel;
+    }
+    return 1 + Math.floorMod(nextChannel.getAndIncrement(), channels.length - 1);
+  }
+
+  HStreamApiGrpc.HStreamApiStub getStub(int channel) {
+    return stubs[channel];
+  }
+
+  HStreamApiGrpc.HStreamApiBlockingStub getBlockingStub(int channel) {
+    return blockingStubs[channel];
+  }
+
+  void shutdownNow() {
+    for (ManagedChannel channel : channels) {
+      channel.shutdownNow();
+    }
+  }
+}
@@ -1,14 +1,28 @@
 package io.hstream.impl;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.Empty;
-import com.google.protobuf.Struct;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
 import io.grpc.stub.StreamObserver;
 import io.hstream.*;
 import io.hstream.HStreamApiGrpc;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,25 +30,144 @@ public class ClientImpl implements HStreamClient {
 
   private static final Logger logger = LoggerFactory.getLogger(ClientImpl.class);
 
-  private final ManagedChannel managedChannel;
+  private static final int defaultReplicationFactor = 3;
+  private static final long deleteSubscriptionTimeoutMs = 1000;
+
+  static {
+    LatencyAwareLoadBalancer.register();
+    EndpointsNameResolver.register();
+  }
+
+  private final ChannelPool channelPool;
+  // created by the client, null if it uses gRPC's
+  private final EventLoopGroup ownedEventLoopGroup;
+  // admin calls and queries
   private final HStreamApiGrpc.HStreamApiStub stub;
   private final HStreamApiGrpc.HStreamApiBlockingStub blockingStub;
+  // null if the metadata cache is disabled
+  private final MetadataCache<Stream> streamCache;
+  private final MetadataCache<Subscription> subscriptionCache;
+  // shared by the producers of the client for linger flushes, retry backoffs and hedges
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("hstream-client-timer-%d")
+              .setDaemon(true)
+              .build());
+
+  /**
+   * @param serviceUrls the servers, which calls are balanced over
+   * @param loadBalancingPolicy the name of a registered gRPC load balancing policy, or null for
+   *     {@code pick_first} with a single server and {@link
+   *     ClientBuilder#LEAST_OUTSTANDING_REQUESTS} with several
+   * @param channelCount the number of channels
+   * @param nativeTransport whether to use the epoll transport where it is available
+   * @param ioThreads the number of I/O threads the client starts, 0 for gRPC's shared ones with the
+   *     epoll transport and a default number with the NIO transport
+   * @param executor the executor of call callbacks, or null for gRPC's
+   * @param flowControlWindow the initial HTTP/2 flow control window in bytes
+   * @param maxInboundMessageSize the max size in bytes of a received message
+   * @param keepAliveTimeMs the time without reads before a keepalive ping, 0 to disable
+   * @param keepAliveTimeoutMs the time to wait for a keepalive ping to be acked
+   * @param keepAliveWithoutCalls whether to ping when there are no outstanding calls
+   * @param metadataCacheTtlMs the TTL of cached stream and subscription listings, 0 to disable
+   */
+  public ClientImpl(
+      List<String> serviceUrls,
+      String loadBalancingPolicy,
+      int channelCount,
+      boolean nativeTransport,
+      int ioThreads,
+      Executor executor,
+      int flowControlWindow,
+      int maxInboundMessageSize,
+      long keepAliveTimeMs,
+      long keepAliveTimeoutMs,
+      boolean keepAliveWithoutCalls,
+      long metadataCacheTtlMs) {
+    boolean epoll = nativeTransport && Epoll.isAvailable();
+    if (nativeTransport && !epoll) {
+      logger.info("epoll transport is not available, use nio transport");
+    }
+    // gRPC picks the transport itself, epoll where available, if the client starts no I/O threads
+    Class<? extends Channel> channelType;
+    if (epoll && ioThreads > 0) {
+      this.ownedEventLoopGroup =
+          new EpollEventLoopGroup(
+              ioThreads,
+              new ThreadFactoryBuilder().setNameFormat("hstream-epoll-%d").setDaemon(true).build());
+      channelType = EpollSocketChannel.class;
+    } else if (!nativeTransport || ioThreads > 0) {
+      this.ownedEventLoopGroup =
+          new NioEventLoopGroup(
+              ioThreads,
+              new ThreadFactoryBuilder().setNameFormat("hstream-nio-%d").setDaemon(true).build());
+      channelType = NioSocketChannel.class;
+    } else {
+      this.ownedEventLoopGroup = null;
+      channelType = null;
+    }
+    EventLoopGroup channelEventLoopGroup = ownedEventLoopGroup;
+    String target = toTarget(serviceUrls);
+    String policy =
+        loadBalancingPolicy != null
+            ? loadBalancingPolicy
+            : serviceUrls.size() == 1 ? "pick_first" : ClientBuilder.LEAST_OUTSTANDING_REQUESTS;
+    this.channelPool =
+        new ChannelPool(
+            channelCount,
+            () -> {
+              NettyChannelBuilder builder =
+                  NettyChannelBuilder.forTarget(target)
+                      .defaultLoadBalancingPolicy(policy)
+                      .initialFlowControlWindow(flowControlWindow)
+                      .maxInboundMessageSize(maxInboundMessageSize)
+                      .usePlaintext();
+              if (channelEventLoopGroup != null) {
+                builder.eventLoopGroup(channelEventLoopGroup).channelType(channelType);
+              }
+              if (executor != null) {
+                builder.executor(executor);
+              }
+              if (keepAliveTimeMs > 0) {
+                builder
+                    .keepAliveTime(keepAliveTimeMs, TimeUnit.MILLISECONDS)
+                    .keepAliveTimeout(keepAliveTimeoutMs, TimeUnit.MILLISECONDS)
+                    .keepAliveWithoutCalls(keepAliveWithoutCalls);
+              }
+              return builder.build();
+            });
+    this.stub = channelPool.getStub(ChannelPool.adminChannel);
+    this.blockingStub = channelPool.getBlockingStub(ChannelPool.adminChannel);
+    if (metadataCacheTtlMs > 0) {
+      this.streamCache =
+          new MetadataCache<>(this::fetchStreams, Stream::getStreamName, metadataCacheTtlMs);
+      this.subscriptionCache =
+          new MetadataCache<>(
+              this::fetchSubscriptions, Subscription::getSubscriptionId, metadataCacheTtlMs);
+    } else {
+      this.streamCache = null;
+      this.subscriptionCache = null;
+    }
+  }
 
-  public ClientImpl(String serviceUrl) {
-    ManagedChannel channel = ManagedChannelBuilder.forTarget(serviceUrl).usePlaintext().build();
-    this.managedChannel = channel;
-    this.stub = HStreamApiGrpc.newStub(channel);
-    this.blockingStub = HStreamApiGrpc.newBlockingStub(channel);
+  private static String toTarget(List<String> serviceUrls) {
+    if (serviceUrls.isEmpty()) {
+      throw new IllegalArgumentException("serviceUrls must not be empty");
+    }
+    // a single service url may be any target gRPC resolves, such as dns:///host:port
+    return serviceUrls.size() == 1 ? serviceUrls.get(0) : EndpointsNameResolver.target(serviceUrls);
   }
 
   @Override
   public ProducerBuilder newProducer() {
-    return new ProducerBuilder(stub);
+    return new ProducerBuilder(channelPool.getStub(channelPool.nextChannel()), timer);
   }
 
   @Override
   public ConsumerBuilder newConsumer() {
-    return new ConsumerBuilder(stub, blockingStub);
+    int channel = channelPool.nextChannel();
+    return new ConsumerBuilder(channelPool.getStub(channel), channelPool.getBlockingStub(channel));
   }
 
   @Override
@@ -42,51 +175,53 @@ public class ClientImpl implements HStreamClient {
     CommandPushQuery pushQuery = CommandPushQuery.newBuilder().setQueryText(sql).build();
 
     Publisher<HRecord> responsePublisher =
-        new Publisher<HRecord>() {
-          @Override
-          public void subscribe(Observer<? super HRecord> observer) {
-            StreamObserver<Struct> streamObserver =
-                new StreamObserver<>() {
-                  @Override
-                  public void onNext(Struct value) {
-                    observer.onNext(new HRecord(value.getFieldsOrThrow("SELECT").getStructValue()));
-                  }
-
-                  @Override
-                  public void onError(Throwable t) {
-                    observer.onError(t);
-                  }
-
-                  @Override
-                  public void onCompleted() {
-                    observer.onCompleted();
-                  }
-                };
-
-            stub.executePushQuery(pushQuery, streamObserver);
-          }
-        };
+        observer -> PushQueryObserver.subscribe(stub, pushQuery, observer);
 
     return responsePublisher;
   }
 
+  @Override
+  public Flow.Publisher<HRecord> streamQueryPublisher(String sql) {
+    return new FlowPublisherAdapter<>(streamQuery(sql));
+  }
+
   @Override
   public void createStream(String streamName) {
-    Stream stream = Stream.newBuilder().setStreamName(streamName).setReplicationFactor(3).build();
+    createStream(streamName, defaultReplicationFactor);
+  }
+
+  @Override
+  public void createStream(String streamName, int replicationFactor) {
+    Stream stream =
+        Stream.newBuilder()
+            .setStreamName(streamName)
+            .setReplicationFactor(replicationFactor)
+            .build();
 
-    blockingStub.createStream(stream);
+    try {
+      blockingStub.createStream(stream);
+    } finally {
+      invalidateStreams();
+    }
   }
 
   @Override
   public void deleteStream(String streamName) {
     DeleteStreamRequest deleteStreamRequest =
         DeleteStreamRequest.newBuilder().setStreamName(streamName).build();
-    blockingStub.deleteStream(deleteStreamRequest);
+    try {
+      blockingStub.deleteStream(deleteStreamRequest);
+    } finally {
+      invalidateStreams();
+    }
     logger.info("delete stream {} done", streamName);
   }
 
   @Override
   public List<Stream> listStreams() {
+    if (streamCache != null) {
+      return join(streamCache.get()).values;
+    }
     Empty empty = Empty.newBuilder().build();
     ListStreamsResponse listStreamsResponse = blockingStub.listStreams(empty);
     return listStreamsResponse.getStreamsList();
@@ -94,25 +229,206 @@ public class ClientImpl implements HStreamClient {
 
   @Override
   public void createSubscription(Subscription subscription) {
-    blockingStub.createSubscription(subscription);
+    try {
+      blockingStub.createSubscription(subscription);
+    } finally {
+      invalidateSubscriptions();
+    }
   }
 
   @Override
   public List<Subscription> listSubscriptions() {
+    if (subscriptionCache != null) {
+      return join(subscriptionCache.get()).values;
+    }
     return blockingStub.listSubscriptions(Empty.newBuilder().build()).getSubscriptionList();
   }
 
   @Override
   public void deleteSubscription(String subscriptionId) {
-    blockingStub
-        .withDeadlineAfter(1000, TimeUnit.MILLISECONDS)
-        .deleteSubscription(
-            DeleteSubscriptionRequest.newBuilder().setSubscriptionId(subscriptionId).build());
+    try {
+      blockingStub
+          .withDeadlineAfter(deleteSubscriptionTimeoutMs, TimeUnit.MILLISECONDS)
+          .deleteSubscription(
+              DeleteSubscriptionRequest.newBuilder().setSubscriptionId(subscriptionId).build());
+    } finally {
+      invalidateSubscriptions();
+    }
     logger.info("delete subscription {} done", subscriptionId);
   }
 
+  @Override
+  public CompletableFuture<Void> createStreamAsync(String streamName) {
+    return createStreamAsync(streamName, defaultReplicationFactor);
+  }
+
+  @Override
+  public CompletableFuture<Void> createStreamAsync(String streamName, int replicationFactor) {
+    Stream stream =
+        Stream.newBuilder()
+            .setStreamName(streamName)
+            .setReplicationFactor(replicationFactor)
+            .build();
+    return unaryCall(stub::createStream, stream)
+        .<Void>thenApply(response -> null)
+        .whenComplete((r, e) -> invalidateStreams());
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteStreamAsync(String streamName) {
+    DeleteStreamRequest deleteStreamRequest =
+        DeleteStreamRequest.newBuilder().setStreamName(streamName).build();
+    return unaryCall(stub::deleteStream, deleteStreamRequest)
+        .<Void>thenApply(
+            response -> {
+              logger.info("delete stream {} done", streamName);
+              return null;
+            })
+        .whenComplete((r, e) -> invalidateStreams());
+  }
+
+  @Override
+  public CompletableFuture<List<Stream>> listStreamsAsync() {
+    if (streamCache != null) {
+      return streamCache.get().thenApply(snapshot -> snapshot.values);
+    }
+    return fetchStreams();
+  }
+
+  @Override
+  public CompletableFuture<Void> createSubscriptionAsync(Subscription subscription) {
+    return unaryCall(stub::createSubscription, subscription)
+        .<Void>thenApply(response -> null)
+        .whenComplete((r, e) -> invalidateSubscriptions());
+  }
+
+  @Override
+  public CompletableFuture<List<Subscription>> listSubscriptionsAsync() {
+    if (subscriptionCache != null) {
+      return subscriptionCache.get().thenApply(snapshot -> snapshot.values);
+    }
+    return fetchSubscriptions();
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteSubscriptionAsync(String subscriptionId) {
+    return unaryCall(
+            stub.withDeadlineAfter(deleteSubscriptionTimeoutMs, TimeUnit.MILLISECONDS)
+                ::deleteSubscription,
+            DeleteSubscriptionRequest.newBuilder().setSubscriptionId(subscriptionId).build())
+        .<Void>thenApply(
+            response -> {
+              logger.info("delete subscription {} done", subscriptionId);
+              return null;
+            })
+        .whenComplete((r, e) -> invalidateSubscriptions());
+  }
+
+  @Override
+  public boolean streamExists(String streamName) {
+    if (streamCache != null) {
+      return join(streamCache.get()).byKey.containsKey(streamName);
+    }
+    return listStreams().stream().anyMatch(stream -> stream.getStreamName().equals(streamName));
+  }
+
+  @Override
+  public Subscription getSubscription(String subscriptionId) {
+    if (subscriptionCache != null) {
+      return join(subscriptionCache.get()).byKey.get(subscriptionId);
+    }
+    return listSubscriptions().stream()
+        .filter(subscription -> subscription.getSubscriptionId().equals(subscriptionId))
+        .findFirst()
+        .orElse(null);
+  }
+
+  private CompletableFuture<List<Stream>> fetchStreams() {
+    return unaryCall(stub::listStreams, Empty.newBuilder().build())
+        .thenApply(ListStreamsResponse::getStreamsList);
+  }
+
+  private CompletableFuture<List<Subscription>> fetchSubscriptions() {
+    return unaryCall(stub::listSubscriptions, Empty.newBuilder().build())
+        .thenApply(ListSubscriptionsResponse::getSubscriptionList);
+  }
+
+  private void invalidateStreams() {
+    if (streamCache != null) {
+      streamCache.invalidate();
+    }
+  }
+
+  private void invalidateSubscriptions() {
+    if (subscriptionCache != null) {
+      subscriptionCache.invalidate();
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new HStreamDBClientException(e.getCause());
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> createStreamsAsync(
+      Collection<String> streamNames, int replicationFactor, int parallelism) {
+    return BulkOperation.run(
+        streamNames, streamName -> createStreamAsync(streamName, replicationFactor), parallelism);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteStreamsAsync(
+      Collection<String> streamNames, int parallelism) {
+    return BulkOperation.run(streamNames, this::deleteStreamAsync, parallelism);
+  }
+
+  @Override
+  public CompletableFuture<Void> createSubscriptionsAsync(
+      Collection<Subscription> subscriptions, int parallelism) {
+    return BulkOperation.run(subscriptions, this::createSubscriptionAsync, parallelism);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteSubscriptionsAsync(
+      Collection<String> subscriptionIds, int parallelism) {
+    return BulkOperation.run(subscriptionIds, this::deleteSubscriptionAsync, parallelism);
+  }
+
+  private static <Req, Resp> CompletableFuture<Resp> unaryCall(
+      BiConsumer<Req, StreamObserver<Resp>> call, Req request) {
+    CompletableFuture<Resp> future = new CompletableFuture<>();
+    call.accept(
+        request,
+        new StreamObserver<>() {
+          @Override
+          public void onNext(Resp response) {
+            future.complete(response);
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            future.completeExceptionally(new HStreamDBClientException(t));
+          }
+
+          @Override
+          public void onCompleted() {}
+        });
+    return future;
+  }
+
   @Override
   public void close() throws Exception {
-    managedChannel.shutdownNow();
+    channelPool.shutdownNow();
+    timer.shutdownNow();
+    if (ownedEventLoopGroup != null) {
+      ownedEventLoopGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+    }
   }
 }
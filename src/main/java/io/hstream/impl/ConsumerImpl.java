@@ -3,15 +3,23 @@ package io.hstream.impl;
 import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import io.hstream.*;
 import io.hstream.util.RecordUtils;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ConsumerImpl extends AbstractService implements Consumer {
   private static final Logger logger = LoggerFactory.getLogger(ConsumerImpl.class);
+  // the max time stopping waits for the receivers to process the records handed to them
+  private static final long stopTimeoutMs = 10 * 1000;
 
   private HStreamApiGrpc.HStreamApiStub grpcStub;
   private HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub;
@@ -19,12 +27,27 @@ public class ConsumerImpl extends AbstractService implements Consumer {
   private String subscriptionId;
   private RawRecordReceiver rawRecordReceiver;
   private HRecordReceiver hRecordReceiver;
+  // replaces the hRecordReceiver if set
+  private MappedRecordReceiver<?> mappedRecordReceiver;
+  private RawRecordBatchReceiver rawRecordBatchReceiver;
+  private HRecordBatchReceiver hRecordBatchReceiver;
+  private boolean lazyHRecordDecoding;
+  private Map<String, HRecordSchema> schemas;
+  private int maxFetchesInFlight;
+  private int maxBufferedRecords;
+  private long maxBufferedBytes;
+  private boolean streamingFetch;
 
-  private static final long pollTimeoutMs = 1000;
-  private static final int maxPollRecords = 1000;
+  private long pollTimeoutMs;
+  private int maxPollRecords;
+  private long targetBatchLatencyMs;
 
   private ExecutorService executorService;
   private ScheduledExecutorService scheduledExecutorService;
+  private OffsetCommitter offsetCommitter;
+  // null if the receivers run on the fetching thread
+  private ReceiverLanes receiverLanes;
+  private volatile RecordFetcher recordFetcher;
 
   public ConsumerImpl(
       HStreamApiGrpc.HStreamApiStub grpcStub,
@@ -32,18 +55,68 @@ public class ConsumerImpl extends AbstractService implements Consumer {
       String consumerName,
       String subscriptionId,
       RawRecordReceiver rawRecordReceiver,
-      HRecordReceiver hRecordReceiver) {
+      HRecordReceiver hRecordReceiver,
+      MappedRecordReceiver<?> mappedRecordReceiver,
+      RawRecordBatchReceiver rawRecordBatchReceiver,
+      HRecordBatchReceiver hRecordBatchReceiver,
+      boolean lazyHRecordDecoding,
+      Map<String, HRecordSchema> schemas,
+      long commitIntervalMs,
+      int commitAckCount,
+      int parallelism,
+      Function<HStreamRecord, String> keyExtractor,
+      int maxUnackedRecords,
+      long pollTimeoutMs,
+      int maxPollRecords,
+      long targetBatchLatencyMs,
+      int maxFetchesInFlight,
+      int maxBufferedRecords,
+      long maxBufferedBytes,
+      boolean streamingFetch) {
     this.grpcStub = grpcStub;
     this.grpcBlockingStub = grpcBlockingStub;
     this.consumerName = consumerName;
     this.subscriptionId = subscriptionId;
     this.rawRecordReceiver = rawRecordReceiver;
     this.hRecordReceiver = hRecordReceiver;
+    this.mappedRecordReceiver = mappedRecordReceiver;
+    this.rawRecordBatchReceiver = rawRecordBatchReceiver;
+    this.hRecordBatchReceiver = hRecordBatchReceiver;
+    this.lazyHRecordDecoding = lazyHRecordDecoding;
+    this.schemas = schemas;
+    this.pollTimeoutMs = pollTimeoutMs;
+    this.maxPollRecords = maxPollRecords;
+    this.targetBatchLatencyMs = targetBatchLatencyMs;
+    this.maxFetchesInFlight = maxFetchesInFlight;
+    this.maxBufferedRecords = maxBufferedRecords;
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.streamingFetch = streamingFetch;
 
     this.executorService =
         Executors.newSingleThreadExecutor(
             new ThreadFactoryBuilder().setNameFormat("receiver-running-pool-%d").build());
     this.scheduledExecutorService = new ScheduledThreadPoolExecutor(1);
+    this.offsetCommitter =
+        parallelism == 1
+            ? OffsetCommitter.cumulative(
+                grpcStub,
+                grpcBlockingStub,
+                subscriptionId,
+                commitIntervalMs,
+                commitAckCount,
+                scheduledExecutorService)
+            : OffsetCommitter.outOfOrder(
+                grpcStub,
+                grpcBlockingStub,
+                subscriptionId,
+                commitIntervalMs,
+                commitAckCount,
+                // a fetched batch is tracked before any of it is dispatched, so it must always fit
+                Math.max(maxUnackedRecords, Math.max(maxPollRecords, maxBufferedRecords)),
+                scheduledExecutorService);
+    if (parallelism > 1) {
+      this.receiverLanes = new ReceiverLanes(parallelism, keyExtractor, 2 * maxPollRecords);
+    }
   }
 
   @Override
@@ -71,12 +144,19 @@ public class ConsumerImpl extends AbstractService implements Consumer {
           public void onCompleted() {}
         };
 
-    FetchRequest fetchRequest =
-        FetchRequest.newBuilder()
-            .setSubscriptionId(subscriptionId)
-            .setTimeout(pollTimeoutMs)
-            .setMaxSize(maxPollRecords)
-            .build();
+    if (streamingFetch) {
+      StreamingFetcher streamingFetcher =
+          new StreamingFetcher(
+              grpcStub,
+              subscriptionId,
+              maxBufferedRecords,
+              maxBufferedBytes,
+              scheduledExecutorService);
+      offsetCommitter.setAckStream(streamingFetcher);
+      recordFetcher = streamingFetcher;
+    } else {
+      recordFetcher = newFetchPrefetcher();
+    }
 
     SubscribeRequest subscribeRequest =
         SubscribeRequest.newBuilder().setSubscriptionId(subscriptionId).build();
@@ -92,27 +172,32 @@ public class ConsumerImpl extends AbstractService implements Consumer {
 
             executorService.submit(
                 () -> {
-                  do {
-                    logger.info("start fetch and processing ...");
-                    FetchResponse fetchResponse = grpcBlockingStub.fetch(fetchRequest);
-                    logger.info("fetched {} records", fetchResponse.getReceivedRecordsCount());
-                    for (ReceivedRecord receivedRecord : fetchResponse.getReceivedRecordsList()) {
-                      if (RecordUtils.isRawRecord(receivedRecord)) {
-                        logger.info("ready to process rawRecord");
-                        rawRecordReceiver.processRawRecord(
-                            toReceivedRawRecord(receivedRecord),
-                            new ResponderImpl(
-                                grpcBlockingStub, subscriptionId, receivedRecord.getRecordId()));
-                      } else {
-                        logger.info("ready to process hrecord");
-                        hRecordReceiver.processHRecord(
-                            toReceivedHRecord(receivedRecord),
-                            new ResponderImpl(
-                                grpcBlockingStub, subscriptionId, receivedRecord.getRecordId()));
+                  logger.info("start fetch and processing ...");
+                  recordFetcher.start();
+                  try {
+                    do {
+                      List<ReceivedRecord> receivedRecords;
+                      try {
+                        receivedRecords = recordFetcher.take();
+                      } catch (HStreamDBClientException.ConsumerException e) {
+                        if (!isStreamingFetchUnimplemented(e)) {
+                          throw e;
+                        }
+                        logger.warn("server does not support streaming fetch, use unary fetch");
+                        offsetCommitter.setAckStream(null);
+                        recordFetcher = newFetchPrefetcher();
+                        recordFetcher.start();
+                        continue;
                       }
-                    }
-                    logger.info("processed {} records", fetchResponse.getReceivedRecordsCount());
-                  } while (isRunning());
+                      processReceivedRecords(receivedRecords);
+                      logger.info("processed {} records", receivedRecords.size());
+                    } while (isRunning());
+                  } catch (InterruptedException e) {
+                    // the consumer is stopping
+                  } catch (HStreamDBClientException.ConsumerException e) {
+                    logger.error("consumer {} fetch error: {}", consumerName, e);
+                    notifyFailed(e);
+                  }
                 });
 
             scheduledExecutorService.scheduleAtFixedRate(
@@ -146,34 +231,270 @@ public class ConsumerImpl extends AbstractService implements Consumer {
   public void doStop() {
     logger.info("prepare to stop consumer");
 
-    scheduledExecutorService.shutdownNow();
+    if (recordFetcher != null) {
+      recordFetcher.stop();
+    }
     executorService.shutdownNow();
+    try {
+      // the fetching thread must be done dispatching before the lanes shut down
+      long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stopTimeoutMs);
+      executorService.awaitTermination(stopTimeoutMs, TimeUnit.MILLISECONDS);
+      if (receiverLanes != null
+          && !receiverLanes.shutdown(
+              TimeUnit.NANOSECONDS.toMillis(Math.max(deadlineNanos - System.nanoTime(), 0)))) {
+        logger.warn(
+            "consumer {} receivers did not finish in {} ms, their records are not committed",
+            consumerName,
+            stopTimeoutMs);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      if (receiverLanes != null) {
+        receiverLanes.shutdownNow();
+      }
+    }
+    scheduledExecutorService.shutdownNow();
+    try {
+      offsetCommitter.commitSync();
+    } catch (HStreamDBClientException e) {
+      logger.error("consumer {} final commit error: {}", consumerName, e);
+    }
 
     notifyStopped();
 
     logger.info("consumer has been stopped");
   }
 
-  private static ReceivedRawRecord toReceivedRawRecord(ReceivedRecord receivedRecord) {
-    try {
-      HStreamRecord hStreamRecord = HStreamRecord.parseFrom(receivedRecord.getRecord());
-      byte[] rawRecord = RecordUtils.parseRawRecordFromHStreamRecord(hStreamRecord);
-      ReceivedRawRecord receivedRawRecord =
-          new ReceivedRawRecord(receivedRecord.getRecordId(), rawRecord);
-      return receivedRawRecord;
-    } catch (InvalidProtocolBufferException e) {
-      throw new HStreamDBClientException.InvalidRecordException("parse HStreamRecord error", e);
+  private FetchPrefetcher newFetchPrefetcher() {
+    FetchSizer fetchSizer =
+        targetBatchLatencyMs > 0
+            ? FetchSizer.adaptive(
+                subscriptionId,
+                pollTimeoutMs,
+                maxPollRecords,
+                targetBatchLatencyMs,
+                maxBufferedRecords)
+            : FetchSizer.fixed(subscriptionId, pollTimeoutMs, maxPollRecords);
+    return new FetchPrefetcher(
+        grpcStub,
+        fetchSizer,
+        maxFetchesInFlight,
+        maxBufferedRecords,
+        maxBufferedBytes,
+        scheduledExecutorService);
+  }
+
+  private boolean isStreamingFetchUnimplemented(HStreamDBClientException.ConsumerException e) {
+    return recordFetcher instanceof StreamingFetcher
+        && Status.fromThrowable(e.getCause()).getCode() == Status.Code.UNIMPLEMENTED;
+  }
+
+  /** A fetched record, parsed once on the fetching thread. */
+  private static final class FetchedRecord {
+    private final RecordId recordId;
+    private final HStreamRecord hStreamRecord;
+
+    private FetchedRecord(RecordId recordId, HStreamRecord hStreamRecord) {
+      this.recordId = recordId;
+      this.hStreamRecord = hStreamRecord;
+    }
+  }
+
+  /**
+   * Deliver fetched records in order. Consecutive records of the same kind form a run, which is
+   * handed to the batch receiver of that kind in one call if there is one.
+   */
+  private void processReceivedRecords(List<ReceivedRecord> receivedRecords) {
+    List<FetchedRecord> fetchedRecords = new ArrayList<>(receivedRecords.size());
+    for (ReceivedRecord receivedRecord : receivedRecords) {
+      fetchedRecords.add(
+          new FetchedRecord(receivedRecord.getRecordId(), parseHStreamRecord(receivedRecord)));
+    }
+
+    int start = 0;
+    while (start < fetchedRecords.size()) {
+      boolean isRaw = RecordUtils.isRawRecord(fetchedRecords.get(start).hStreamRecord);
+      int end = start + 1;
+      while (end < fetchedRecords.size()
+          && RecordUtils.isRawRecord(fetchedRecords.get(end).hStreamRecord) == isRaw) {
+        end++;
+      }
+      List<FetchedRecord> run = fetchedRecords.subList(start, end);
+      if (isRaw) {
+        processRawRecords(run);
+      } else {
+        processHRecords(run);
+      }
+      start = end;
     }
   }
 
-  private static ReceivedHRecord toReceivedHRecord(ReceivedRecord receivedRecord) {
+  private void processRawRecords(List<FetchedRecord> fetchedRecords) {
+    if (rawRecordBatchReceiver != null) {
+      for (Map.Entry<Integer, List<FetchedRecord>> laneBatch :
+          splitByLane(fetchedRecords).entrySet()) {
+        List<FetchedRecord> batch = laneBatch.getValue();
+        Responder responder = batchResponder(batch);
+        dispatch(
+            laneBatch.getKey(),
+            batch.size(),
+            () -> {
+              List<ReceivedRawRecord> receivedRawRecords = new ArrayList<>(batch.size());
+              for (FetchedRecord fetchedRecord : batch) {
+                receivedRawRecords.add(
+                    toReceivedRawRecord(fetchedRecord.recordId, fetchedRecord.hStreamRecord));
+              }
+              logger.info("ready to process {} rawRecords", receivedRawRecords.size());
+              rawRecordBatchReceiver.processRawRecords(receivedRawRecords, responder);
+            });
+      }
+      return;
+    }
+
+    for (FetchedRecord fetchedRecord : fetchedRecords) {
+      Responder responder = offsetCommitter.track(fetchedRecord.recordId);
+      dispatch(
+          laneOf(fetchedRecord),
+          1,
+          () -> {
+            logger.info("ready to process rawRecord");
+            rawRecordReceiver.processRawRecord(
+                toReceivedRawRecord(fetchedRecord.recordId, fetchedRecord.hStreamRecord),
+                responder);
+          });
+    }
+  }
+
+  private void processHRecords(List<FetchedRecord> fetchedRecords) {
+    if (hRecordBatchReceiver != null) {
+      for (Map.Entry<Integer, List<FetchedRecord>> laneBatch :
+          splitByLane(fetchedRecords).entrySet()) {
+        List<FetchedRecord> batch = laneBatch.getValue();
+        Responder responder = batchResponder(batch);
+        dispatch(
+            laneBatch.getKey(),
+            batch.size(),
+            () -> {
+              List<ReceivedHRecord> receivedHRecords = new ArrayList<>(batch.size());
+              for (FetchedRecord fetchedRecord : batch) {
+                receivedHRecords.add(toReceivedHRecord(fetchedRecord));
+              }
+              logger.info("ready to process {} hrecords", receivedHRecords.size());
+              hRecordBatchReceiver.processHRecords(receivedHRecords, responder);
+            });
+      }
+      return;
+    }
+
+    for (FetchedRecord fetchedRecord : fetchedRecords) {
+      Responder responder = offsetCommitter.track(fetchedRecord.recordId);
+      dispatch(
+          laneOf(fetchedRecord),
+          1,
+          () -> {
+            logger.info("ready to process hrecord");
+            if (mappedRecordReceiver != null) {
+              mappedRecordReceiver.processRecord(
+                  fetchedRecord.recordId, fetchedRecord.hStreamRecord, schemas, responder);
+            } else {
+              hRecordReceiver.processHRecord(toReceivedHRecord(fetchedRecord), responder);
+            }
+          });
+    }
+  }
+
+  /** Responders must be created on the fetching thread, in fetch order, before dispatching. */
+  private Responder batchResponder(List<FetchedRecord> fetchedRecords) {
+    if (receiverLanes == null) {
+      // committed offsets are cumulative, so acking the last record acks the whole batch
+      return offsetCommitter.track(fetchedRecords.get(fetchedRecords.size() - 1).recordId);
+    }
+
+    // the records of a lane are not contiguous, every one of them is acked on its own
+    List<Responder> responders = new ArrayList<>(fetchedRecords.size());
+    for (FetchedRecord fetchedRecord : fetchedRecords) {
+      responders.add(offsetCommitter.track(fetchedRecord.recordId));
+    }
+    return () -> responders.forEach(Responder::ack);
+  }
+
+  private int laneOf(FetchedRecord fetchedRecord) {
+    return receiverLanes == null ? 0 : receiverLanes.laneOf(fetchedRecord.hStreamRecord);
+  }
+
+  /**
+   * @return the records of each lane in fetch order, all records are on lane 0 without lanes
+   */
+  private Map<Integer, List<FetchedRecord>> splitByLane(List<FetchedRecord> fetchedRecords) {
+    if (receiverLanes == null) {
+      return Map.of(0, fetchedRecords);
+    }
+    Map<Integer, List<FetchedRecord>> laneRecords = new LinkedHashMap<>();
+    for (FetchedRecord fetchedRecord : fetchedRecords) {
+      laneRecords
+          .computeIfAbsent(
+              receiverLanes.laneOf(fetchedRecord.hStreamRecord), lane -> new ArrayList<>())
+          .add(fetchedRecord);
+    }
+    return laneRecords;
+  }
+
+  /** Run the receiver on the lane, or right away on this thread if there are no lanes. */
+  private void dispatch(int lane, int recordCount, Runnable receiver) {
+    if (receiverLanes == null) {
+      receiver.run();
+      return;
+    }
+    receiverLanes.execute(lane, recordCount, receiver);
+  }
+
+  private static HStreamRecord parseHStreamRecord(ReceivedRecord receivedRecord) {
     try {
-      HStreamRecord hStreamRecord = HStreamRecord.parseFrom(receivedRecord.getRecord());
-      HRecord hRecord = RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord);
-      ReceivedHRecord receivedHRecord = new ReceivedHRecord(receivedRecord.getRecordId(), hRecord);
-      return receivedHRecord;
+      return HStreamRecord.parseFrom(receivedRecord.getRecord());
     } catch (InvalidProtocolBufferException e) {
       throw new HStreamDBClientException.InvalidRecordException("parse HStreamRecord error", e);
     }
   }
+
+  static ReceivedRawRecord toReceivedRawRecord(ReceivedRecord receivedRecord) {
+    return toReceivedRawRecord(receivedRecord.getRecordId(), parseHStreamRecord(receivedRecord));
+  }
+
+  private static ReceivedRawRecord toReceivedRawRecord(
+      RecordId recordId, HStreamRecord hStreamRecord) {
+    return new ReceivedRawRecord(
+        recordId, RecordUtils.parseRawRecordFromHStreamRecord(hStreamRecord));
+  }
+
+  private ReceivedHRecord toReceivedHRecord(FetchedRecord fetchedRecord) {
+    return toReceivedHRecord(
+        fetchedRecord.recordId, fetchedRecord.hStreamRecord, lazyHRecordDecoding, schemas);
+  }
+
+  static ReceivedHRecord toReceivedHRecord(
+      ReceivedRecord receivedRecord,
+      boolean lazyHRecordDecoding,
+      Map<String, HRecordSchema> schemas) {
+    return toReceivedHRecord(
+        receivedRecord.getRecordId(),
+        parseHStreamRecord(receivedRecord),
+        lazyHRecordDecoding,
+        schemas);
+  }
+
+  private static ReceivedHRecord toReceivedHRecord(
+      RecordId recordId,
+      HStreamRecord hStreamRecord,
+      boolean lazyHRecordDecoding,
+      Map<String, HRecordSchema> schemas) {
+    HRecord hRecord;
+    if (hStreamRecord.getHeader().getFlag() == HStreamRecordHeader.Flag.SCHEMA) {
+      hRecord = RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord, schemas);
+    } else if (lazyHRecordDecoding) {
+      hRecord = RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord);
+    } else {
+      hRecord = RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord);
+    }
+    return new ReceivedHRecord(recordId, hRecord);
+  }
 }
@@ -0,0 +1,170 @@
+package io.hstream.impl;
+
+import com.google.common.net.HostAndPort;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+import io.grpc.NameResolverRegistry;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves a fixed list of {@code host:port} endpoints, one address group per endpoint, so the load
+ * balancer keeps a subchannel per server. Host names are resolved again whenever the load balancer
+ * asks for a refresh, which it does when a server becomes unreachable.
+ */
+final class EndpointsNameResolver extends NameResolver {
+
+  private static final Logger logger = LoggerFactory.getLogger(EndpointsNameResolver.class);
+
+  static final String scheme = "hstream-endpoints";
+
+  private final List<HostAndPort> endpoints;
+  private final Executor resolveExecutor;
+  private final SynchronizationContext syncContext;
+  private final String authority;
+
+  // accessed in the synchronization context
+  private Listener2 listener;
+  private boolean resolving;
+  private boolean shutdown;
+
+  private EndpointsNameResolver(List<HostAndPort> endpoints, Args args) {
+    this.endpoints = endpoints;
+    this.resolveExecutor =
+        args.getOffloadExecutor() != null ? args.getOffloadExecutor() : Runnable::run;
+    this.syncContext = args.getSynchronizationContext();
+    this.authority = endpoints.get(0).toString();
+  }
+
+  @Override
+  public String getServiceAuthority() {
+    return authority;
+  }
+
+  @Override
+  public void start(Listener2 listener) {
+    this.listener = listener;
+    resolve();
+  }
+
+  @Override
+  public void refresh() {
+    resolve();
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  private void resolve() {
+    if (resolving || shutdown) {
+      return;
+    }
+    resolving = true;
+    resolveExecutor.execute(
+        () -> {
+          List<EquivalentAddressGroup> addressGroups = new ArrayList<>(endpoints.size());
+          for (HostAndPort endpoint : endpoints) {
+            try {
+              List<SocketAddress> addresses = new ArrayList<>();
+              for (InetAddress address : InetAddress.getAllByName(endpoint.getHost())) {
+                addresses.add(new InetSocketAddress(address, endpoint.getPort()));
+              }
+              addressGroups.add(new EquivalentAddressGroup(addresses));
+            } catch (UnknownHostException e) {
+              // the other endpoints are still usable
+              logger.warn("resolve endpoint {} error: {}", endpoint, e.toString());
+            }
+          }
+          syncContext.execute(
+              () -> {
+                resolving = false;
+                if (shutdown) {
+                  return;
+                }
+                if (addressGroups.isEmpty()) {
+                  listener.onError(
+                      Status.UNAVAILABLE.withDescription("can not resolve any of " + endpoints));
+                } else {
+                  listener.onResult(
+                      ResolutionResult.newBuilder().setAddresses(addressGroups).build());
+                }
+              });
+        });
+  }
+
+  /** Register the provider of {@link #scheme} targets, once. */
+  static void register() {
+    NameResolverRegistry.getDefaultRegistry().register(new Provider());
+  }
+
+  /**
+   * @param serviceUrls the endpoints, in the form {@code host:port}
+   * @return the target resolved to the endpoints
+   */
+  static String target(List<String> serviceUrls) {
+    if (serviceUrls.isEmpty()) {
+      throw new IllegalArgumentException("serviceUrls must not be empty");
+    }
+    for (String serviceUrl : serviceUrls) {
+      if (!HostAndPort.fromString(serviceUrl).hasPort()) {
+        throw new IllegalArgumentException("serviceUrl " + serviceUrl + " has no port");
+      }
+    }
+    try {
+      // quotes the characters of IPv6 hosts that are not allowed in a path
+      return new URI(scheme, "", "/" + String.join(",", serviceUrls), null).toString();
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("invalid serviceUrls " + serviceUrls, e);
+    }
+  }
+
+  /** Creates resolvers for {@link #scheme} targets, whose path lists the endpoints. */
+  static final class Provider extends NameResolverProvider {
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, Args args) {
+      if (!scheme.equals(targetUri.getScheme())) {
+        return null;
+      }
+      String path = targetUri.getPath();
+      if (path == null || !path.startsWith("/") || path.length() == 1) {
+        throw new IllegalArgumentException("target " + targetUri + " has no endpoints");
+      }
+      List<HostAndPort> endpoints = new ArrayList<>();
+      for (String serviceUrl : path.substring(1).split(",")) {
+        endpoints.add(HostAndPort.fromString(serviceUrl));
+      }
+      return new EndpointsNameResolver(endpoints, args);
+    }
+
+    @Override
+    public String getDefaultScheme() {
+      return scheme;
+    }
+
+    @Override
+    protected boolean isAvailable() {
+      return true;
+    }
+
+    @Override
+    protected int priority() {
+      // below gRPC's dns resolver, so targets without a scheme still resolve with dns
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package io.hstream.impl;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.hstream.FetchRequest;
+import io.hstream.FetchResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.ReceivedRecord;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps fetches in flight on the async stub while earlier batches are processed, so fetch latency
+ * overlaps with processing time. Fetched batches wait in a queue bounded by records and bytes, a
+ * new fetch is only sent while the queue, counting every fetch in flight as a full batch, has room
+ * for it. The size of each fetch is decided by a {@link FetchSizer}. Each fetch takes a slot when
+ * it is sent, and batches are queued in slot order whatever order the responses arrive in, so
+ * records reach the receivers, and their cumulative acks, in fetch order. A fetch that fails with
+ * {@code UNAVAILABLE}, {@code DEADLINE_EXCEEDED}, {@code RESOURCE_EXHAUSTED} or {@code ABORTED} is
+ * sent again in its slot after an exponential backoff with full jitter, any other error fails the
+ * consumer.
+ */
+final class FetchPrefetcher implements RecordFetcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(FetchPrefetcher.class);
+
+  private static final long retryBackoffMs = 100;
+  private static final long maxRetryBackoffMs = 10 * 1000;
+
+  private final HStreamApiGrpc.HStreamApiStub grpcStub;
+  private final FetchSizer fetchSizer;
+  private final int maxFetchesInFlight;
+  private final int maxBufferedRecords;
+  private final long maxBufferedBytes;
+  private final ScheduledExecutorService scheduler;
+
+  /** A fetch in flight, its batch is queued once every earlier fetch has been queued. */
+  private static final class FetchSlot {
+    private final FetchRequest fetchRequest;
+    private FetchResponse response;
+    private boolean done;
+
+    private FetchSlot(FetchRequest fetchRequest) {
+      this.fetchRequest = fetchRequest;
+    }
+  }
+
+  // guarded by this
+  private final ArrayDeque<FetchResponse> batches = new ArrayDeque<>();
+  // the fetches in flight in the order they were sent
+  private final ArrayDeque<FetchSlot> slots = new ArrayDeque<>();
+  private int bufferedRecords;
+  private long bufferedBytes;
+  private int fetchesInFlight;
+  // the records requested by the fetches in flight, until their batches are queued
+  private long reservedRecords;
+  private Throwable fetchError;
+  private boolean stopped;
+
+  FetchPrefetcher(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      FetchSizer fetchSizer,
+      int maxFetchesInFlight,
+      int maxBufferedRecords,
+      long maxBufferedBytes,
+      ScheduledExecutorService scheduler) {
+    this.grpcStub = grpcStub;
+    this.fetchSizer = fetchSizer;
+    this.maxFetchesInFlight = maxFetchesInFlight;
+    this.maxBufferedRecords = maxBufferedRecords;
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  public void start() {
+    fetchMore();
+  }
+
+  /** Stop sending fetches, batches still in flight are dropped when they arrive. */
+  @Override
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+      batches.clear();
+      bufferedRecords = 0;
+      bufferedBytes = 0;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public List<ReceivedRecord> take() throws InterruptedException {
+    FetchResponse batch;
+    synchronized (this) {
+      while (batches.isEmpty() && fetchError == null && !stopped) {
+        wait();
+      }
+      if (stopped) {
+        return Collections.emptyList();
+      }
+      if (batches.isEmpty()) {
+        throw new HStreamDBClientException.ConsumerException("fetch error", fetchError);
+      }
+      batch = batches.poll();
+      bufferedRecords -= batch.getReceivedRecordsCount();
+      bufferedBytes -= batch.getSerializedSize();
+    }
+    fetchMore();
+    return batch.getReceivedRecordsList();
+  }
+
+  private void fetchMore() {
+    List<FetchSlot> newSlots = new ArrayList<>();
+    synchronized (this) {
+      FetchRequest fetchRequest = fetchSizer.nextRequest();
+      while (canFetch(fetchRequest)) {
+        fetchesInFlight++;
+        reservedRecords += fetchRequest.getMaxSize();
+        FetchSlot slot = new FetchSlot(fetchRequest);
+        slots.add(slot);
+        newSlots.add(slot);
+      }
+    }
+    for (FetchSlot slot : newSlots) {
+      grpcStub.fetch(slot.fetchRequest, new FetchObserver(slot, 0));
+    }
+  }
+
+  private static boolean isRetryable(Throwable t) {
+    switch (Status.fromThrowable(t).getCode()) {
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+      case ABORTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static long backoffMs(int retry) {
+    long cap = Math.min(maxRetryBackoffMs, retryBackoffMs << Math.min(retry, 30));
+    return ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  // guarded by this
+  private boolean canFetch(FetchRequest fetchRequest) {
+    if (stopped || fetchError != null || fetchesInFlight >= maxFetchesInFlight) {
+      return false;
+    }
+    if (fetchesInFlight == 0 && batches.isEmpty()) {
+      // always make progress, even if a single batch is larger than the bounds
+      return true;
+    }
+    return bufferedRecords + reservedRecords + fetchRequest.getMaxSize() <= maxBufferedRecords
+        && bufferedBytes < maxBufferedBytes;
+  }
+
+  // guarded by this
+  private void queueDoneSlots() {
+    while (!slots.isEmpty() && slots.peek().done) {
+      FetchSlot slot = slots.poll();
+      fetchesInFlight--;
+      reservedRecords -= slot.fetchRequest.getMaxSize();
+      FetchResponse response = slot.response;
+      if (stopped || response == null || response.getReceivedRecordsCount() == 0) {
+        continue;
+      }
+      batches.add(response);
+      bufferedRecords += response.getReceivedRecordsCount();
+      bufferedBytes += response.getSerializedSize();
+      logger.info("prefetched {} records", response.getReceivedRecordsCount());
+    }
+    notifyAll();
+  }
+
+  private class FetchObserver implements StreamObserver<FetchResponse> {
+
+    private final FetchSlot slot;
+    private final int retry;
+    private final long sentNanos = System.nanoTime();
+
+    private FetchObserver(FetchSlot slot, int retry) {
+      this.slot = slot;
+      this.retry = retry;
+    }
+
+    @Override
+    public void onNext(FetchResponse response) {
+      fetchSizer.onFetched(
+          slot.fetchRequest,
+          response.getReceivedRecordsCount(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNanos));
+      synchronized (FetchPrefetcher.this) {
+        slot.response = response;
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (isRetryable(t) && retryLater()) {
+        return;
+      }
+      logger.error("fetch error: {}", t);
+      synchronized (FetchPrefetcher.this) {
+        if (fetchError == null) {
+          fetchError = t;
+        }
+        slot.done = true;
+        queueDoneSlots();
+      }
+    }
+
+    /**
+     * Send the fetch again in the same slot after a backoff.
+     *
+     * @return false if the fetcher is stopping and the fetch is not sent again
+     */
+    private boolean retryLater() {
+      synchronized (FetchPrefetcher.this) {
+        if (stopped) {
+          return false;
+        }
+      }
+      long backoffMs = backoffMs(retry);
+      logger.warn(
+          "fetch of subscription {} failed, retry {} in {} ms",
+          slot.fetchRequest.getSubscriptionId(),
+          retry + 1,
+          backoffMs);
+      try {
+        scheduler.schedule(this::retry, backoffMs, TimeUnit.MILLISECONDS);
+        return true;
+      } catch (RejectedExecutionException e) {
+        // the consumer is stopping
+        return false;
+      }
+    }
+
+    private void retry() {
+      synchronized (FetchPrefetcher.this) {
+        if (stopped) {
+          slot.done = true;
+          queueDoneSlots();
+          return;
+        }
+      }
+      grpcStub.fetch(slot.fetchRequest, new FetchObserver(slot, retry + 1));
+    }
+
+    @Override
+    public void onCompleted() {
+      synchronized (FetchPrefetcher.this) {
+        slot.done = true;
+        queueDoneSlots();
+      }
+      fetchMore();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package io.hstream.impl;
+
+import io.hstream.FetchRequest;
+
+/**
+ * Decides the size and timeout of each fetch. Fixed sizing sends every fetch with the configured
+ * {@code maxPollRecords} and {@code pollTimeoutMs}. Adaptive sizing starts from them and follows
+ * the subscription: full batches fetched within the target latency double the size, so a backlog is
+ * caught up in big batches, while partly filled and empty batches shrink the size, so live data is
+ * tailed in small fetches. The timeout is never shortened, the server answers a fetch as soon as
+ * records arrive, so an idle subscription is long-polled rather than polled in a tight loop.
+ */
+final class FetchSizer {
+
+  static final int minPollRecords = 10;
+
+  private final String subscriptionId;
+  private final boolean adaptive;
+  private final long targetBatchLatencyMs;
+  private final int maxAdaptivePollRecords;
+  private final long timeoutMs;
+
+  // guarded by this
+  private int maxSize;
+
+  /** Fetch with a fixed size and timeout. */
+  static FetchSizer fixed(String subscriptionId, long pollTimeoutMs, int maxPollRecords) {
+    return new FetchSizer(subscriptionId, pollTimeoutMs, maxPollRecords, 0, maxPollRecords);
+  }
+
+  /**
+   * Fetch with a size that adapts to the subscription.
+   *
+   * @param pollTimeoutMs the timeout, bounded by the target latency
+   * @param maxPollRecords the initial size
+   * @param targetBatchLatencyMs the time a fetch should take at most
+   * @param maxAdaptivePollRecords the largest size
+   */
+  static FetchSizer adaptive(
+      String subscriptionId,
+      long pollTimeoutMs,
+      int maxPollRecords,
+      long targetBatchLatencyMs,
+      int maxAdaptivePollRecords) {
+    return new FetchSizer(
+        subscriptionId,
+        pollTimeoutMs,
+        maxPollRecords,
+        targetBatchLatencyMs,
+        Math.max(maxPollRecords, maxAdaptivePollRecords));
+  }
+
+  private FetchSizer(
+      String subscriptionId,
+      long pollTimeoutMs,
+      int maxPollRecords,
+      long targetBatchLatencyMs,
+      int maxAdaptivePollRecords) {
+    this.subscriptionId = subscriptionId;
+    this.adaptive = targetBatchLatencyMs > 0;
+    this.targetBatchLatencyMs = targetBatchLatencyMs;
+    this.maxAdaptivePollRecords = maxAdaptivePollRecords;
+    this.timeoutMs = adaptive ? Math.min(pollTimeoutMs, targetBatchLatencyMs) : pollTimeoutMs;
+    this.maxSize = maxPollRecords;
+  }
+
+  synchronized FetchRequest nextRequest() {
+    return FetchRequest.newBuilder()
+        .setSubscriptionId(subscriptionId)
+        .setTimeout(timeoutMs)
+        .setMaxSize(maxSize)
+        .build();
+  }
+
+  /**
+   * Adapt the following fetches to the result of a fetch.
+   *
+   * @param request the request of the fetch
+   * @param recordCount the number of records fetched
+   * @param latencyMs the time from sending the request to receiving the records
+   */
+  synchronized void onFetched(FetchRequest request, int recordCount, long latencyMs) {
+    if (!adaptive) {
+      return;
+    }
+
+    if (recordCount == 0) {
+      // nothing to fetch, wait for the next records with a small batch
+      maxSize = Math.max(minPollRecords, maxSize / 2);
+    } else if (recordCount >= request.getMaxSize()) {
+      if (latencyMs <= targetBatchLatencyMs) {
+        // catching up on a backlog, fetch more at once
+        maxSize = Math.min(maxAdaptivePollRecords, Math.max(maxSize, 2 * recordCount));
+      } else {
+        maxSize = Math.max(minPollRecords, recordCount / 2);
+      }
+    } else {
+      // tailing, a batch a little larger than what arrives within the timeout is enough
+      maxSize = Math.max(minPollRecords, Math.min(maxSize, 2 * recordCount));
+    }
+  }
+}
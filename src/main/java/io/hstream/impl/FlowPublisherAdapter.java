@@ -0,0 +1,88 @@
+package io.hstream.impl;
+
+import io.hstream.Demand;
+import io.hstream.FlowControlledObserver;
+import io.hstream.Publisher;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+
+/**
+ * Adapts a {@link Publisher} that honours {@link FlowControlledObserver}s to a {@link
+ * Flow.Publisher}, so the demand of a {@link Flow.Subscriber} becomes the flow control of the
+ * underlying call.
+ */
+final class FlowPublisherAdapter<T> implements Flow.Publisher<T> {
+
+  private final Publisher<T> publisher;
+
+  FlowPublisherAdapter(Publisher<T> publisher) {
+    this.publisher = publisher;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+    publisher.subscribe(new SubscriberObserver<>(subscriber));
+  }
+
+  private static final class SubscriberObserver<T>
+      implements FlowControlledObserver<T>, Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private Demand demand;
+    // signals are delivered with this locked, so an error raised by an invalid request can not
+    // overlap with a value delivered on another thread
+    private volatile boolean done;
+
+    private SubscriberObserver(Flow.Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Demand demand) {
+      this.demand = demand;
+      subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public void request(long n) {
+      if (n > 0) {
+        demand.request(n);
+        return;
+      }
+      cancel();
+      synchronized (this) {
+        subscriber.onError(new IllegalArgumentException("request must be positive, but got " + n));
+      }
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+      demand.cancel();
+    }
+
+    @Override
+    public synchronized void onNext(T value) {
+      if (!done) {
+        subscriber.onNext(value);
+      }
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+      if (!done) {
+        done = true;
+        subscriber.onError(t);
+      }
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+      if (!done) {
+        done = true;
+        subscriber.onComplete();
+      }
+    }
+  }
+}
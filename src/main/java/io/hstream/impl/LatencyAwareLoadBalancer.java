@@ -0,0 +1,355 @@
+package io.hstream.impl;
+
+import io.grpc.Attributes;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.LoadBalancerRegistry;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.hstream.ClientBuilder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Balances calls over the servers of a cluster by their load. Every call goes to the ready server
+ * with the fewest outstanding calls, or, weighing latency, the lowest moving average latency
+ * multiplied by its outstanding calls. A server whose calls keep failing with {@code UNAVAILABLE}
+ * or {@code DEADLINE_EXCEEDED} is ejected for a while, and then takes calls again, unless every
+ * server is ejected. Servers that can not be connected to are left out until they reconnect.
+ */
+final class LatencyAwareLoadBalancer extends LoadBalancer {
+
+  static final int defaultMaxConsecutiveFailures = 5;
+  static final long defaultEjectionTimeMs = 30_000;
+  // weight of the latest sample in the moving average latency
+  private static final double ewmaWeight = 0.3;
+
+  private final Helper helper;
+  private final boolean weighLatency;
+  private final int maxConsecutiveFailures;
+  private final long ejectionTimeNanos;
+
+  // accessed in the synchronization context
+  private final Map<EquivalentAddressGroup, Endpoint> endpoints = new HashMap<>();
+  private Status lastError = Status.UNAVAILABLE.withDescription("no server is ready");
+
+  private LatencyAwareLoadBalancer(
+      Helper helper, boolean weighLatency, int maxConsecutiveFailures, long ejectionTimeMs) {
+    this.helper = helper;
+    this.weighLatency = weighLatency;
+    this.maxConsecutiveFailures = maxConsecutiveFailures;
+    this.ejectionTimeNanos = TimeUnit.MILLISECONDS.toNanos(ejectionTimeMs);
+  }
+
+  /** Register the policies {@link ClientBuilder} offers, once. */
+  static void register() {
+    LoadBalancerRegistry registry = LoadBalancerRegistry.getDefaultRegistry();
+    registry.register(
+        new Provider(
+            ClientBuilder.LEAST_OUTSTANDING_REQUESTS,
+            false,
+            defaultMaxConsecutiveFailures,
+            defaultEjectionTimeMs));
+    registry.register(
+        new Provider(
+            ClientBuilder.EWMA_LATENCY,
+            true,
+            defaultMaxConsecutiveFailures,
+            defaultEjectionTimeMs));
+  }
+
+  @Override
+  public void handleResolvedAddresses(ResolvedAddresses resolvedAddresses) {
+    Set<EquivalentAddressGroup> latest = new HashSet<>();
+    for (EquivalentAddressGroup addressGroup : resolvedAddresses.getAddresses()) {
+      // the attributes do not tell servers apart
+      EquivalentAddressGroup key = new EquivalentAddressGroup(addressGroup.getAddresses());
+      latest.add(key);
+      if (endpoints.containsKey(key)) {
+        continue;
+      }
+      Subchannel subchannel =
+          helper.createSubchannel(
+              CreateSubchannelArgs.newBuilder()
+                  .setAddresses(addressGroup)
+                  .setAttributes(Attributes.EMPTY)
+                  .build());
+      Endpoint endpoint = new Endpoint(key, subchannel);
+      endpoints.put(key, endpoint);
+      subchannel.start(stateInfo -> onSubchannelState(endpoint, stateInfo));
+      subchannel.requestConnection();
+    }
+
+    List<Endpoint> removed = new ArrayList<>();
+    endpoints
+        .values()
+        .removeIf(
+            endpoint -> {
+              if (latest.contains(endpoint.key)) {
+                return false;
+              }
+              removed.add(endpoint);
+              return true;
+            });
+    updateBalancingState();
+    for (Endpoint endpoint : removed) {
+      endpoint.subchannel.shutdown();
+    }
+  }
+
+  @Override
+  public void handleNameResolutionError(Status error) {
+    lastError = error;
+    if (endpoints.isEmpty()) {
+      helper.updateBalancingState(ConnectivityState.TRANSIENT_FAILURE, new ErrorPicker(error));
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    for (Endpoint endpoint : endpoints.values()) {
+      endpoint.subchannel.shutdown();
+    }
+    endpoints.clear();
+  }
+
+  private void onSubchannelState(Endpoint endpoint, ConnectivityStateInfo stateInfo) {
+    if (endpoints.get(endpoint.key) != endpoint) {
+      return;
+    }
+    ConnectivityState state = stateInfo.getState();
+    if (state == ConnectivityState.TRANSIENT_FAILURE || state == ConnectivityState.IDLE) {
+      // the server may have moved
+      helper.refreshNameResolution();
+    }
+    if (state == ConnectivityState.IDLE) {
+      endpoint.subchannel.requestConnection();
+    }
+    if (state == ConnectivityState.TRANSIENT_FAILURE) {
+      lastError = stateInfo.getStatus();
+    }
+    endpoint.state = state;
+    updateBalancingState();
+  }
+
+  private void updateBalancingState() {
+    List<Endpoint> ready = new ArrayList<>();
+    boolean connecting = false;
+    for (Endpoint endpoint : endpoints.values()) {
+      if (endpoint.state == ConnectivityState.READY) {
+        ready.add(endpoint);
+      } else if (endpoint.state != ConnectivityState.TRANSIENT_FAILURE) {
+        connecting = true;
+      }
+    }
+    if (!ready.isEmpty()) {
+      helper.updateBalancingState(ConnectivityState.READY, new Picker(ready));
+    } else if (connecting) {
+      helper.updateBalancingState(ConnectivityState.CONNECTING, new WaitingPicker());
+    } else {
+      helper.updateBalancingState(ConnectivityState.TRANSIENT_FAILURE, new ErrorPicker(lastError));
+    }
+  }
+
+  private final class Picker extends SubchannelPicker {
+
+    private final List<Endpoint> ready;
+
+    private Picker(List<Endpoint> ready) {
+      this.ready = ready;
+    }
+
+    @Override
+    public PickResult pickSubchannel(PickSubchannelArgs args) {
+      long now = System.nanoTime();
+      // start anywhere, so ties are spread over the servers
+      int start = ThreadLocalRandom.current().nextInt(ready.size());
+      Endpoint picked = null;
+      double pickedLoad = 0;
+      for (int i = 0; i < ready.size(); ++i) {
+        Endpoint endpoint = ready.get((start + i) % ready.size());
+        if (endpoint.isEjected(now)) {
+          continue;
+        }
+        double load = endpoint.load();
+        if (picked == null || load < pickedLoad) {
+          picked = endpoint;
+          pickedLoad = load;
+        }
+      }
+      if (picked == null) {
+        // never eject every server
+        picked = ready.get(start);
+      }
+      return PickResult.withSubchannel(picked.subchannel, picked);
+    }
+  }
+
+  private static final class WaitingPicker extends SubchannelPicker {
+    @Override
+    public PickResult pickSubchannel(PickSubchannelArgs args) {
+      return PickResult.withNoResult();
+    }
+  }
+
+  private static final class ErrorPicker extends SubchannelPicker {
+
+    private final Status error;
+
+    private ErrorPicker(Status error) {
+      this.error = error;
+    }
+
+    @Override
+    public PickResult pickSubchannel(PickSubchannelArgs args) {
+      return PickResult.withError(error);
+    }
+  }
+
+  /** A server, which traces the calls sent to it to keep its load and failures. */
+  private final class Endpoint extends ClientStreamTracer.Factory {
+
+    private final EquivalentAddressGroup key;
+    private final Subchannel subchannel;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // accessed in the synchronization context
+    private ConnectivityState state = ConnectivityState.IDLE;
+
+    // guarded by this
+    private double ewmaLatencyNanos;
+    private int consecutiveFailures;
+    private long ejectedUntilNanos;
+    private boolean ejected;
+
+    private Endpoint(EquivalentAddressGroup key, Subchannel subchannel) {
+      this.key = key;
+      this.subchannel = subchannel;
+    }
+
+    private synchronized boolean isEjected(long now) {
+      if (ejected && now - ejectedUntilNanos >= 0) {
+        ejected = false;
+      }
+      return ejected;
+    }
+
+    private double load() {
+      int outstanding = this.outstanding.get();
+      if (!weighLatency) {
+        return outstanding;
+      }
+      synchronized (this) {
+        return (ewmaLatencyNanos + 1) * (outstanding + 1);
+      }
+    }
+
+    @Override
+    public ClientStreamTracer newClientStreamTracer(
+        ClientStreamTracer.StreamInfo info, Metadata headers) {
+      outstanding.incrementAndGet();
+      return new CallTracer(System.nanoTime());
+    }
+
+    private synchronized void onLatency(long latencyNanos) {
+      ewmaLatencyNanos =
+          ewmaLatencyNanos == 0
+              ? latencyNanos
+              : ewmaLatencyNanos + ewmaWeight * (latencyNanos - ewmaLatencyNanos);
+    }
+
+    private synchronized void onClosed(Status status) {
+      Status.Code code = status.getCode();
+      if (code == Status.Code.UNAVAILABLE || code == Status.Code.DEADLINE_EXCEEDED) {
+        if (++consecutiveFailures >= maxConsecutiveFailures) {
+          ejected = true;
+          ejectedUntilNanos = System.nanoTime() + ejectionTimeNanos;
+          consecutiveFailures = 0;
+          // forget the latency, so the server is tried again once it is back
+          ewmaLatencyNanos = 0;
+        }
+      } else if (code != Status.Code.CANCELLED) {
+        consecutiveFailures = 0;
+      }
+    }
+
+    private final class CallTracer extends ClientStreamTracer {
+
+      private final long startNanos;
+      private boolean sampled;
+
+      private CallTracer(long startNanos) {
+        this.startNanos = startNanos;
+      }
+
+      @Override
+      public void inboundHeaders() {
+        // the time to the response headers, long-lived streams would skew the time to close
+        sample();
+      }
+
+      @Override
+      public void streamClosed(Status status) {
+        outstanding.decrementAndGet();
+        if (status.isOk()) {
+          sample();
+        }
+        onClosed(status);
+      }
+
+      private void sample() {
+        if (!sampled) {
+          sampled = true;
+          onLatency(System.nanoTime() - startNanos);
+        }
+      }
+    }
+  }
+
+  static final class Provider extends LoadBalancerProvider {
+
+    private final String policyName;
+    private final boolean weighLatency;
+    private final int maxConsecutiveFailures;
+    private final long ejectionTimeMs;
+
+    Provider(
+        String policyName, boolean weighLatency, int maxConsecutiveFailures, long ejectionTimeMs) {
+      this.policyName = policyName;
+      this.weighLatency = weighLatency;
+      this.maxConsecutiveFailures = maxConsecutiveFailures;
+      this.ejectionTimeMs = ejectionTimeMs;
+    }
+
+    @Override
+    public boolean isAvailable() {
+      return true;
+    }
+
+    @Override
+    public int getPriority() {
+      return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+      return policyName;
+    }
+
+    @Override
+    public LoadBalancer newLoadBalancer(Helper helper) {
+      return new LatencyAwareLoadBalancer(
+          helper, weighLatency, maxConsecutiveFailures, ejectionTimeMs);
+    }
+  }
+}
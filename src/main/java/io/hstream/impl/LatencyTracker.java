@@ -0,0 +1,63 @@
+package io.hstream.impl;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent calls and a percentile of them. The percentile is only
+ * recomputed every {@code windowSize / 16} samples, so recording stays cheap.
+ */
+final class LatencyTracker {
+
+  static final int minSamples = 20;
+
+  private final double percentile;
+  private final int recomputeInterval;
+
+  // guarded by this
+  private final long[] samples;
+  private int sampleCount;
+  private int nextSample;
+  private int samplesSinceRecompute;
+  private long percentileNanos = -1;
+
+  /**
+   * @param windowSize the number of recent samples kept
+   * @param percentile the percentile to keep, in (0, 1)
+   */
+  LatencyTracker(int windowSize, double percentile) {
+    if (percentile <= 0 || percentile >= 1) {
+      throw new IllegalArgumentException("percentile must be between 0 and 1");
+    }
+    this.samples = new long[windowSize];
+    this.percentile = percentile;
+    this.recomputeInterval = Math.max(1, windowSize / 16);
+  }
+
+  synchronized void record(long latencyNanos) {
+    samples[nextSample] = latencyNanos;
+    nextSample = (nextSample + 1) % samples.length;
+    sampleCount = Math.min(sampleCount + 1, samples.length);
+    if (++samplesSinceRecompute >= recomputeInterval || percentileNanos < 0) {
+      recompute();
+    }
+  }
+
+  /**
+   * @return the percentile of the recent latencies, or -1 before there are enough samples
+   */
+  synchronized long percentileNanos() {
+    return percentileNanos;
+  }
+
+  // guarded by this
+  private void recompute() {
+    samplesSinceRecompute = 0;
+    if (sampleCount < minSamples) {
+      percentileNanos = -1;
+      return;
+    }
+    long[] sorted = Arrays.copyOf(samples, sampleCount);
+    Arrays.sort(sorted);
+    percentileNanos = sorted[(int) Math.min(sampleCount - 1, (long) (percentile * sampleCount))];
+  }
+}
@@ -0,0 +1,35 @@
+package io.hstream.impl;
+
+import io.hstream.HRecordSchema;
+import io.hstream.HStreamRecord;
+import io.hstream.RecordId;
+import io.hstream.Responder;
+import io.hstream.TypedRecordReceiver;
+import io.hstream.util.HRecordMapper;
+import io.hstream.util.RecordUtils;
+import java.util.Map;
+
+/**
+ * Delivers {@link io.hstream.HRecord}s to a {@link TypedRecordReceiver} as objects. The records are
+ * mapped while they are parsed, whatever {@link io.hstream.ConsumerBuilder#lazyHRecordDecoding}
+ * is, so a malformed field fails the parse rather than the receiver.
+ */
+public final class MappedRecordReceiver<T> {
+
+  private final HRecordMapper<T> mapper;
+  private final TypedRecordReceiver<T> receiver;
+
+  public MappedRecordReceiver(HRecordMapper<T> mapper, TypedRecordReceiver<T> receiver) {
+    this.mapper = mapper;
+    this.receiver = receiver;
+  }
+
+  void processRecord(
+      RecordId recordId,
+      HStreamRecord hStreamRecord,
+      Map<String, HRecordSchema> schemas,
+      Responder responder) {
+    T record = RecordUtils.parseTypedRecordFromHStreamRecord(hStreamRecord, mapper, schemas);
+    receiver.processRecord(recordId, record, responder);
+  }
+}
@@ -0,0 +1,118 @@
+package io.hstream.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches a listing of the server's metadata, such as all streams, indexed by name. The listing is
+ * loaded again once it is older than the TTL. A listing past the refresh-ahead point of its TTL is
+ * still served while it is reloaded in the background, so callers only wait on a load when the
+ * cache is cold or has not been used for a while. Invalidating drops the listing at once, and keeps
+ * loads started before it from being cached.
+ */
+final class MetadataCache<V> {
+
+  // the part of the TTL after which a listing is reloaded in the background
+  static final double refreshAheadFraction = 0.8;
+
+  private final Supplier<CompletableFuture<List<V>>> loader;
+  private final Function<V, String> keyOf;
+  private final long ttlNanos;
+  private final long refreshAheadNanos;
+  private final LongSupplier nanoClock;
+
+  // guarded by this
+  private Snapshot<V> snapshot;
+  private CompletableFuture<Snapshot<V>> loading;
+  private long generation;
+
+  MetadataCache(
+      Supplier<CompletableFuture<List<V>>> loader, Function<V, String> keyOf, long ttlMs) {
+    this(loader, keyOf, ttlMs, System::nanoTime);
+  }
+
+  MetadataCache(
+      Supplier<CompletableFuture<List<V>>> loader,
+      Function<V, String> keyOf,
+      long ttlMs,
+      LongSupplier nanoClock) {
+    this.loader = loader;
+    this.keyOf = keyOf;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    this.refreshAheadNanos = (long) (ttlNanos * refreshAheadFraction);
+    this.nanoClock = nanoClock;
+  }
+
+  static final class Snapshot<V> {
+    final List<V> values;
+    final Map<String, V> byKey;
+    // when the load was started, so the listing is never older than it looks
+    private final long loadedAtNanos;
+
+    private Snapshot(List<V> values, Function<V, String> keyOf, long loadedAtNanos) {
+      this.values = values;
+      this.byKey = new HashMap<>(values.size() * 2);
+      for (V value : values) {
+        byKey.put(keyOf.apply(value), value);
+      }
+      this.loadedAtNanos = loadedAtNanos;
+    }
+  }
+
+  synchronized CompletableFuture<Snapshot<V>> get() {
+    if (snapshot != null) {
+      long age = nanoClock.getAsLong() - snapshot.loadedAtNanos;
+      if (age < ttlNanos) {
+        if (age >= refreshAheadNanos) {
+          load();
+        }
+        return CompletableFuture.completedFuture(snapshot);
+      }
+    }
+    return load();
+  }
+
+  synchronized void invalidate() {
+    generation++;
+    snapshot = null;
+    loading = null;
+  }
+
+  // guarded by this
+  private CompletableFuture<Snapshot<V>> load() {
+    if (loading != null) {
+      return loading;
+    }
+    long loadGeneration = generation;
+    long startedNanos = nanoClock.getAsLong();
+    CompletableFuture<Snapshot<V>> future =
+        loader
+            .get()
+            .thenApply(
+                values -> {
+                  Snapshot<V> loaded = new Snapshot<>(values, keyOf, startedNanos);
+                  synchronized (this) {
+                    if (generation == loadGeneration) {
+                      snapshot = loaded;
+                    }
+                  }
+                  return loaded;
+                });
+    loading = future;
+    future.whenComplete(
+        (loaded, e) -> {
+          synchronized (this) {
+            if (loading == future) {
+              loading = null;
+            }
+          }
+        });
+    return future;
+  }
+}
@@ -0,0 +1,316 @@
+package io.hstream.impl;
+
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import io.hstream.CommittedOffset;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.RecordId;
+import io.hstream.Responder;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records acks locally and commits offsets in the background. With {@link #cumulative cumulative}
+ * acks, like a committed offset, an ack acks every record delivered before it too, so only the
+ * position of each delivered record is kept. With {@link #outOfOrder out of order} acks, the
+ * committed offset only moves over the prefix of records that are all acked, so records are
+ * tracked in delivery order until they are. Commits are coalesced, at most one is in flight and it
+ * carries the latest acked record, sent every {@code commitIntervalMs} or as soon as {@code
+ * commitAckCount} records have been acked since the last commit.
+ *
+ * <p>With out of order acks a record that is never acked holds back every record delivered after
+ * it, so at most {@code maxUnackedRecords} of them are tracked and {@link #track(RecordId)} blocks
+ * the dispatching thread until the oldest one is acked.
+ */
+final class OffsetCommitter {
+
+  /** A stream that acked offsets can be sent on instead of committing them with unary calls. */
+  interface AckStream {
+    /**
+     * @return false if the stream is closed, the offset is then committed with a unary call
+     */
+    boolean sendAck(RecordId ackedOffset);
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(OffsetCommitter.class);
+
+  private static final long finalCommitTimeoutMs = 10 * 1000;
+
+  private final HStreamApiGrpc.HStreamApiStub grpcStub;
+  private final HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub;
+  private final String subscriptionId;
+  private final int commitAckCount;
+  private final boolean cumulativeAcks;
+  private final int maxUnackedRecords;
+  private final ScheduledExecutorService scheduler;
+  private volatile AckStream ackStream;
+
+  // guarded by this
+  // only used with out of order acks
+  private final ArrayDeque<ResponderImpl> pendingAcks = new ArrayDeque<>();
+  // the position of the last delivered and the last acked record
+  private long deliveredCount;
+  private long ackedCount;
+  private RecordId ackedOffset;
+  private RecordId committedOffset;
+  private int uncommittedAcks;
+  private CompletableFuture<Void> inFlightCommit;
+  private boolean stalled;
+
+  /** Commit acks that ack every record delivered before them too. */
+  static OffsetCommitter cumulative(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub,
+      String subscriptionId,
+      long commitIntervalMs,
+      int commitAckCount,
+      ScheduledExecutorService scheduler) {
+    return new OffsetCommitter(
+        grpcStub,
+        grpcBlockingStub,
+        subscriptionId,
+        commitIntervalMs,
+        commitAckCount,
+        true,
+        0,
+        scheduler);
+  }
+
+  /**
+   * Commit acks that only ack their own record.
+   *
+   * @param maxUnackedRecords the most records tracked from the oldest unacked one on
+   */
+  static OffsetCommitter outOfOrder(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub,
+      String subscriptionId,
+      long commitIntervalMs,
+      int commitAckCount,
+      int maxUnackedRecords,
+      ScheduledExecutorService scheduler) {
+    return new OffsetCommitter(
+        grpcStub,
+        grpcBlockingStub,
+        subscriptionId,
+        commitIntervalMs,
+        commitAckCount,
+        false,
+        maxUnackedRecords,
+        scheduler);
+  }
+
+  private OffsetCommitter(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub,
+      String subscriptionId,
+      long commitIntervalMs,
+      int commitAckCount,
+      boolean cumulativeAcks,
+      int maxUnackedRecords,
+      ScheduledExecutorService scheduler) {
+    this.grpcStub = grpcStub;
+    this.grpcBlockingStub = grpcBlockingStub;
+    this.subscriptionId = subscriptionId;
+    this.commitAckCount = commitAckCount;
+    this.cumulativeAcks = cumulativeAcks;
+    this.maxUnackedRecords = maxUnackedRecords;
+    this.scheduler = scheduler;
+    scheduler.scheduleWithFixedDelay(
+        this::commitAsync, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param ackStream the stream to send background commits on, null to commit with unary calls. The
+   *     final commit of {@link #commitSync()} is always a unary call.
+   */
+  void setAckStream(AckStream ackStream) {
+    this.ackStream = ackStream;
+  }
+
+  /**
+   * Track a record in delivery order.
+   *
+   * @param recordId the delivered record, or the last record of a delivered batch
+   * @return the {@link Responder} that acks it
+   * @throws HStreamDBClientException if interrupted while waiting for the oldest record to be acked
+   */
+  Responder track(RecordId recordId) {
+    synchronized (this) {
+      ResponderImpl responder = new ResponderImpl(this, recordId, ++deliveredCount);
+      if (!cumulativeAcks) {
+        awaitUnackedRoom();
+        pendingAcks.add(responder);
+      }
+      return responder;
+    }
+  }
+
+  // guarded by this
+  private void awaitUnackedRoom() {
+    while (pendingAcks.size() >= maxUnackedRecords) {
+      if (!stalled) {
+        stalled = true;
+        logger.warn(
+            "{} records of subscription {} wait behind unacked record {}, "
+                + "dispatch is paused until it is acked",
+            pendingAcks.size(),
+            subscriptionId,
+            pendingAcks.peek().getRecordId());
+      }
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new HStreamDBClientException(e);
+      }
+    }
+    stalled = false;
+  }
+
+  void ack(ResponderImpl responder) {
+    boolean commitNow;
+    synchronized (this) {
+      if (cumulativeAcks) {
+        if (responder.getPosition() <= ackedCount) {
+          // already covered by the ack of a later record
+          return;
+        }
+        uncommittedAcks += responder.getPosition() - ackedCount;
+        ackedCount = responder.getPosition();
+        ackedOffset = responder.getRecordId();
+      } else {
+        if (responder.acked) {
+          return;
+        }
+        responder.acked = true;
+        uncommittedAcks++;
+        // the offset only moves past records that are acked themselves
+        boolean advanced = false;
+        while (!pendingAcks.isEmpty() && pendingAcks.peek().acked) {
+          ackedOffset = pendingAcks.poll().getRecordId();
+          advanced = true;
+        }
+        if (advanced) {
+          notifyAll();
+        }
+      }
+      commitNow = uncommittedAcks >= commitAckCount;
+    }
+    if (commitNow) {
+      requestCommit();
+    }
+  }
+
+  private void requestCommit() {
+    try {
+      scheduler.execute(this::commitAsync);
+    } catch (RejectedExecutionException e) {
+      // the consumer is stopping, the final commit picks up the acked offset
+    }
+  }
+
+  private void commitAsync() {
+    RecordId offset;
+    CompletableFuture<Void> commit = new CompletableFuture<>();
+    synchronized (this) {
+      if (inFlightCommit != null || ackedOffset == null || ackedOffset.equals(committedOffset)) {
+        return;
+      }
+      offset = ackedOffset;
+      uncommittedAcks = 0;
+      inFlightCommit = commit;
+    }
+
+    AckStream ackStream = this.ackStream;
+    if (ackStream != null && ackStream.sendAck(offset)) {
+      synchronized (this) {
+        committedOffset = offset;
+        inFlightCommit = null;
+      }
+      commit.complete(null);
+      return;
+    }
+
+    grpcStub.commitOffset(
+        buildCommittedOffset(offset),
+        new StreamObserver<>() {
+          @Override
+          public void onNext(CommittedOffset response) {
+            synchronized (OffsetCommitter.this) {
+              committedOffset = offset;
+            }
+            logger.info("committed offset {} for subscription {}", offset, subscriptionId);
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            // the offset is still acked, the next round commits it again
+            logger.error("commit offset failed: {}", t);
+            finish();
+          }
+
+          @Override
+          public void onCompleted() {
+            finish();
+          }
+
+          private void finish() {
+            boolean commitNow;
+            synchronized (OffsetCommitter.this) {
+              inFlightCommit = null;
+              commitNow = uncommittedAcks >= commitAckCount;
+            }
+            commit.complete(null);
+            if (commitNow) {
+              requestCommit();
+            }
+          }
+        });
+  }
+
+  /** Wait for the commit in flight, then commit the acked offset synchronously. */
+  void commitSync() {
+    CompletableFuture<Void> commit;
+    synchronized (this) {
+      commit = inFlightCommit;
+    }
+    if (commit != null) {
+      try {
+        commit.get(finalCommitTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (Exception e) {
+        logger.warn("wait for in flight commit error: {}", e);
+      }
+    }
+
+    RecordId offset;
+    synchronized (this) {
+      if (ackedOffset == null || ackedOffset.equals(committedOffset)) {
+        return;
+      }
+      offset = ackedOffset;
+    }
+    try {
+      grpcBlockingStub
+          .withDeadlineAfter(finalCommitTimeoutMs, TimeUnit.MILLISECONDS)
+          .commitOffset(buildCommittedOffset(offset));
+    } catch (StatusRuntimeException e) {
+      logger.error("commit offset failed: {}", e);
+      throw new HStreamDBClientException(e);
+    }
+    synchronized (this) {
+      committedOffset = offset;
+    }
+    logger.info("committed offset {} for subscription {}", offset, subscriptionId);
+  }
+
+  private CommittedOffset buildCommittedOffset(RecordId offset) {
+    return CommittedOffset.newBuilder().setSubscriptionId(subscriptionId).setOffset(offset).build();
+  }
+}
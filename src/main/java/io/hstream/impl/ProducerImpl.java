@@ -1,17 +1,14 @@
 package io.hstream.impl;
 
-import io.grpc.stub.StreamObserver;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.hstream.*;
 import io.hstream.util.RecordUtils;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import org.apache.commons.lang3.tuple.ImmutablePair;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,222 +19,256 @@ public class ProducerImpl implements Producer {
   private final HStreamApiGrpc.HStreamApiStub grpcStub;
   private final String stream;
   private final boolean enableBatch;
-  private final int recordCountLimit;
-
-  private final Semaphore semaphore;
-  private final Lock lock;
-  private final List<Object> recordBuffer;
-  private final List<CompletableFuture<RecordId>> futures;
+  private final HRecordFormat hRecordFormat;
+  private final HRecordSchema schema;
+  private final int bufferMemory;
+  private final BufferFullPolicy bufferFullPolicy;
+  private final long maxBlockMs;
+
+  // one permit per byte of the serialized records held by the producer
+  private final Semaphore bufferMemoryPermits;
+  private final RecordAccumulator recordAccumulator;
+  private final UnaryAppender unaryAppender;
+  // null if every batch is appended with a unary call
+  private final StreamingAppender streamingAppender;
+  // created by the producer if it needs a timer and the client did not share one, null otherwise
+  private final ScheduledExecutorService ownedTimer;
+
+  // only written by the thread sending a sealed batch
+  private volatile CompletableFuture<Void> lastBatchCompletion =
+      CompletableFuture.completedFuture(null);
 
   public ProducerImpl(
       HStreamApiGrpc.HStreamApiStub stub,
       String stream,
       boolean enableBatch,
-      int recordCountLimit) {
+      int recordCountLimit,
+      int batchBytesLimit,
+      long maxLingerMs,
+      int maxInFlightRequests,
+      long bufferMemory,
+      BufferFullPolicy bufferFullPolicy,
+      long maxBlockMs,
+      HRecordFormat hRecordFormat,
+      HRecordSchema schema,
+      boolean streamingAppend,
+      long requestTimeoutMs,
+      int maxRetries,
+      long retryBackoffMs,
+      long maxRetryBackoffMs,
+      double hedgePercentile,
+      ScheduledExecutorService timer) {
     this.grpcStub = stub;
     this.stream = stream;
     this.enableBatch = enableBatch;
-    this.recordCountLimit = recordCountLimit;
+    this.hRecordFormat = hRecordFormat;
+    this.schema = schema;
+    this.bufferMemory = Math.toIntExact(bufferMemory);
+    this.bufferFullPolicy = bufferFullPolicy;
+    this.maxBlockMs = maxBlockMs;
+    boolean needsTimer =
+        maxRetries > 0
+            || hedgePercentile > 0
+            || (enableBatch && maxLingerMs > 0)
+            || (streamingAppend && requestTimeoutMs > 0);
+    if (needsTimer && timer == null) {
+      this.ownedTimer =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("producer-timer-%d")
+                  .setDaemon(true)
+                  .build());
+      timer = ownedTimer;
+    } else {
+      this.ownedTimer = null;
+    }
+
+    this.unaryAppender =
+        new UnaryAppender(
+            stub,
+            stream,
+            requestTimeoutMs,
+            maxRetries,
+            retryBackoffMs,
+            maxRetryBackoffMs,
+            hedgePercentile,
+            timer);
+    this.streamingAppender =
+        streamingAppend
+            ? new StreamingAppender(stub, stream, this::appendUnary, requestTimeoutMs, timer)
+            : null;
 
     if (enableBatch) {
-      this.semaphore = new Semaphore(recordCountLimit);
-      this.lock = new ReentrantLock();
-      this.recordBuffer = new ArrayList<>(recordCountLimit);
-      this.futures = new ArrayList<>(recordCountLimit);
+      // fair, so a large record is not starved by a stream of small ones
+      this.bufferMemoryPermits = new Semaphore(this.bufferMemory, true);
+      this.recordAccumulator =
+          new RecordAccumulator(
+              recordCountLimit,
+              batchBytesLimit,
+              maxLingerMs,
+              maxLingerMs > 0 ? timer : null,
+              maxInFlightRequests,
+              this::sendBatch);
     } else {
-      this.semaphore = null;
-      this.lock = null;
-      this.recordBuffer = null;
-      this.futures = null;
+      this.bufferMemoryPermits = null;
+      this.recordAccumulator = null;
     }
   }
 
   @Override
   public RecordId write(byte[] rawRecord) {
-    CompletableFuture<List<RecordId>> future = writeRawRecordsAsync(List.of(rawRecord));
+    CompletableFuture<List<RecordId>> future =
+        writeHStreamRecordsAsync(List.of(RecordUtils.buildHStreamRecordFromRawRecord(rawRecord)));
     return future.join().get(0);
   }
 
   @Override
   public RecordId write(HRecord hRecord) {
-    CompletableFuture<List<RecordId>> future = writeHRecordsAsync(List.of(hRecord));
+    CompletableFuture<List<RecordId>> future =
+        writeHStreamRecordsAsync(List.of(toHStreamRecord(hRecord)));
     return future.join().get(0);
   }
 
   @Override
   public CompletableFuture<RecordId> writeAsync(byte[] rawRecord) {
+    HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromRawRecord(rawRecord);
     if (!enableBatch) {
-      return writeRawRecordsAsync(List.of(rawRecord)).thenApply(list -> list.get(0));
+      return writeHStreamRecordsAsync(List.of(hStreamRecord)).thenApply(list -> list.get(0));
     } else {
-      try {
-        semaphore.acquire();
-      } catch (InterruptedException e) {
-        throw new HStreamDBClientException(e);
-      }
-
-      lock.lock();
-      try {
-        CompletableFuture<RecordId> completableFuture = new CompletableFuture<>();
-        recordBuffer.add(rawRecord);
-        futures.add(completableFuture);
-
-        if (recordBuffer.size() == recordCountLimit) {
-          flush();
-        }
-        return completableFuture;
-      } finally {
-        lock.unlock();
-      }
+      return addToBuffer(hStreamRecord);
     }
   }
 
   @Override
   public CompletableFuture<RecordId> writeAsync(HRecord hRecord) {
+    HStreamRecord hStreamRecord = toHStreamRecord(hRecord);
     if (!enableBatch) {
-      return writeHRecordsAsync(List.of(hRecord)).thenApply(list -> list.get(0));
+      return writeHStreamRecordsAsync(List.of(hStreamRecord)).thenApply(list -> list.get(0));
     } else {
-      try {
-        semaphore.acquire();
-      } catch (InterruptedException e) {
-        throw new HStreamDBClientException(e);
-      }
-
-      lock.lock();
-      try {
-        CompletableFuture<RecordId> completableFuture = new CompletableFuture<>();
-        recordBuffer.add(hRecord);
-        futures.add(completableFuture);
-
-        if (recordBuffer.size() == recordCountLimit) {
-          flush();
-        }
-        return completableFuture;
-      } finally {
-        lock.unlock();
-      }
+      return addToBuffer(hStreamRecord);
     }
   }
 
   @Override
   public void flush() {
-    flushSync();
+    recordAccumulator.flush();
+    lastBatchCompletion.join();
   }
 
-  private CompletableFuture<List<RecordId>> writeRawRecordsAsync(List<byte[]> rawRecords) {
-
-    CompletableFuture<List<RecordId>> completableFuture = new CompletableFuture<>();
-
-    AppendRequest appendRequest =
-        AppendRequest.newBuilder()
-            .setStreamName(this.stream)
-            .addAllRecords(
-                rawRecords.stream()
-                    .map(rawRecord -> RecordUtils.buildHStreamRecordFromRawRecord(rawRecord))
-                    .collect(Collectors.toList()))
-            .build();
+  @Override
+  public void close() {
+    try {
+      if (enableBatch) {
+        flush();
+      }
+    } finally {
+      if (streamingAppender != null) {
+        streamingAppender.close();
+      }
+      if (ownedTimer != null) {
+        ownedTimer.shutdownNow();
+      }
+    }
+  }
 
-    StreamObserver<AppendResponse> streamObserver =
-        new StreamObserver<>() {
-          @Override
-          public void onNext(AppendResponse appendResponse) {
-            completableFuture.complete(appendResponse.getRecordIdsList());
-          }
+  private HStreamRecord toHStreamRecord(HRecord hRecord) {
+    return schema != null
+        ? RecordUtils.buildHStreamRecordFromHRecord(hRecord, schema)
+        : RecordUtils.buildHStreamRecordFromHRecord(hRecord, hRecordFormat);
+  }
 
-          @Override
-          public void onError(Throwable t) {
-            throw new HStreamDBClientException(t);
-          }
+  private CompletableFuture<RecordId> addToBuffer(HStreamRecord record) {
+    acquireBufferMemory(record.getSerializedSize());
+    return recordAccumulator.append(record);
+  }
 
-          @Override
-          public void onCompleted() {}
-        };
+  private void acquireBufferMemory(int recordSize) {
+    if (recordSize > bufferMemory) {
+      throw new HStreamDBClientException.BufferFullException(
+          String.format(
+              "record of %d bytes is larger than the buffer memory of %d bytes",
+              recordSize, bufferMemory));
+    }
+    if (bufferMemoryPermits.tryAcquire(recordSize)) {
+      return;
+    }
+    if (bufferFullPolicy == BufferFullPolicy.FAIL_FAST) {
+      throw new HStreamDBClientException.BufferFullException("producer buffer memory is full");
+    }
 
-    grpcStub.append(appendRequest, streamObserver);
+    // records still lingering in the accumulator hold memory too, send them so it can be freed
+    recordAccumulator.flush();
+    try {
+      if (bufferFullPolicy == BufferFullPolicy.BLOCK) {
+        bufferMemoryPermits.acquire(recordSize);
+      } else if (!bufferMemoryPermits.tryAcquire(recordSize, maxBlockMs, TimeUnit.MILLISECONDS)) {
+        throw new HStreamDBClientException.BufferFullException(
+            String.format("producer buffer memory is still full after %d ms", maxBlockMs));
+      }
+    } catch (InterruptedException e) {
+      throw new HStreamDBClientException(e);
+    }
+  }
 
-    return completableFuture;
+  private CompletableFuture<List<RecordId>> writeHStreamRecordsAsync(
+      List<HStreamRecord> hStreamRecords) {
+    if (streamingAppender != null) {
+      return streamingAppender.append(hStreamRecords);
+    }
+    return appendUnary(hStreamRecords);
   }
 
-  private CompletableFuture<List<RecordId>> writeHRecordsAsync(List<HRecord> hRecords) {
-    CompletableFuture<List<RecordId>> completableFuture = new CompletableFuture<>();
-
-    AppendRequest appendRequest =
-        AppendRequest.newBuilder()
-            .setStreamName(this.stream)
-            .addAllRecords(
-                hRecords.stream()
-                    .map(hRecord -> RecordUtils.buildHStreamRecordFromHRecord(hRecord))
-                    .collect(Collectors.toList()))
-            .build();
-
-    StreamObserver<AppendResponse> streamObserver =
-        new StreamObserver<>() {
-          @Override
-          public void onNext(AppendResponse appendResponse) {
-            completableFuture.complete(appendResponse.getRecordIdsList());
-          }
-
-          @Override
-          public void onError(Throwable t) {
-            throw new HStreamDBClientException(t);
-          }
-
-          @Override
-          public void onCompleted() {}
-        };
-
-    grpcStub.append(appendRequest, streamObserver);
-
-    return completableFuture;
+  private CompletableFuture<List<RecordId>> appendUnary(List<HStreamRecord> hStreamRecords) {
+    return unaryAppender.append(hStreamRecords);
   }
 
-  private void flushSync() {
-    lock.lock();
+  /**
+   * Hand a sealed batch to the async stub without waiting for the response, the accumulator keeps
+   * at most {@code maxInFlightRequests} of them on the wire.
+   */
+  private CompletableFuture<List<RecordId>> sendBatch(
+      List<HStreamRecord> batchRecords, List<CompletableFuture<RecordId>> batchFutures) {
+    final int batchSize = batchRecords.size();
+    int batchBytes = 0;
+    for (HStreamRecord record : batchRecords) {
+      batchBytes += record.getSerializedSize();
+    }
+    final int batchMemory = batchBytes;
+
+    logger.info("start flush batch, current batch size is: {}", batchSize);
+
+    // raw records and hrecords are told apart by the flag in their headers, so the whole batch
+    // goes out in one request and the returned record ids line up with the buffered futures
+    CompletableFuture<List<RecordId>> recordIdsFuture;
     try {
-      if (recordBuffer.isEmpty()) {
-        return;
-      } else {
-        final int recordBufferCount = recordBuffer.size();
-
-        logger.info("start flush recordBuffer, current buffer size is: {}", recordBufferCount);
-
-        List<ImmutablePair<Integer, byte[]>> rawRecords =
-            IntStream.range(0, recordBufferCount)
-                .filter(index -> recordBuffer.get(index) instanceof byte[])
-                .mapToObj(index -> ImmutablePair.of(index, (byte[]) (recordBuffer.get(index))))
-                .collect(Collectors.toList());
-
-        List<ImmutablePair<Integer, HRecord>> hRecords =
-            IntStream.range(0, recordBufferCount)
-                .filter(index -> recordBuffer.get(index) instanceof HRecord)
-                .mapToObj(index -> ImmutablePair.of(index, (HRecord) (recordBuffer.get(index))))
-                .collect(Collectors.toList());
-
-        List<RecordId> rawRecordIds =
-            writeRawRecordsAsync(
-                    rawRecords.stream().map(pair -> pair.getRight()).collect(Collectors.toList()))
-                .join();
-        List<RecordId> hRecordIds =
-            writeHRecordsAsync(
-                    hRecords.stream().map(ImmutablePair::getRight).collect(Collectors.toList()))
-                .join();
-
-        IntStream.range(0, rawRecords.size())
-            .mapToObj(i -> ImmutablePair.of(i, rawRecords.get(i).getLeft()))
-            .forEach(p -> futures.get(p.getRight()).complete(rawRecordIds.get(p.getLeft())));
-
-        IntStream.range(0, hRecords.size())
-            .mapToObj(i -> ImmutablePair.of(i, hRecords.get(i).getLeft()))
-            .forEach(p -> futures.get(p.getRight()).complete(hRecordIds.get(p.getLeft())));
-
-        recordBuffer.clear();
-        futures.clear();
-
-        logger.info("finish clearing record buffer");
-
-        semaphore.release(recordBufferCount);
-      }
-    } finally {
-      lock.unlock();
+      recordIdsFuture = writeHStreamRecordsAsync(batchRecords);
+    } catch (RuntimeException e) {
+      // the accumulator fails the batch's futures and frees its in-flight slot
+      bufferMemoryPermits.release(batchMemory);
+      throw e;
     }
+    recordIdsFuture.whenComplete((recordIds, t) -> bufferMemoryPermits.release(batchMemory));
+
+    // complete the record futures only after every earlier batch has been completed, so callers
+    // observe results in the order the batches were sent
+    lastBatchCompletion =
+        CompletableFuture.allOf(lastBatchCompletion, recordIdsFuture)
+            .handle(
+                (v, t) -> {
+                  if (t != null) {
+                    logger.error("flush batch error: {}", t);
+                    batchFutures.forEach(future -> future.completeExceptionally(t));
+                    return null;
+                  }
+
+                  List<RecordId> recordIds = recordIdsFuture.join();
+                  for (int i = 0; i < batchSize; ++i) {
+                    batchFutures.get(i).complete(recordIds.get(i));
+                  }
+
+                  logger.info("finish flushing batch of {} records", batchSize);
+                  return null;
+                });
+    return recordIdsFuture;
   }
 }
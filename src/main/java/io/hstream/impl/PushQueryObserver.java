@@ -0,0 +1,141 @@
+package io.hstream.impl;
+
+import com.google.protobuf.Struct;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.hstream.CommandPushQuery;
+import io.hstream.Demand;
+import io.hstream.FlowControlledObserver;
+import io.hstream.HRecord;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.Observer;
+
+/**
+ * Delivers the results of a push query to an {@link Observer} with inbound flow control, the server
+ * is only asked for a message once the observer can take it. A {@link FlowControlledObserver} asks
+ * through its {@link Demand}, any other observer is asked for the next message when its {@code
+ * onNext} returns, so a slow observer slows the query down rather than buffering its results.
+ */
+final class PushQueryObserver implements ClientResponseObserver<CommandPushQuery, Struct>, Demand {
+
+  private final Observer<? super HRecord> observer;
+  private final boolean flowControlled;
+  private ClientCallStreamObserver<CommandPushQuery> call;
+  // guarded by this, requests and cancellation before the call is started are applied after
+  private boolean started;
+  // values requested and not delivered yet, Long.MAX_VALUE for no limit
+  private long pending;
+  // the part of pending already requested from the call, which counts requests in an int
+  private int requested;
+  private volatile boolean cancelled;
+
+  private PushQueryObserver(Observer<? super HRecord> observer) {
+    this.observer = observer;
+    this.flowControlled = observer instanceof FlowControlledObserver;
+  }
+
+  static void subscribe(
+      HStreamApiGrpc.HStreamApiStub stub,
+      CommandPushQuery pushQuery,
+      Observer<? super HRecord> observer) {
+    PushQueryObserver pushQueryObserver = new PushQueryObserver(observer);
+    stub.executePushQuery(pushQuery, pushQueryObserver);
+    pushQueryObserver.started();
+  }
+
+  @Override
+  public void beforeStart(ClientCallStreamObserver<CommandPushQuery> requestStream) {
+    this.call = requestStream;
+    requestStream.disableAutoRequestWithInitial(flowControlled ? 0 : 1);
+    if (flowControlled) {
+      // before the call starts, so the observer is subscribed before any other signal
+      ((FlowControlledObserver<? super HRecord>) observer).onSubscribe(this);
+    }
+  }
+
+  private void started() {
+    synchronized (this) {
+      started = true;
+      if (!cancelled) {
+        requestPending();
+        return;
+      }
+    }
+    call.cancel("push query cancelled by observer", null);
+  }
+
+  @Override
+  public void request(long n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("request must be positive, but got " + n);
+    }
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      pending = pending + n < 0 ? Long.MAX_VALUE : pending + n;
+      if (started) {
+        requestPending();
+      }
+    }
+  }
+
+  // guarded by this
+  private void requestPending() {
+    int more = (int) Math.min(pending - requested, Integer.MAX_VALUE - requested);
+    if (more > 0) {
+      requested += more;
+      call.request(more);
+    }
+  }
+
+  @Override
+  public void cancel() {
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      if (!started) {
+        return;
+      }
+    }
+    call.cancel("push query cancelled by observer", null);
+  }
+
+  @Override
+  public void onNext(Struct value) {
+    if (cancelled) {
+      return;
+    }
+    if (flowControlled) {
+      synchronized (this) {
+        requested--;
+        if (pending != Long.MAX_VALUE) {
+          pending--;
+        }
+        if (pending > requested) {
+          requestPending();
+        }
+      }
+    }
+    observer.onNext(new HRecord(value.getFieldsOrThrow("SELECT").getStructValue()));
+    if (!flowControlled) {
+      call.request(1);
+    }
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    if (!cancelled) {
+      observer.onError(t);
+    }
+  }
+
+  @Override
+  public void onCompleted() {
+    if (!cancelled) {
+      observer.onCompleted();
+    }
+  }
+}
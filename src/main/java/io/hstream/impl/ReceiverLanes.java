@@ -0,0 +1,103 @@
+package io.hstream.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs receiver callbacks on a fixed number of single threaded lanes. Records with the same key
+ * always go to the same lane, so they are processed in fetch order, records with different keys are
+ * processed in parallel. Records without a key are spread over the lanes round robin.
+ */
+final class ReceiverLanes {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReceiverLanes.class);
+
+  private final ExecutorService[] lanes;
+  private final Function<HStreamRecord, String> keyExtractor;
+  // bounds the records handed to the lanes but not processed yet, so fetching can not run ahead
+  private final Semaphore dispatchPermits;
+  private final int maxDispatchedRecords;
+  // only used by the fetching thread
+  private int nextUnkeyedLane;
+
+  ReceiverLanes(
+      int laneCount, Function<HStreamRecord, String> keyExtractor, int maxDispatchedRecords) {
+    this.lanes = new ExecutorService[laneCount];
+    for (int i = 0; i < laneCount; ++i) {
+      lanes[i] =
+          Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder().setNameFormat("receiver-lane-" + i + "-%d").build());
+    }
+    this.keyExtractor = keyExtractor;
+    this.maxDispatchedRecords = maxDispatchedRecords;
+    this.dispatchPermits = new Semaphore(maxDispatchedRecords);
+  }
+
+  int laneOf(HStreamRecord hStreamRecord) {
+    String key = keyExtractor.apply(hStreamRecord);
+    if (key == null || key.isEmpty()) {
+      nextUnkeyedLane = (nextUnkeyedLane + 1) % lanes.length;
+      return nextUnkeyedLane;
+    }
+    return Math.floorMod(key.hashCode(), lanes.length);
+  }
+
+  /** Run the task on the lane, blocks while too many dispatched records are still unprocessed. */
+  void execute(int lane, int recordCount, Runnable task) {
+    int permits = Math.min(recordCount, maxDispatchedRecords);
+    try {
+      dispatchPermits.acquire(permits);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HStreamDBClientException(e);
+    }
+
+    lanes[lane].execute(
+        () -> {
+          try {
+            task.run();
+          } catch (Exception e) {
+            logger.error("receiver on lane {} error: {}", lane, e);
+          } finally {
+            dispatchPermits.release(permits);
+          }
+        });
+  }
+
+  /**
+   * Let the lanes finish the records already handed to them, the ones still running after the
+   * timeout are interrupted.
+   *
+   * @return whether every lane finished in time
+   */
+  boolean shutdown(long timeoutMs) throws InterruptedException {
+    for (ExecutorService lane : lanes) {
+      lane.shutdown();
+    }
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    boolean terminated = true;
+    for (ExecutorService lane : lanes) {
+      terminated &=
+          lane.awaitTermination(
+              Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+    if (!terminated) {
+      shutdownNow();
+    }
+    return terminated;
+  }
+
+  void shutdownNow() {
+    for (ExecutorService lane : lanes) {
+      lane.shutdownNow();
+    }
+  }
+}
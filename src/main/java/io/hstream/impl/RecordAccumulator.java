@@ -0,0 +1,285 @@
+package io.hstream.impl;
+
+import io.hstream.HStreamRecord;
+import io.hstream.RecordId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lock-free, multi-producer single-consumer buffer for the batching producer. Writers append to a
+ * {@link ConcurrentLinkedQueue} and only touch atomic counters. Whichever thread wins the drain
+ * flag seals batches by count, bytes or linger time and hands them to the {@link BatchSender} in
+ * append order, with at most {@code maxInFlightBatches} of them waiting for a response. A writer
+ * that fills a batch waits until every batch sealed so far has been sent, so writers are held back
+ * while the window is full.
+ */
+final class RecordAccumulator {
+
+  private static final Logger logger = LoggerFactory.getLogger(RecordAccumulator.class);
+
+  /** Sends sealed batches, always called by a single thread at a time, in seal order. */
+  interface BatchSender {
+    /**
+     * Send a batch without blocking.
+     *
+     * @return a future completed once the server has responded to the batch
+     */
+    CompletableFuture<?> send(
+        List<HStreamRecord> records, List<CompletableFuture<RecordId>> futures);
+  }
+
+  private static final class PendingRecord {
+    private final HStreamRecord record;
+    private final int size;
+    private final long appendNanos;
+    private final CompletableFuture<RecordId> future = new CompletableFuture<>();
+
+    private PendingRecord(HStreamRecord record, int size, long appendNanos) {
+      this.record = record;
+      this.size = size;
+      this.appendNanos = appendNanos;
+    }
+  }
+
+  private static final class Batch {
+    private final List<HStreamRecord> records;
+    private final List<CompletableFuture<RecordId>> futures;
+    private final long sequence;
+
+    private Batch(
+        List<HStreamRecord> records, List<CompletableFuture<RecordId>> futures, long sequence) {
+      this.records = records;
+      this.futures = futures;
+      this.sequence = sequence;
+    }
+  }
+
+  private final int recordCountLimit;
+  private final int batchBytesLimit;
+  private final long lingerNanos;
+  private final ScheduledExecutorService lingerTimer;
+  private final BatchSender sender;
+  private final Semaphore inFlightBatches;
+
+  private final ConcurrentLinkedQueue<PendingRecord> queue = new ConcurrentLinkedQueue<>();
+  // may lag behind the queue, but never counts a record that is not in the queue
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicBoolean lingerScheduled = new AtomicBoolean();
+  private final AtomicLong flushRequests = new AtomicLong();
+  private final AtomicLong flushedRequests = new AtomicLong();
+  private final AtomicLong sealedCount = new AtomicLong();
+  private final AtomicLong sentCount = new AtomicLong();
+  private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+  // only touched by the thread holding the drain flag
+  private final ArrayDeque<Batch> sealedBatches = new ArrayDeque<>();
+
+  /**
+   * @param lingerTimer used to flush records that wait longer than {@code lingerMs}, null to
+   *     disable linger based flushing.
+   * @param maxInFlightBatches the max number of sent batches waiting for a response.
+   */
+  RecordAccumulator(
+      int recordCountLimit,
+      int batchBytesLimit,
+      long lingerMs,
+      ScheduledExecutorService lingerTimer,
+      int maxInFlightBatches,
+      BatchSender sender) {
+    this.recordCountLimit = recordCountLimit;
+    this.batchBytesLimit = batchBytesLimit;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+    this.lingerTimer = lingerTimer;
+    this.inFlightBatches = new Semaphore(maxInFlightBatches);
+    this.sender = sender;
+  }
+
+  CompletableFuture<RecordId> append(HStreamRecord record) {
+    PendingRecord pending =
+        new PendingRecord(
+            record, record.getSerializedSize(), lingerTimer != null ? System.nanoTime() : 0);
+    queue.offer(pending);
+    int count = pendingCount.incrementAndGet();
+    long bytes = pendingBytes.addAndGet(pending.size);
+
+    if (count >= recordCountLimit || bytes >= batchBytesLimit) {
+      drain();
+      long sealed = sealedCount.get();
+      awaitUntil(() -> sentCount.get() >= sealed);
+    } else if (count == 1) {
+      scheduleLinger(lingerNanos);
+    }
+    return pending.future;
+  }
+
+  /** Seal every record appended before this call, returns once they are handed to the sender. */
+  void flush() {
+    long request = flushRequests.incrementAndGet();
+    drain();
+    // another thread may hold the drain flag, it serves the request before releasing it
+    awaitUntil(() -> flushedRequests.get() >= request);
+    long sealed = sealedCount.get();
+    awaitUntil(() -> sentCount.get() >= sealed);
+  }
+
+  private void drain() {
+    while (draining.compareAndSet(false, true)) {
+      try {
+        long request = flushRequests.get();
+        if (request > flushedRequests.get()) {
+          while (sealBatch()) {}
+          flushedRequests.set(request);
+        }
+
+        while (pendingCount.get() >= recordCountLimit || pendingBytes.get() >= batchBytesLimit) {
+          if (!sealBatch()) {
+            break;
+          }
+        }
+
+        sendSealed();
+
+        PendingRecord head = queue.peek();
+        if (head != null) {
+          scheduleLinger(lingerNanos - (System.nanoTime() - head.appendNanos));
+        }
+      } finally {
+        draining.set(false);
+      }
+      wakeWaiters();
+
+      // work that arrived while the flag was held would otherwise be lost, since its writer or
+      // response callback failed the compareAndSet and returned
+      if (flushRequests.get() <= flushedRequests.get()
+          && pendingCount.get() < recordCountLimit
+          && pendingBytes.get() < batchBytesLimit
+          && (sentCount.get() >= sealedCount.get() || inFlightBatches.availablePermits() == 0)) {
+        return;
+      }
+    }
+  }
+
+  /** Must only be called by the thread holding the drain flag. */
+  private boolean sealBatch() {
+    List<HStreamRecord> records =
+        new ArrayList<>(Math.min(recordCountLimit, Math.max(pendingCount.get(), 1)));
+    List<CompletableFuture<RecordId>> futures = new ArrayList<>(records.size());
+    int batchBytes = 0;
+
+    PendingRecord pending;
+    while (records.size() < recordCountLimit && (pending = queue.peek()) != null) {
+      // a batch only goes over the byte limit if a single record does
+      if (!records.isEmpty() && batchBytes + pending.size > batchBytesLimit) {
+        break;
+      }
+      queue.poll();
+      records.add(pending.record);
+      futures.add(pending.future);
+      batchBytes += pending.size;
+    }
+
+    if (records.isEmpty()) {
+      return false;
+    }
+    pendingCount.addAndGet(-records.size());
+    pendingBytes.addAndGet(-batchBytes);
+    sealedBatches.add(new Batch(records, futures, sealedCount.incrementAndGet()));
+    return true;
+  }
+
+  /** Must only be called by the thread holding the drain flag. */
+  private void sendSealed() {
+    while (!sealedBatches.isEmpty() && inFlightBatches.tryAcquire()) {
+      Batch batch = sealedBatches.poll();
+      CompletableFuture<?> response;
+      try {
+        response = sender.send(batch.records, batch.futures);
+      } catch (RuntimeException e) {
+        logger.error("send batch error: {}", e);
+        batch.futures.forEach(future -> future.completeExceptionally(e));
+        response = null;
+      }
+      sentCount.set(batch.sequence);
+
+      if (response == null || response.isDone()) {
+        // loop rather than recurse on batches answered at once
+        inFlightBatches.release();
+      } else {
+        response.whenComplete(
+            (r, t) -> {
+              inFlightBatches.release();
+              drain();
+            });
+      }
+    }
+  }
+
+  private void awaitUntil(BooleanSupplier condition) {
+    Thread current = Thread.currentThread();
+    while (!condition.getAsBoolean()) {
+      waiters.add(current);
+      // the drainer wakes waiters after it releases the flag, so a change that lands between the
+      // check above and the park is never missed
+      if (!condition.getAsBoolean()) {
+        LockSupport.park(this);
+      }
+      waiters.remove(current);
+      if (Thread.interrupted()) {
+        // the records are still sent, only the wait for them ends
+        current.interrupt();
+        return;
+      }
+    }
+  }
+
+  private void wakeWaiters() {
+    for (Thread waiter : waiters) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  private void scheduleLinger(long delayNanos) {
+    // keep at most one pending timer task, it re-arms itself while records are waiting
+    if (lingerTimer == null || !lingerScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      lingerTimer.schedule(this::lingerExpired, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // the client is closed, records are still sent by count, size or flush
+      logger.warn("linger timer is shut down, records wait for a full batch or flush");
+    }
+  }
+
+  private void lingerExpired() {
+    lingerScheduled.set(false);
+    PendingRecord head = queue.peek();
+    if (head == null) {
+      return;
+    }
+    long waitedNanos = System.nanoTime() - head.appendNanos;
+    if (waitedNanos >= lingerNanos) {
+      flushRequests.incrementAndGet();
+      drain();
+    } else {
+      // the record that armed this timer has already been sent
+      scheduleLinger(lingerNanos - waitedNanos);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package io.hstream.impl;
+
+import io.hstream.ReceivedRecord;
+import java.util.List;
+
+/** Fetches the records of a subscription ahead of the consumer's processing thread. */
+interface RecordFetcher {
+
+  void start();
+
+  /** Stop fetching, records fetched but not taken yet are dropped. */
+  void stop();
+
+  /**
+   * Wait for the next fetched batch.
+   *
+   * @return the records of the batch in fetch order, empty if the fetcher was stopped
+   * @throws io.hstream.HStreamDBClientException.ConsumerException if fetching failed
+   */
+  List<ReceivedRecord> take() throws InterruptedException;
+}
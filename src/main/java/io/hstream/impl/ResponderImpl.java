@@ -1,40 +1,37 @@
 package io.hstream.impl;
 
-import io.grpc.StatusRuntimeException;
-import io.hstream.CommittedOffset;
-import io.hstream.HStreamApiGrpc;
 import io.hstream.RecordId;
 import io.hstream.Responder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+/**
+ * Acks a delivered record, or a delivered batch up to its last record. The ack is only recorded
+ * here, the {@link OffsetCommitter} commits it in the background.
+ */
 public class ResponderImpl implements Responder {
-  private static final Logger logger = LoggerFactory.getLogger(ResponderImpl.class);
 
-  private final HStreamApiGrpc.HStreamApiBlockingStub blockingStub;
-  private final String subscriptionId;
+  private final OffsetCommitter offsetCommitter;
   private final RecordId recordId;
+  // the record's place in delivery order, starting at 1
+  private final long position;
+  // guarded by the offsetCommitter, only used with out of order acks
+  boolean acked;
 
-  public ResponderImpl(
-      HStreamApiGrpc.HStreamApiBlockingStub blockingStub,
-      String subscriptionId,
-      RecordId recordId) {
-    this.blockingStub = blockingStub;
-    this.subscriptionId = subscriptionId;
+  ResponderImpl(OffsetCommitter offsetCommitter, RecordId recordId, long position) {
+    this.offsetCommitter = offsetCommitter;
     this.recordId = recordId;
+    this.position = position;
+  }
+
+  RecordId getRecordId() {
+    return recordId;
+  }
+
+  long getPosition() {
+    return position;
   }
 
   @Override
   public void ack() {
-    CommittedOffset committedOffset =
-        CommittedOffset.newBuilder().setSubscriptionId(subscriptionId).setOffset(recordId).build();
-
-    try {
-      blockingStub.commitOffset(committedOffset);
-    } catch (StatusRuntimeException e) {
-      logger.error("commit offset failed: {}", e);
-      throw new RuntimeException(e);
-    }
-    logger.info("committed offset {} for subscription {}", recordId, subscriptionId);
+    offsetCommitter.ack(this);
   }
 }
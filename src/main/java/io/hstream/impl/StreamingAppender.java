@@ -0,0 +1,283 @@
+package io.hstream.impl;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.hstream.AppendStreamRequest;
+import io.hstream.AppendStreamResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import io.hstream.RecordId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends batches over one long-lived {@code AppendStream} stream instead of a unary call per
+ * batch. Every batch carries a sequence number, which the server's response echoes so the record
+ * ids are matched back to the batch. A broken stream fails the batches waiting on it and is
+ * replaced on the next append. If the server does not support the stream, its batches and all later
+ * ones are appended with unary calls. Requests are only written while the stream is ready, the
+ * others wait in order for its flow control window to open. A batch without a response within
+ * {@code requestTimeoutMs} fails with {@code DEADLINE_EXCEEDED}, it is not sent if it is still
+ * waiting for the window and a late response to it is dropped.
+ */
+final class StreamingAppender {
+
+  private static final Logger logger = LoggerFactory.getLogger(StreamingAppender.class);
+
+  private final HStreamApiGrpc.HStreamApiStub grpcStub;
+  private final String streamName;
+  private final Function<List<HStreamRecord>, CompletableFuture<List<RecordId>>> unaryAppend;
+  private final long requestTimeoutMs;
+  // null without a request timeout
+  private final ScheduledExecutorService scheduler;
+
+  // guarded by this
+  private AppendStream appendStream;
+  private boolean unsupported;
+  private boolean closed;
+
+  /**
+   * @param requestTimeoutMs how long a batch waits for its response, 0 for no limit
+   * @param scheduler runs the request timeouts, may be null without them
+   */
+  StreamingAppender(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      String streamName,
+      Function<List<HStreamRecord>, CompletableFuture<List<RecordId>>> unaryAppend,
+      long requestTimeoutMs,
+      ScheduledExecutorService scheduler) {
+    this.grpcStub = grpcStub;
+    this.streamName = streamName;
+    this.unaryAppend = unaryAppend;
+    this.requestTimeoutMs = requestTimeoutMs;
+    this.scheduler = scheduler;
+  }
+
+  CompletableFuture<List<RecordId>> append(List<HStreamRecord> records) {
+    synchronized (this) {
+      if (closed) {
+        return CompletableFuture.failedFuture(
+            new HStreamDBClientException("streaming appender is closed"));
+      }
+      if (!unsupported) {
+        if (appendStream == null) {
+          appendStream = new AppendStream();
+        }
+        return appendStream.append(records);
+      }
+    }
+    return unaryAppend.apply(records);
+  }
+
+  /**
+   * Half-close the stream once its queued requests are written, the server still responds to the
+   * batches already sent.
+   */
+  synchronized void close() {
+    closed = true;
+    if (appendStream != null) {
+      appendStream.halfClose();
+    }
+  }
+
+  private static final class PendingBatch {
+    private final List<HStreamRecord> records;
+    private final CompletableFuture<List<RecordId>> future = new CompletableFuture<>();
+    // guarded by the appender, null without a request timeout
+    private ScheduledFuture<?> timeout;
+
+    private PendingBatch(List<HStreamRecord> records) {
+      this.records = records;
+    }
+  }
+
+  /** One stream and the batches waiting for its responses, guarded by the appender. */
+  private class AppendStream
+      implements ClientResponseObserver<AppendStreamRequest, AppendStreamResponse> {
+
+    private final Map<Long, PendingBatch> pendingBatches = new TreeMap<>();
+    // written while the stream is ready
+    private final ArrayDeque<AppendStreamRequest> unsentRequests = new ArrayDeque<>();
+    private ClientCallStreamObserver<AppendStreamRequest> requestStream;
+    private long nextSequence;
+    private boolean streamNameSent;
+    private boolean halfClosing;
+
+    private AppendStream() {
+      grpcStub.appendStream(this);
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<AppendStreamRequest> requestStream) {
+      this.requestStream = requestStream;
+      requestStream.setOnReadyHandler(
+          () -> {
+            synchronized (StreamingAppender.this) {
+              writeReady();
+            }
+          });
+    }
+
+    // called with the appender locked
+    private void writeReady() {
+      while (!unsentRequests.isEmpty() && requestStream.isReady()) {
+        AppendStreamRequest request = unsentRequests.poll();
+        if (!pendingBatches.containsKey(request.getSequence())) {
+          // timed out before the window opened, its future has already failed
+          continue;
+        }
+        if (!streamNameSent) {
+          // the first request written names the stream, whichever sequence it has
+          request = request.toBuilder().setStreamName(streamName).build();
+          streamNameSent = true;
+        }
+        requestStream.onNext(request);
+      }
+      if (halfClosing && unsentRequests.isEmpty()) {
+        halfClosing = false;
+        requestStream.onCompleted();
+      }
+    }
+
+    // called with the appender locked
+    private void halfClose() {
+      halfClosing = true;
+      writeReady();
+    }
+
+    // called with the appender locked
+    private CompletableFuture<List<RecordId>> append(List<HStreamRecord> records) {
+      long sequence = nextSequence++;
+      PendingBatch pendingBatch = new PendingBatch(records);
+      pendingBatches.put(sequence, pendingBatch);
+      scheduleTimeout(sequence, pendingBatch);
+      unsentRequests.add(
+          AppendStreamRequest.newBuilder().setSequence(sequence).addAllRecords(records).build());
+      writeReady();
+      return pendingBatch.future;
+    }
+
+    // called with the appender locked
+    private void scheduleTimeout(long sequence, PendingBatch pendingBatch) {
+      if (requestTimeoutMs <= 0) {
+        return;
+      }
+      try {
+        pendingBatch.timeout =
+            scheduler.schedule(() -> expire(sequence), requestTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // the client is closed, the batch waits for the stream without a timeout
+      }
+    }
+
+    private void expire(long sequence) {
+      PendingBatch pendingBatch;
+      synchronized (StreamingAppender.this) {
+        pendingBatch = pendingBatches.remove(sequence);
+      }
+      if (pendingBatch == null) {
+        return;
+      }
+      logger.warn("append of sequence {} got no response in {} ms", sequence, requestTimeoutMs);
+      pendingBatch.future.completeExceptionally(
+          new HStreamDBClientException(
+              new StatusRuntimeException(
+                  Status.DEADLINE_EXCEEDED.withDescription(
+                      String.format("no append response in %d ms", requestTimeoutMs)))));
+    }
+
+    @Override
+    public void onNext(AppendStreamResponse response) {
+      PendingBatch pendingBatch;
+      synchronized (StreamingAppender.this) {
+        pendingBatch = pendingBatches.remove(response.getSequence());
+        if (pendingBatch != null && pendingBatch.timeout != null) {
+          pendingBatch.timeout.cancel(false);
+        }
+      }
+      if (pendingBatch == null) {
+        logger.warn("append response for unknown or timed out sequence {}", response.getSequence());
+        return;
+      }
+      if (response.getRecordIdsCount() != pendingBatch.records.size()) {
+        pendingBatch.future.completeExceptionally(
+            new HStreamDBClientException(
+                String.format(
+                    "expect %d record ids in append response, but got %d",
+                    pendingBatch.records.size(), response.getRecordIdsCount())));
+        return;
+      }
+      pendingBatch.future.complete(response.getRecordIdsList());
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (Status.fromThrowable(t).getCode() == Status.Code.UNIMPLEMENTED) {
+        logger.warn("server does not support append stream, use unary append");
+        // nothing was appended, the batches are sent again with unary calls
+        for (PendingBatch pendingBatch : closed(true)) {
+          unaryAppend
+              .apply(pendingBatch.records)
+              .whenComplete(
+                  (recordIds, e) -> {
+                    if (e != null) {
+                      pendingBatch.future.completeExceptionally(e);
+                    } else {
+                      pendingBatch.future.complete(recordIds);
+                    }
+                  });
+        }
+        return;
+      }
+
+      logger.error("append stream error: {}", t);
+      for (PendingBatch pendingBatch : closed(false)) {
+        pendingBatch.future.completeExceptionally(new HStreamDBClientException(t));
+      }
+    }
+
+    @Override
+    public void onCompleted() {
+      for (PendingBatch pendingBatch : closed(false)) {
+        pendingBatch.future.completeExceptionally(
+            new HStreamDBClientException("append stream closed by server"));
+      }
+    }
+
+    /**
+     * @return the batches still waiting for a response, in sequence order
+     */
+    private List<PendingBatch> closed(boolean unsupported) {
+      synchronized (StreamingAppender.this) {
+        if (appendStream == this) {
+          appendStream = null;
+        }
+        StreamingAppender.this.unsupported |= unsupported;
+        List<PendingBatch> batches = new ArrayList<>(pendingBatches.values());
+        for (PendingBatch batch : batches) {
+          if (batch.timeout != null) {
+            batch.timeout.cancel(false);
+          }
+        }
+        pendingBatches.clear();
+        unsentRequests.clear();
+        halfClosing = false;
+        return batches;
+      }
+    }
+  }
+}
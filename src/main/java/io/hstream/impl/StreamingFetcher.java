@@ -0,0 +1,223 @@
+package io.hstream.impl;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.ReceivedRecord;
+import io.hstream.RecordId;
+import io.hstream.StreamingFetchRequest;
+import io.hstream.StreamingFetchResponse;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the records of a subscription over one {@code StreamingFetch} stream, which the server
+ * pushes records on as they arrive. Flow control is credit based: the client grants as many records
+ * as its buffer holds, and grants more as records are taken out of it, unless the buffered records
+ * take more than the byte limit. Acked offsets are sent back on the same stream.
+ *
+ * <p>A stream that fails or is closed by the server is reopened after an exponential backoff with
+ * full jitter, until the fetcher is stopped. The server resumes the new stream from the last
+ * committed offset, so records still buffered from the old stream are dropped and received again.
+ * Only a server without {@code StreamingFetch} fails {@link #take()}, so the consumer can fall back
+ * to polling.
+ */
+final class StreamingFetcher implements RecordFetcher, OffsetCommitter.AckStream {
+
+  private static final Logger logger = LoggerFactory.getLogger(StreamingFetcher.class);
+
+  private static final long reconnectBackoffMs = 100;
+  private static final long maxReconnectBackoffMs = 10 * 1000;
+
+  private final HStreamApiGrpc.HStreamApiStub grpcStub;
+  private final String subscriptionId;
+  private final int maxBufferedRecords;
+  private final long maxBufferedBytes;
+  private final ScheduledExecutorService scheduler;
+
+  // guarded by this
+  private final ArrayDeque<StreamingFetchResponse> batches = new ArrayDeque<>();
+  private long bufferedBytes;
+  // records taken out of the buffer that are not granted to the server again yet
+  private int withheldCredits;
+  // null while the stream is being reopened
+  private StreamObserver<StreamingFetchRequest> requestObserver;
+  // the observer of the current stream, callbacks of earlier streams are ignored
+  private ResponseObserver responseObserver;
+  private int reconnects;
+  private Throwable streamError;
+  private boolean stopped;
+
+  StreamingFetcher(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      String subscriptionId,
+      int maxBufferedRecords,
+      long maxBufferedBytes,
+      ScheduledExecutorService scheduler) {
+    this.grpcStub = grpcStub;
+    this.subscriptionId = subscriptionId;
+    this.maxBufferedRecords = maxBufferedRecords;
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  public synchronized void start() {
+    open();
+  }
+
+  // guarded by this
+  private void open() {
+    ResponseObserver observer = new ResponseObserver();
+    responseObserver = observer;
+    StreamObserver<StreamingFetchRequest> requests = grpcStub.streamingFetch(observer);
+    if (responseObserver != observer) {
+      // the stream already failed and a reconnect is scheduled
+      return;
+    }
+    requestObserver = requests;
+    requests.onNext(
+        StreamingFetchRequest.newBuilder()
+            .setSubscriptionId(subscriptionId)
+            .setCredits(maxBufferedRecords)
+            .build());
+  }
+
+  /**
+   * Reopen the stream after a backoff, the old stream's records are sent again by the server. Must
+   * be called with the fetcher locked.
+   */
+  private void reconnectLater() {
+    requestObserver = null;
+    responseObserver = null;
+    batches.clear();
+    bufferedBytes = 0;
+    withheldCredits = 0;
+
+    long cap = Math.min(maxReconnectBackoffMs, reconnectBackoffMs << Math.min(reconnects, 30));
+    long backoffMs = ThreadLocalRandom.current().nextLong(cap + 1);
+    reconnects++;
+    logger.warn(
+        "streaming fetch of subscription {} is closed, reopen it in {} ms",
+        subscriptionId,
+        backoffMs);
+    try {
+      scheduler.schedule(this::reconnect, backoffMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // the consumer is stopping
+    }
+  }
+
+  private synchronized void reconnect() {
+    if (!stopped) {
+      open();
+    }
+  }
+
+  @Override
+  public void stop() {
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      stopped = true;
+      batches.clear();
+      bufferedBytes = 0;
+      if (requestObserver != null && streamError == null) {
+        requestObserver.onCompleted();
+      }
+      requestObserver = null;
+      responseObserver = null;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public List<ReceivedRecord> take() throws InterruptedException {
+    synchronized (this) {
+      while (batches.isEmpty() && streamError == null && !stopped) {
+        wait();
+      }
+      if (stopped) {
+        return Collections.emptyList();
+      }
+      if (batches.isEmpty()) {
+        throw new HStreamDBClientException.ConsumerException("streaming fetch error", streamError);
+      }
+      StreamingFetchResponse batch = batches.poll();
+      bufferedBytes -= batch.getSerializedSize();
+      withheldCredits += batch.getReceivedRecordsCount();
+      if (bufferedBytes < maxBufferedBytes && requestObserver != null) {
+        requestObserver.onNext(
+            StreamingFetchRequest.newBuilder().setCredits(withheldCredits).build());
+        withheldCredits = 0;
+      }
+      return batch.getReceivedRecordsList();
+    }
+  }
+
+  @Override
+  public synchronized boolean sendAck(RecordId ackedOffset) {
+    if (stopped || requestObserver == null) {
+      return false;
+    }
+    requestObserver.onNext(StreamingFetchRequest.newBuilder().setAckedOffset(ackedOffset).build());
+    return true;
+  }
+
+  private class ResponseObserver implements StreamObserver<StreamingFetchResponse> {
+
+    @Override
+    public void onNext(StreamingFetchResponse response) {
+      synchronized (StreamingFetcher.this) {
+        if (responseObserver != this) {
+          return;
+        }
+        reconnects = 0;
+        if (response.getReceivedRecordsCount() == 0) {
+          return;
+        }
+        batches.add(response);
+        bufferedBytes += response.getSerializedSize();
+        StreamingFetcher.this.notifyAll();
+      }
+      logger.info("received {} pushed records", response.getReceivedRecordsCount());
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      logger.error("streaming fetch error: {}", t);
+      closed(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      closed(Status.UNAVAILABLE.withDescription("streaming fetch closed by server").asException());
+    }
+
+    private void closed(Throwable t) {
+      synchronized (StreamingFetcher.this) {
+        if (responseObserver != this) {
+          return;
+        }
+        if (Status.fromThrowable(t).getCode() == Status.Code.UNIMPLEMENTED) {
+          // the consumer falls back to polling
+          streamError = t;
+          requestObserver = null;
+          responseObserver = null;
+          StreamingFetcher.this.notifyAll();
+          return;
+        }
+        reconnectLater();
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package io.hstream.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.AckableRecord;
+import io.hstream.ConsumerHeartbeatRequest;
+import io.hstream.ConsumerHeartbeatResponse;
+import io.hstream.FetchRequest;
+import io.hstream.FetchResponse;
+import io.hstream.HRecordSchema;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.ReceivedHRecord;
+import io.hstream.ReceivedRawRecord;
+import io.hstream.ReceivedRecord;
+import io.hstream.SubscribeRequest;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the records of a subscription to {@link Flow.Subscriber}s, as an alternative to the
+ * receivers of a {@link io.hstream.Consumer}. Every subscriber attaches to the subscription as a
+ * consumer of its own. Records are only fetched when the subscriber has demand, and never more than
+ * it requested, so a slow subscriber leaves records with the server. Records a fetch returns beyond
+ * the demand are kept until the subscriber requests them. Records are acked through the {@link
+ * AckableRecord}s they are delivered in.
+ */
+public final class SubscriptionPublisher<T> implements Flow.Publisher<AckableRecord<T>> {
+
+  private static final Logger logger = LoggerFactory.getLogger(SubscriptionPublisher.class);
+
+  private static final long heartbeatIntervalMs = 1000;
+
+  private final HStreamApiGrpc.HStreamApiStub grpcStub;
+  private final HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub;
+  private final String subscriptionId;
+  private final long pollTimeoutMs;
+  private final int maxPollRecords;
+  private final long commitIntervalMs;
+  private final int commitAckCount;
+  private final Function<ReceivedRecord, T> decoder;
+
+  private SubscriptionPublisher(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub,
+      String subscriptionId,
+      long pollTimeoutMs,
+      int maxPollRecords,
+      long commitIntervalMs,
+      int commitAckCount,
+      Function<ReceivedRecord, T> decoder) {
+    this.grpcStub = grpcStub;
+    this.grpcBlockingStub = grpcBlockingStub;
+    this.subscriptionId = subscriptionId;
+    this.pollTimeoutMs = pollTimeoutMs;
+    this.maxPollRecords = maxPollRecords;
+    this.commitIntervalMs = commitIntervalMs;
+    this.commitAckCount = commitAckCount;
+    this.decoder = decoder;
+  }
+
+  public static SubscriptionPublisher<ReceivedRawRecord> ofRawRecords(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub,
+      String subscriptionId,
+      long pollTimeoutMs,
+      int maxPollRecords,
+      long commitIntervalMs,
+      int commitAckCount) {
+    return new SubscriptionPublisher<>(
+        grpcStub,
+        grpcBlockingStub,
+        subscriptionId,
+        pollTimeoutMs,
+        maxPollRecords,
+        commitIntervalMs,
+        commitAckCount,
+        ConsumerImpl::toReceivedRawRecord);
+  }
+
+  public static SubscriptionPublisher<ReceivedHRecord> ofHRecords(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      HStreamApiGrpc.HStreamApiBlockingStub grpcBlockingStub,
+      String subscriptionId,
+      long pollTimeoutMs,
+      int maxPollRecords,
+      long commitIntervalMs,
+      int commitAckCount,
+      boolean lazyHRecordDecoding,
+      Map<String, HRecordSchema> schemas) {
+    return new SubscriptionPublisher<>(
+        grpcStub,
+        grpcBlockingStub,
+        subscriptionId,
+        pollTimeoutMs,
+        maxPollRecords,
+        commitIntervalMs,
+        commitAckCount,
+        receivedRecord ->
+            ConsumerImpl.toReceivedHRecord(receivedRecord, lazyHRecordDecoding, schemas));
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super AckableRecord<T>> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+    new RecordSubscription(subscriber).start();
+  }
+
+  private final class RecordSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super AckableRecord<T>> subscriber;
+    private final ExecutorService fetchExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final OffsetCommitter offsetCommitter;
+    // fetched but not requested yet, only used by the fetching thread
+    private final ArrayDeque<ReceivedRecord> undelivered = new ArrayDeque<>();
+
+    // guarded by this
+    private long demand;
+    private boolean cancelled;
+    private Throwable invalidRequest;
+
+    private RecordSubscription(Flow.Subscriber<? super AckableRecord<T>> subscriber) {
+      this.subscriber = subscriber;
+      this.fetchExecutor =
+          Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("subscription-publisher-%d")
+                  .setDaemon(true)
+                  .build());
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("subscription-publisher-scheduler-%d")
+                  .setDaemon(true)
+                  .build());
+      this.offsetCommitter =
+          OffsetCommitter.cumulative(
+              grpcStub,
+              grpcBlockingStub,
+              subscriptionId,
+              commitIntervalMs,
+              commitAckCount,
+              scheduler);
+    }
+
+    private void start() {
+      subscriber.onSubscribe(this);
+      fetchExecutor.execute(this::run);
+    }
+
+    @Override
+    public void request(long n) {
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        if (n <= 0) {
+          // signalled by the fetching thread, so it can not overlap with a record
+          invalidRequest = new IllegalArgumentException("request must be positive, but got " + n);
+          cancelled = true;
+        } else {
+          demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        notifyAll();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        cancelled = true;
+        notifyAll();
+      }
+    }
+
+    private void run() {
+      Throwable error = null;
+      try {
+        grpcBlockingStub.subscribe(
+            SubscribeRequest.newBuilder().setSubscriptionId(subscriptionId).build());
+        ConsumerHeartbeatRequest heartbeatRequest =
+            ConsumerHeartbeatRequest.newBuilder().setSubscriptionId(subscriptionId).build();
+        scheduler.scheduleAtFixedRate(
+            () -> grpcStub.sendConsumerHeartbeat(heartbeatRequest, new HeartbeatObserver()),
+            0,
+            heartbeatIntervalMs,
+            TimeUnit.MILLISECONDS);
+        fetchAndDeliver();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        logger.error("subscription {} publisher error: {}", subscriptionId, e);
+        error = e;
+      }
+
+      scheduler.shutdownNow();
+      try {
+        offsetCommitter.commitSync();
+      } catch (HStreamDBClientException e) {
+        logger.error("subscription {} publisher final commit error: {}", subscriptionId, e);
+      }
+      fetchExecutor.shutdown();
+
+      Throwable invalidRequest;
+      boolean cancelled;
+      synchronized (this) {
+        invalidRequest = this.invalidRequest;
+        cancelled = this.cancelled;
+      }
+      if (invalidRequest != null) {
+        subscriber.onError(invalidRequest);
+      } else if (error != null && !cancelled) {
+        subscriber.onError(
+            error instanceof HStreamDBClientException
+                ? error
+                : new HStreamDBClientException.ConsumerException("fetch error", error));
+      }
+    }
+
+    private void fetchAndDeliver() throws InterruptedException {
+      while (true) {
+        int maxSize;
+        synchronized (this) {
+          while (demand == 0 && !cancelled) {
+            wait();
+          }
+          if (cancelled) {
+            return;
+          }
+          // never fetch more than requested, records not requested yet stay with the server
+          maxSize = (int) Math.min(demand, maxPollRecords);
+        }
+
+        if (undelivered.isEmpty()) {
+          FetchResponse fetchResponse =
+              grpcBlockingStub.fetch(
+                  FetchRequest.newBuilder()
+                      .setSubscriptionId(subscriptionId)
+                      .setTimeout(pollTimeoutMs)
+                      .setMaxSize(maxSize)
+                      .build());
+          undelivered.addAll(fetchResponse.getReceivedRecordsList());
+        }
+        while (!undelivered.isEmpty()) {
+          synchronized (this) {
+            if (cancelled) {
+              return;
+            }
+            // the server may return more than the fetch asked for, keep the rest for later demand
+            if (demand == 0) {
+              break;
+            }
+            if (demand != Long.MAX_VALUE) {
+              demand--;
+            }
+          }
+          ReceivedRecord receivedRecord = undelivered.poll();
+          AckableRecord<T> record =
+              new AckableRecord<>(
+                  decoder.apply(receivedRecord),
+                  offsetCommitter.track(receivedRecord.getRecordId()));
+          try {
+            subscriber.onNext(record);
+          } catch (RuntimeException e) {
+            // a subscriber must not throw, treat it as cancelled
+            logger.error("subscriber of subscription {} error: {}", subscriptionId, e);
+            cancel();
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  private final class HeartbeatObserver implements StreamObserver<ConsumerHeartbeatResponse> {
+    @Override
+    public void onNext(ConsumerHeartbeatResponse response) {}
+
+    @Override
+    public void onError(Throwable t) {
+      logger.error("subscription {} publisher send heartbeat error: {}", subscriptionId, t);
+    }
+
+    @Override
+    public void onCompleted() {}
+  }
+}
@@ -0,0 +1,248 @@
+package io.hstream.impl;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.hstream.AppendRequest;
+import io.hstream.AppendResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import io.hstream.RecordId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends batches with unary {@code Append} calls, each bounded by a deadline. A batch whose call
+ * fails with {@code UNAVAILABLE}, {@code DEADLINE_EXCEEDED} or {@code RESOURCE_EXHAUSTED} is sent
+ * again after an exponential backoff with full jitter, up to {@code maxRetries} times. With
+ * hedging, a batch that has not been appended within a percentile of the recent append latencies is
+ * sent once more at the same time, the first response wins and the other call is cancelled. A
+ * retried or hedged batch may be stored twice if the earlier call reached the server.
+ */
+final class UnaryAppender {
+
+  private static final Logger logger = LoggerFactory.getLogger(UnaryAppender.class);
+
+  private static final int latencyWindowSize = 1024;
+
+  private final HStreamApiGrpc.HStreamApiStub grpcStub;
+  private final String streamName;
+  private final long requestTimeoutMs;
+  private final int maxRetries;
+  private final long retryBackoffMs;
+  private final long maxRetryBackoffMs;
+  // null without hedging
+  private final LatencyTracker latencyTracker;
+  // null without retries and hedging
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * @param requestTimeoutMs the deadline of every call, 0 for none
+   * @param maxRetries the max number of times a batch is sent again
+   * @param retryBackoffMs the backoff before the first retry, doubled for every further one
+   * @param maxRetryBackoffMs the max backoff
+   * @param hedgePercentile the percentile of recent latencies to hedge after, 0 for no hedging
+   * @param scheduler runs backoffs and hedges, may be null without retries and hedging
+   */
+  UnaryAppender(
+      HStreamApiGrpc.HStreamApiStub grpcStub,
+      String streamName,
+      long requestTimeoutMs,
+      int maxRetries,
+      long retryBackoffMs,
+      long maxRetryBackoffMs,
+      double hedgePercentile,
+      ScheduledExecutorService scheduler) {
+    this.grpcStub = grpcStub;
+    this.streamName = streamName;
+    this.requestTimeoutMs = requestTimeoutMs;
+    this.maxRetries = maxRetries;
+    this.retryBackoffMs = retryBackoffMs;
+    this.maxRetryBackoffMs = maxRetryBackoffMs;
+    this.latencyTracker =
+        hedgePercentile > 0 ? new LatencyTracker(latencyWindowSize, hedgePercentile) : null;
+    this.scheduler = scheduler;
+  }
+
+  CompletableFuture<List<RecordId>> append(List<HStreamRecord> records) {
+    AppendRequest request =
+        AppendRequest.newBuilder().setStreamName(streamName).addAllRecords(records).build();
+    CompletableFuture<List<RecordId>> result = new CompletableFuture<>();
+    new Attempt(request, result, 0).start();
+    return result;
+  }
+
+  private static boolean isRetryable(Throwable t) {
+    switch (Status.fromThrowable(t).getCode()) {
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private long backoffMs(int retry) {
+    long cap = Math.min(maxRetryBackoffMs, retryBackoffMs << Math.min(retry, 30));
+    return ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  /** One attempt to append a batch, with its hedged call if there is one. */
+  private final class Attempt {
+
+    private final AppendRequest request;
+    private final CompletableFuture<List<RecordId>> result;
+    private final int retry;
+
+    // guarded by this
+    private final List<Context.CancellableContext> calls = new ArrayList<>();
+    private int failedCalls;
+    private boolean done;
+    private ScheduledFuture<?> hedgeTimer;
+
+    private Attempt(AppendRequest request, CompletableFuture<List<RecordId>> result, int retry) {
+      this.request = request;
+      this.result = result;
+      this.retry = retry;
+    }
+
+    private void start() {
+      send();
+      long hedgeDelayNanos = latencyTracker != null ? latencyTracker.percentileNanos() : -1;
+      if (hedgeDelayNanos >= 0) {
+        synchronized (this) {
+          if (!done) {
+            try {
+              hedgeTimer = scheduler.schedule(this::hedge, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+              // the client is closed, go without the hedge
+            }
+          }
+        }
+      }
+    }
+
+    private void hedge() {
+      logger.info("append to stream {} is slow, send it again", streamName);
+      send();
+    }
+
+    private void send() {
+      // forked, since a batch is often sent from the callback of an earlier call whose context is
+      // cancelled once that call's attempt is done
+      Context.CancellableContext context = Context.current().fork().withCancellation();
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        calls.add(context);
+      }
+      long startNanos = System.nanoTime();
+      HStreamApiGrpc.HStreamApiStub stub =
+          requestTimeoutMs > 0
+              ? grpcStub.withDeadlineAfter(requestTimeoutMs, TimeUnit.MILLISECONDS)
+              : grpcStub;
+      context.run(
+          () ->
+              stub.append(
+                  request,
+                  new StreamObserver<>() {
+                    @Override
+                    public void onNext(AppendResponse appendResponse) {
+                      if (appendResponse.getRecordIdsCount() != request.getRecordsCount()) {
+                        onFailure(
+                            new HStreamDBClientException(
+                                String.format(
+                                    "expect %d record ids in append response, but got %d",
+                                    request.getRecordsCount(),
+                                    appendResponse.getRecordIdsCount())));
+                        return;
+                      }
+                      onSuccess(appendResponse.getRecordIdsList(), System.nanoTime() - startNanos);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                      onFailure(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {}
+                  }));
+    }
+
+    private void onSuccess(List<RecordId> recordIds, long latencyNanos) {
+      if (latencyTracker != null) {
+        latencyTracker.record(latencyNanos);
+      }
+      if (!finish()) {
+        return;
+      }
+      result.complete(recordIds);
+    }
+
+    private void onFailure(Throwable t) {
+      synchronized (this) {
+        // wait for the other call if it is still running
+        if (done || ++failedCalls < calls.size()) {
+          return;
+        }
+      }
+      if (!finish()) {
+        return;
+      }
+
+      if (retry < maxRetries && isRetryable(t)) {
+        long backoffMs = backoffMs(retry);
+        logger.warn(
+            "append to stream {} error, retry {} in {} ms: {}",
+            streamName,
+            retry + 1,
+            backoffMs,
+            t.toString());
+        try {
+          scheduler.schedule(
+              () -> new Attempt(request, result, retry + 1).start(),
+              backoffMs,
+              TimeUnit.MILLISECONDS);
+          return;
+        } catch (RejectedExecutionException e) {
+          // the client is closed, fail with the error of the last call
+        }
+      }
+      result.completeExceptionally(
+          t instanceof HStreamDBClientException ? t : new HStreamDBClientException(t));
+    }
+
+    /**
+     * @return whether this call finished the attempt, which cancels the others
+     */
+    private boolean finish() {
+      List<Context.CancellableContext> finishedCalls;
+      synchronized (this) {
+        if (done) {
+          return false;
+        }
+        done = true;
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        finishedCalls = new ArrayList<>(calls);
+      }
+      for (Context.CancellableContext call : finishedCalls) {
+        call.cancel(null);
+      }
+      return true;
+    }
+  }
+}
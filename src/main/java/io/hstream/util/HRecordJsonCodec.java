@@ -0,0 +1,631 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes and decodes the JSON payload of {@link io.hstream.HRecord}s straight between {@link
+ * Struct}s and UTF-8 bytes, without the intermediate {@link String}s of {@code JsonFormat}. The
+ * output is byte for byte what {@code JsonFormat.printer().omittingInsignificantWhitespace()}
+ * prints, and any JSON accepted by {@code JsonFormat.parser()} for a {@link Struct} is accepted.
+ */
+public final class HRecordJsonCodec {
+
+  private static final int MAX_DEPTH = 100;
+
+  // buffers that grew past this size for an unusually large record are not kept for reuse
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+  private static final byte[][] asciiEscapes = new byte[128][];
+
+  static {
+    for (int c = 0; c < 0x20; ++c) {
+      asciiEscapes[c] = String.format("\\u%04x", c).getBytes();
+    }
+    asciiEscapes['\b'] = "\\b".getBytes();
+    asciiEscapes['\t'] = "\\t".getBytes();
+    asciiEscapes['\n'] = "\\n".getBytes();
+    asciiEscapes['\f'] = "\\f".getBytes();
+    asciiEscapes['\r'] = "\\r".getBytes();
+    asciiEscapes['"'] = "\\\"".getBytes();
+    asciiEscapes['\\'] = "\\\\".getBytes();
+    // JsonFormat escapes these too, to keep the output safe to embed in html
+    asciiEscapes['<'] = "\\u003c".getBytes();
+    asciiEscapes['>'] = "\\u003e".getBytes();
+    asciiEscapes['&'] = "\\u0026".getBytes();
+    asciiEscapes['='] = "\\u003d".getBytes();
+    asciiEscapes['\''] = "\\u0027".getBytes();
+  }
+
+  private HRecordJsonCodec() {}
+
+  public static ByteString encode(Struct struct) {
+    Encoder encoder = encoders.get();
+    try {
+      encoder.writeStruct(struct);
+      return ByteString.copyFrom(encoder.buffer, 0, encoder.position);
+    } finally {
+      encoder.reset();
+    }
+  }
+
+  /** Encode the properties of a mapped object as a JSON object, as if it were a {@link Struct}. */
+  static <T> ByteString encode(T object, HRecordMapper<T> mapper) {
+    Encoder encoder = encoders.get();
+    try {
+      encoder.writeObject(object, mapper);
+      return ByteString.copyFrom(encoder.buffer, 0, encoder.position);
+    } finally {
+      encoder.reset();
+    }
+  }
+
+  public static Struct decode(ByteString payload) throws InvalidProtocolBufferException {
+    return new Decoder(payload.asReadOnlyByteBuffer()).decodeStruct();
+  }
+
+  /**
+   * Finds the top level fields of a JSON payload on demand. The keys are scanned once, on the first
+   * lookup, and values are skipped without being decoded until they are requested. Like {@link
+   * #decode(ByteString)}, the last of duplicate keys wins.
+   */
+  static final class FieldIndex {
+
+    private final ByteBuffer input;
+    private final Decoder scanner;
+    // offset of the value of every field scanned so far
+    private final Map<String, Integer> valueOffsets = new HashMap<>();
+    private boolean started;
+    private boolean finished;
+
+    FieldIndex(ByteString payload) {
+      this.input = payload.asReadOnlyByteBuffer();
+      this.scanner = new Decoder(input);
+    }
+
+    /**
+     * @return the value of the field, or null if the record has no field with the name
+     */
+    Value find(String name) throws InvalidProtocolBufferException {
+      scanKeys();
+      Integer offset = valueOffsets.get(name);
+      if (offset == null) {
+        return null;
+      }
+      Decoder decoder = new Decoder(input);
+      decoder.position = offset;
+      return decoder.readValue();
+    }
+
+    private void scanKeys() throws InvalidProtocolBufferException {
+      if (!started) {
+        started = true;
+        scanner.skipWhitespace();
+        scanner.expect('{');
+        scanner.skipWhitespace();
+        if (scanner.peek() == '}') {
+          finished = true;
+        }
+      }
+      while (!finished) {
+        scanner.skipWhitespace();
+        String key = scanner.readString();
+        scanner.skipWhitespace();
+        scanner.expect(':');
+        scanner.skipWhitespace();
+        valueOffsets.put(key, scanner.position);
+        scanner.skipValue();
+        scanner.skipWhitespace();
+        if (scanner.next() == '}') {
+          finished = true;
+        } else {
+          scanner.position--;
+          scanner.expect(',');
+        }
+      }
+    }
+  }
+
+  private static final class Encoder {
+
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    private void reset() {
+      position = 0;
+      if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+        buffer = new byte[256];
+      }
+    }
+
+    private void ensureCapacity(int size) {
+      if (position + size > buffer.length) {
+        byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + size)];
+        System.arraycopy(buffer, 0, newBuffer, 0, position);
+        buffer = newBuffer;
+      }
+    }
+
+    private void writeByte(int b) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) b;
+    }
+
+    private void writeAscii(String s) {
+      ensureCapacity(s.length());
+      for (int i = 0; i < s.length(); ++i) {
+        buffer[position++] = (byte) s.charAt(i);
+      }
+    }
+
+    private void writeStruct(Struct struct) {
+      writeByte('{');
+      boolean first = true;
+      for (Map.Entry<String, Value> field : struct.getFieldsMap().entrySet()) {
+        if (!first) {
+          writeByte(',');
+        }
+        first = false;
+        writeString(field.getKey());
+        writeByte(':');
+        writeValue(field.getValue());
+      }
+      writeByte('}');
+    }
+
+    private <T> void writeObject(T object, HRecordMapper<T> mapper) {
+      writeByte('{');
+      boolean first = true;
+      for (int i = 0; i < mapper.getPropertyCount(); ++i) {
+        Object value = mapper.getPropertyValue(object, i);
+        if (value == null) {
+          continue;
+        }
+        if (!first) {
+          writeByte(',');
+        }
+        first = false;
+        writeString(mapper.getPropertyName(i));
+        writeByte(':');
+        if (value instanceof Number) {
+          // numbers are doubles in a Struct, so print them the same way
+          writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+          writeAscii((Boolean) value ? "true" : "false");
+        } else {
+          writeString((String) value);
+        }
+      }
+      writeByte('}');
+    }
+
+    private void writeList(ListValue listValue) {
+      writeByte('[');
+      for (int i = 0; i < listValue.getValuesCount(); ++i) {
+        if (i > 0) {
+          writeByte(',');
+        }
+        writeValue(listValue.getValues(i));
+      }
+      writeByte(']');
+    }
+
+    private void writeValue(Value value) {
+      switch (value.getKindCase()) {
+        case NUMBER_VALUE:
+          writeNumber(value.getNumberValue());
+          break;
+        case STRING_VALUE:
+          writeString(value.getStringValue());
+          break;
+        case BOOL_VALUE:
+          writeAscii(value.getBoolValue() ? "true" : "false");
+          break;
+        case STRUCT_VALUE:
+          writeStruct(value.getStructValue());
+          break;
+        case LIST_VALUE:
+          writeList(value.getListValue());
+          break;
+        default:
+          writeAscii("null");
+      }
+    }
+
+    private void writeNumber(double number) {
+      if (Double.isNaN(number)) {
+        writeAscii("\"NaN\"");
+      } else if (Double.isInfinite(number)) {
+        writeAscii(number > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+      } else {
+        writeAscii(Double.toString(number));
+      }
+    }
+
+    private void writeString(String s) {
+      // worst case is a six byte escape for every char
+      ensureCapacity(s.length() * 6 + 2);
+      byte[] buf = buffer;
+      int pos = position;
+      buf[pos++] = '"';
+      for (int i = 0; i < s.length(); ++i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          byte[] escape = asciiEscapes[c];
+          if (escape == null) {
+            buf[pos++] = (byte) c;
+          } else {
+            System.arraycopy(escape, 0, buf, pos, escape.length);
+            pos += escape.length;
+          }
+        } else if (c < 0x800) {
+          buf[pos++] = (byte) (0xc0 | (c >> 6));
+          buf[pos++] = (byte) (0x80 | (c & 0x3f));
+        } else if (c == '\u2028' || c == '\u2029') {
+          buf[pos++] = '\\';
+          buf[pos++] = 'u';
+          buf[pos++] = '2';
+          buf[pos++] = '0';
+          buf[pos++] = '2';
+          buf[pos++] = c == '\u2028' ? (byte) '8' : (byte) '9';
+        } else if (Character.isSurrogate(c)) {
+          if (Character.isHighSurrogate(c)
+              && i + 1 < s.length()
+              && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, s.charAt(++i));
+            buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+          } else {
+            // unpaired surrogate, replaced the same way String.getBytes(UTF_8) does
+            buf[pos++] = '?';
+          }
+        } else {
+          buf[pos++] = (byte) (0xe0 | (c >> 12));
+          buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buf[pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      buf[pos++] = '"';
+      position = pos;
+    }
+  }
+
+  private static final class Decoder {
+
+    private final ByteBuffer input;
+    private final int limit;
+    private int position;
+    private int depth;
+    private char[] chars = new char[64];
+
+    private Decoder(ByteBuffer input) {
+      this.input = input;
+      this.position = input.position();
+      this.limit = input.limit();
+    }
+
+    private Struct decodeStruct() throws InvalidProtocolBufferException {
+      skipWhitespace();
+      Struct struct = readStruct();
+      skipWhitespace();
+      if (position != limit) {
+        throw error("unexpected trailing content");
+      }
+      return struct;
+    }
+
+    private InvalidProtocolBufferException error(String message) {
+      return new InvalidProtocolBufferException(
+          "invalid hrecord json at offset " + position + ": " + message);
+    }
+
+    private int peek() throws InvalidProtocolBufferException {
+      if (position >= limit) {
+        throw error("unexpected end of input");
+      }
+      return input.get(position) & 0xff;
+    }
+
+    private int next() throws InvalidProtocolBufferException {
+      int b = peek();
+      position++;
+      return b;
+    }
+
+    private void expect(int expected) throws InvalidProtocolBufferException {
+      if (next() != expected) {
+        position--;
+        throw error("expect '" + (char) expected + "'");
+      }
+    }
+
+    private void expectLiteral(String literal) throws InvalidProtocolBufferException {
+      for (int i = 0; i < literal.length(); ++i) {
+        expect(literal.charAt(i));
+      }
+    }
+
+    private void skipWhitespace() {
+      while (position < limit) {
+        byte b = input.get(position);
+        if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+          return;
+        }
+        position++;
+      }
+    }
+
+    private Struct readStruct() throws InvalidProtocolBufferException {
+      if (++depth > MAX_DEPTH) {
+        throw error("hrecord nested too deep");
+      }
+      expect('{');
+      Struct.Builder builder = Struct.newBuilder();
+      skipWhitespace();
+      if (peek() == '}') {
+        position++;
+      } else {
+        while (true) {
+          skipWhitespace();
+          String key = readString();
+          skipWhitespace();
+          expect(':');
+          builder.putFields(key, readValue());
+          skipWhitespace();
+          if (next() == '}') {
+            break;
+          }
+          position--;
+          expect(',');
+        }
+      }
+      depth--;
+      return builder.build();
+    }
+
+    private ListValue readList() throws InvalidProtocolBufferException {
+      if (++depth > MAX_DEPTH) {
+        throw error("hrecord nested too deep");
+      }
+      expect('[');
+      ListValue.Builder builder = ListValue.newBuilder();
+      skipWhitespace();
+      if (peek() == ']') {
+        position++;
+      } else {
+        while (true) {
+          builder.addValues(readValue());
+          skipWhitespace();
+          if (next() == ']') {
+            break;
+          }
+          position--;
+          expect(',');
+        }
+      }
+      depth--;
+      return builder.build();
+    }
+
+    private Value readValue() throws InvalidProtocolBufferException {
+      skipWhitespace();
+      switch (peek()) {
+        case '{':
+          return Value.newBuilder().setStructValue(readStruct()).build();
+        case '[':
+          return Value.newBuilder().setListValue(readList()).build();
+        case '"':
+          return Value.newBuilder().setStringValue(readString()).build();
+        case 't':
+          expectLiteral("true");
+          return Value.newBuilder().setBoolValue(true).build();
+        case 'f':
+          expectLiteral("false");
+          return Value.newBuilder().setBoolValue(false).build();
+        case 'n':
+          expectLiteral("null");
+          return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+        default:
+          return Value.newBuilder().setNumberValue(readNumber()).build();
+      }
+    }
+
+    /** Moves past a value without decoding it, the value is validated once it is decoded. */
+    private void skipValue() throws InvalidProtocolBufferException {
+      int first = peek();
+      if (first != '{' && first != '[' && first != '"') {
+        while (position < limit && !isValueEnd(input.get(position))) {
+          position++;
+        }
+        return;
+      }
+      int nesting = 0;
+      do {
+        switch (next()) {
+          case '{':
+          case '[':
+            nesting++;
+            break;
+          case '}':
+          case ']':
+            nesting--;
+            break;
+          case '"':
+            skipStringBody();
+            break;
+          default:
+            break;
+        }
+      } while (nesting > 0);
+    }
+
+    private void skipStringBody() throws InvalidProtocolBufferException {
+      int b;
+      while ((b = next()) != '"') {
+        if (b == '\\') {
+          next();
+        }
+      }
+    }
+
+    private static boolean isValueEnd(byte b) {
+      return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private double readNumber() throws InvalidProtocolBufferException {
+      int start = position;
+      boolean negative = false;
+      if (position < limit && input.get(position) == '-') {
+        negative = true;
+        position++;
+      }
+      // fast path for integers that a double represents exactly
+      long integer = 0;
+      int digits = 0;
+      while (position < limit) {
+        byte b = input.get(position);
+        if (b < '0' || b > '9') {
+          break;
+        }
+        integer = integer * 10 + (b - '0');
+        digits++;
+        position++;
+      }
+      if (digits == 0) {
+        throw error("expect a json value");
+      }
+      if (position >= limit || !isNumberChar(input.get(position))) {
+        if (digits <= 15) {
+          // negate as a double, so "-0" is -0.0 like JsonFormat decodes it
+          return negative ? -(double) integer : integer;
+        }
+      }
+
+      while (position < limit && isNumberChar(input.get(position))) {
+        position++;
+      }
+      char[] number = new char[position - start];
+      for (int i = 0; i < number.length; ++i) {
+        number[i] = (char) input.get(start + i);
+      }
+      try {
+        return Double.parseDouble(new String(number));
+      } catch (NumberFormatException e) {
+        position = start;
+        throw error("invalid number");
+      }
+    }
+
+    private static boolean isNumberChar(byte b) {
+      return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '-' || b == '+';
+    }
+
+    private void appendChar(int length, char c) {
+      if (length == chars.length) {
+        char[] newChars = new char[chars.length * 2];
+        System.arraycopy(chars, 0, newChars, 0, length);
+        chars = newChars;
+      }
+      chars[length] = c;
+    }
+
+    private String readString() throws InvalidProtocolBufferException {
+      expect('"');
+      int length = 0;
+      while (true) {
+        int b = next();
+        if (b == '"') {
+          return new String(chars, 0, length);
+        } else if (b == '\\') {
+          appendChar(length++, readEscape());
+        } else if (b < 0x80) {
+          if (b < 0x20) {
+            position--;
+            throw error("unescaped control character in string");
+          }
+          appendChar(length++, (char) b);
+        } else {
+          int codePoint = readUtf8(b);
+          if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            appendChar(length++, Character.highSurrogate(codePoint));
+            appendChar(length++, Character.lowSurrogate(codePoint));
+          } else {
+            appendChar(length++, (char) codePoint);
+          }
+        }
+      }
+    }
+
+    private char readEscape() throws InvalidProtocolBufferException {
+      int b = next();
+      switch (b) {
+        case '"':
+          return '"';
+        case '\\':
+          return '\\';
+        case '/':
+          return '/';
+        case 'b':
+          return '\b';
+        case 'f':
+          return '\f';
+        case 'n':
+          return '\n';
+        case 'r':
+          return '\r';
+        case 't':
+          return '\t';
+        case 'u':
+          int c = 0;
+          for (int i = 0; i < 4; ++i) {
+            int digit = Character.digit(next(), 16);
+            if (digit < 0) {
+              position--;
+              throw error("invalid unicode escape");
+            }
+            c = (c << 4) | digit;
+          }
+          return (char) c;
+        default:
+          position--;
+          throw error("invalid escape");
+      }
+    }
+
+    /** Decodes a multi-byte sequence, malformed input decodes to U+FFFD like String does. */
+    private int readUtf8(int first) {
+      int extraBytes;
+      int codePoint;
+      if ((first & 0xe0) == 0xc0) {
+        extraBytes = 1;
+        codePoint = first & 0x1f;
+      } else if ((first & 0xf0) == 0xe0) {
+        extraBytes = 2;
+        codePoint = first & 0x0f;
+      } else if ((first & 0xf8) == 0xf0) {
+        extraBytes = 3;
+        codePoint = first & 0x07;
+      } else {
+        return 0xfffd;
+      }
+      for (int i = 0; i < extraBytes; ++i) {
+        if (position >= limit || (input.get(position) & 0xc0) != 0x80) {
+          return 0xfffd;
+        }
+        codePoint = (codePoint << 6) | (input.get(position++) & 0x3f);
+      }
+      return codePoint;
+    }
+  }
+}
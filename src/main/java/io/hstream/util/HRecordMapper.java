@@ -0,0 +1,357 @@
+package io.hstream.util;
+
+import io.hstream.HRecord;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps objects of a class to and from {@link HRecord}s. The properties of the class are inspected
+ * once, the first time {@link #of(Class)} is called for it, and read and written afterwards through
+ * cached {@link MethodHandle}s.
+ *
+ * <p>Java records are mapped by their components and canonical constructor, other classes as beans
+ * by their public getters and setters and public no-arg constructor. Properties may be {@code int},
+ * {@code long}, {@code float}, {@code double}, {@code boolean}, their boxed types, or {@link
+ * String}. Null properties are left out of the record, fields missing from a record are left null,
+ * or zero for primitives.
+ */
+public final class HRecordMapper<T> {
+
+  private enum Kind {
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    BOOLEAN,
+    STRING
+  }
+
+  private static final Map<Class<?>, Kind> kinds = new HashMap<>();
+
+  static {
+    kinds.put(int.class, Kind.INT);
+    kinds.put(Integer.class, Kind.INT);
+    kinds.put(long.class, Kind.LONG);
+    kinds.put(Long.class, Kind.LONG);
+    kinds.put(float.class, Kind.FLOAT);
+    kinds.put(Float.class, Kind.FLOAT);
+    kinds.put(double.class, Kind.DOUBLE);
+    kinds.put(Double.class, Kind.DOUBLE);
+    kinds.put(boolean.class, Kind.BOOLEAN);
+    kinds.put(Boolean.class, Kind.BOOLEAN);
+    kinds.put(String.class, Kind.STRING);
+  }
+
+  private static final ClassValue<HRecordMapper<?>> mappers =
+      new ClassValue<>() {
+        @Override
+        protected HRecordMapper<?> computeValue(Class<?> type) {
+          return new HRecordMapper<>(type);
+        }
+      };
+
+  private final Class<T> type;
+  private final String[] names;
+  private final Kind[] propertyKinds;
+  private final Class<?>[] propertyTypes;
+  private final Map<String, Integer> indexes = new HashMap<>();
+  // (Object) -> Object
+  private final MethodHandle[] getters;
+  // records: (Object[]) -> Object, beans: () -> Object
+  private final MethodHandle constructor;
+  // (Object, Object) -> void, null for records
+  private final MethodHandle[] setters;
+
+  /**
+   * @return the mapper of the class, created on first use and shared afterwards
+   * @throws IllegalArgumentException if the class can not be mapped
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> HRecordMapper<T> of(Class<T> type) {
+    return (HRecordMapper<T>) mappers.get(type);
+  }
+
+  private HRecordMapper(Class<T> type) {
+    this.type = type;
+    List<String> names = new ArrayList<>();
+    List<Class<?>> types = new ArrayList<>();
+    List<Method> getterMethods = new ArrayList<>();
+    List<Method> setterMethods = new ArrayList<>();
+
+    try {
+      Object[] components = RecordReflection.getRecordComponents(type);
+      if (components != null) {
+        for (Object component : components) {
+          names.add(RecordReflection.getName(component));
+          types.add(RecordReflection.getType(component));
+          getterMethods.add(RecordReflection.getAccessor(component));
+        }
+        Constructor<T> canonical = type.getDeclaredConstructor(types.toArray(new Class<?>[0]));
+        canonical.setAccessible(true);
+        this.constructor =
+            MethodHandles.lookup()
+                .unreflectConstructor(canonical)
+                .asSpreader(Object[].class, types.size())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        this.setters = null;
+      } else {
+        findBeanProperties(type, names, types, getterMethods, setterMethods);
+        Constructor<T> noArg = type.getDeclaredConstructor();
+        noArg.setAccessible(true);
+        this.constructor =
+            MethodHandles.lookup()
+                .unreflectConstructor(noArg)
+                .asType(MethodType.methodType(Object.class));
+        this.setters = new MethodHandle[names.size()];
+        for (int i = 0; i < setters.length; ++i) {
+          setters[i] = adapt(setterMethods.get(i), void.class, Object.class, Object.class);
+        }
+      }
+
+      this.getters = new MethodHandle[names.size()];
+      for (int i = 0; i < getters.length; ++i) {
+        getters[i] = adapt(getterMethods.get(i), Object.class, Object.class);
+      }
+    } catch (ReflectiveOperationException | SecurityException e) {
+      throw new IllegalArgumentException("can not map " + type.getName() + " to hrecord", e);
+    }
+
+    if (names.isEmpty()) {
+      throw new IllegalArgumentException(type.getName() + " has no properties to map to hrecord");
+    }
+    this.names = names.toArray(new String[0]);
+    this.propertyTypes = types.toArray(new Class<?>[0]);
+    this.propertyKinds = new Kind[this.names.length];
+    for (int i = 0; i < this.names.length; ++i) {
+      Kind kind = kinds.get(propertyTypes[i]);
+      if (kind == null) {
+        throw new IllegalArgumentException(
+            String.format(
+                "property %s of %s has unsupported type %s",
+                this.names[i], type.getName(), propertyTypes[i].getName()));
+      }
+      propertyKinds[i] = kind;
+      indexes.put(this.names[i], i);
+    }
+  }
+
+  private static void findBeanProperties(
+      Class<?> type,
+      List<String> names,
+      List<Class<?>> types,
+      List<Method> getterMethods,
+      List<Method> setterMethods) {
+    // ordered by name, since the order of getMethods() is unspecified
+    Map<String, Method> getters = new TreeMap<>();
+    for (Method method : type.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers())
+          || method.getParameterCount() != 0
+          || method.getDeclaringClass() == Object.class) {
+        continue;
+      }
+      String name = method.getName();
+      if (name.startsWith("get") && name.length() > 3) {
+        getters.put(decapitalize(name.substring(3)), method);
+      } else if (name.startsWith("is")
+          && name.length() > 2
+          && method.getReturnType() == boolean.class) {
+        getters.put(decapitalize(name.substring(2)), method);
+      }
+    }
+
+    for (Map.Entry<String, Method> getter : getters.entrySet()) {
+      Class<?> propertyType = getter.getValue().getReturnType();
+      String setterName =
+          "set" + Character.toUpperCase(getter.getKey().charAt(0)) + getter.getKey().substring(1);
+      try {
+        Method setter = type.getMethod(setterName, propertyType);
+        names.add(getter.getKey());
+        types.add(propertyType);
+        getterMethods.add(getter.getValue());
+        setterMethods.add(setter);
+      } catch (NoSuchMethodException e) {
+        // read-only properties are not mapped
+      }
+    }
+  }
+
+  private static String decapitalize(String name) {
+    if (name.length() > 1 && Character.isUpperCase(name.charAt(1))) {
+      return name;
+    }
+    return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+  }
+
+  private static MethodHandle adapt(Method method, Class<?> returnType, Class<?>... parameterTypes)
+      throws IllegalAccessException {
+    // the declaring class may not be public, e.g. a record nested in application code
+    method.setAccessible(true);
+    return MethodHandles.lookup()
+        .unreflect(method)
+        .asType(MethodType.methodType(returnType, parameterTypes));
+  }
+
+  public Class<T> getType() {
+    return type;
+  }
+
+  /**
+   * @return a {@link HRecord} view of the object, its properties are read when the record is
+   *     encoded, without building an intermediate {@code Struct} for the JSON and schema formats
+   */
+  public HRecord toHRecord(T object) {
+    return new MappedHRecord<>(this, object);
+  }
+
+  /** Create an object from the fields of the record, reading only the mapped fields. */
+  public T fromHRecord(HRecord hRecord) {
+    Object[] values = new Object[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      if (hRecord.contains(names[i])) {
+        values[i] = readField(hRecord, i);
+      } else if (propertyTypes[i].isPrimitive()) {
+        values[i] = defaultValue(propertyKinds[i]);
+      }
+    }
+
+    try {
+      if (setters == null) {
+        return type.cast(constructor.invokeExact(values));
+      }
+      Object object = constructor.invokeExact();
+      for (int i = 0; i < names.length; ++i) {
+        if (values[i] != null) {
+          setters[i].invokeExact(object, values[i]);
+        }
+      }
+      return type.cast(object);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException("create " + type.getName() + " from hrecord error", t);
+    }
+  }
+
+  private Object readField(HRecord hRecord, int index) {
+    switch (propertyKinds[index]) {
+      case INT:
+        return hRecord.getInt(names[index]);
+      case LONG:
+        return hRecord.getLong(names[index]);
+      case FLOAT:
+        return (float) hRecord.getDouble(names[index]);
+      case DOUBLE:
+        return hRecord.getDouble(names[index]);
+      case BOOLEAN:
+        return hRecord.getBoolean(names[index]);
+      default:
+        return hRecord.getString(names[index]);
+    }
+  }
+
+  private static Object defaultValue(Kind kind) {
+    switch (kind) {
+      case INT:
+        return 0;
+      case LONG:
+        return 0L;
+      case FLOAT:
+        return 0f;
+      case DOUBLE:
+        return 0d;
+      default:
+        return false;
+    }
+  }
+
+  int getPropertyCount() {
+    return names.length;
+  }
+
+  String getPropertyName(int index) {
+    return names[index];
+  }
+
+  /**
+   * @return the position of the property, or -1 if there is none with the name
+   */
+  int indexOf(String name) {
+    return indexes.getOrDefault(name, -1);
+  }
+
+  /**
+   * @return the boxed property value, null if it is unset
+   */
+  Object getPropertyValue(T object, int index) {
+    try {
+      return getters[index].invokeExact((Object) object);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException("read property " + names[index] + " error", t);
+    }
+  }
+
+  /**
+   * Java records are only available since Java 16, their components are looked up reflectively so
+   * the client still runs on older runtimes.
+   */
+  private static final class RecordReflection {
+
+    private static final Method isRecord;
+    private static final Method getRecordComponents;
+    private static final Method getName;
+    private static final Method getType;
+    private static final Method getAccessor;
+
+    static {
+      Method[] methods = new Method[5];
+      try {
+        methods[0] = Class.class.getMethod("isRecord");
+        methods[1] = Class.class.getMethod("getRecordComponents");
+        Class<?> recordComponent = Class.forName("java.lang.reflect.RecordComponent");
+        methods[2] = recordComponent.getMethod("getName");
+        methods[3] = recordComponent.getMethod("getType");
+        methods[4] = recordComponent.getMethod("getAccessor");
+      } catch (ReflectiveOperationException e) {
+        methods = new Method[5];
+      }
+      isRecord = methods[0];
+      getRecordComponents = methods[1];
+      getName = methods[2];
+      getType = methods[3];
+      getAccessor = methods[4];
+    }
+
+    /**
+     * @return the record components of the class, null if it is not a record
+     */
+    private static Object[] getRecordComponents(Class<?> type) throws ReflectiveOperationException {
+      if (isRecord == null || !(Boolean) isRecord.invoke(type)) {
+        return null;
+      }
+      return (Object[]) getRecordComponents.invoke(type);
+    }
+
+    private static String getName(Object component) throws ReflectiveOperationException {
+      return (String) getName.invoke(component);
+    }
+
+    private static Class<?> getType(Object component) throws ReflectiveOperationException {
+      return (Class<?>) getType.invoke(component);
+    }
+
+    private static Method getAccessor(Object component) throws ReflectiveOperationException {
+      return (Method) getAccessor.invoke(component);
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Struct;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.Value;
+import io.hstream.HRecord;
+import io.hstream.HRecordSchema;
+import io.hstream.HStreamDBClientException;
+import io.hstream.SchemaHRecord;
+import java.io.IOException;
+
+/**
+ * Encodes {@link HRecord}s positionally by a {@link HRecordSchema}: a bitmap of the fields that are
+ * set, one bit per schema field, followed by the set fields in schema order. Integers are zigzag
+ * varints, doubles are 8 bytes little endian, booleans one byte and strings length prefixed UTF-8.
+ * Field names are not part of the payload, the schema id is carried in the record header instead.
+ */
+public final class HRecordSchemaCodec {
+
+  /** the {@link io.hstream.HStreamRecordHeader} attribute holding {@link HRecordSchema#getId()} */
+  public static final String SCHEMA_ID_ATTRIBUTE = "hrecord-schema-id";
+
+  private HRecordSchemaCodec() {}
+
+  public static ByteString encode(HRecord hRecord, HRecordSchema schema) {
+    Object[] values = toSchemaValues(hRecord, schema);
+    int fieldCount = schema.getFieldCount();
+
+    int size = (fieldCount + 7) / 8;
+    for (int i = 0; i < fieldCount; ++i) {
+      if (values[i] != null) {
+        size += computeSize(schema.getFieldType(i), values[i]);
+      }
+    }
+
+    byte[] payload = new byte[size];
+    for (int i = 0; i < fieldCount; ++i) {
+      if (values[i] != null) {
+        payload[i / 8] |= 1 << (i % 8);
+      }
+    }
+    CodedOutputStream output =
+        CodedOutputStream.newInstance(payload, (fieldCount + 7) / 8, size - (fieldCount + 7) / 8);
+    try {
+      for (int i = 0; i < fieldCount; ++i) {
+        if (values[i] != null) {
+          write(output, schema.getFieldType(i), values[i]);
+        }
+      }
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new IllegalStateException("hrecord payload size is miscalculated", e);
+    }
+    // the array is never touched again, so there is no need for a defensive copy
+    return UnsafeByteOperations.unsafeWrap(payload);
+  }
+
+  public static SchemaHRecord decode(ByteString payload, HRecordSchema schema)
+      throws InvalidProtocolBufferException {
+    int fieldCount = schema.getFieldCount();
+    Object[] values = new Object[fieldCount];
+    try {
+      CodedInputStream input = payload.newCodedInput();
+      byte[] presence = input.readRawBytes((fieldCount + 7) / 8);
+      for (int i = 0; i < fieldCount; ++i) {
+        if ((presence[i / 8] & (1 << (i % 8))) != 0) {
+          values[i] = read(input, schema.getFieldType(i));
+        }
+      }
+      if (!input.isAtEnd()) {
+        throw new InvalidProtocolBufferException(
+            "hrecord payload is longer than schema " + schema.getId());
+      }
+    } catch (InvalidProtocolBufferException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new InvalidProtocolBufferException(e);
+    }
+    return new SchemaHRecord(schema, values);
+  }
+
+  private static Object[] toSchemaValues(HRecord hRecord, HRecordSchema schema) {
+    if (hRecord instanceof SchemaHRecord
+        && ((SchemaHRecord) hRecord).getSchema().getId().equals(schema.getId())) {
+      SchemaHRecord schemaHRecord = (SchemaHRecord) hRecord;
+      Object[] values = new Object[schema.getFieldCount()];
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = schemaHRecord.getValue(i);
+      }
+      return values;
+    }
+
+    if (hRecord instanceof MappedHRecord) {
+      return toSchemaValues((MappedHRecord<?>) hRecord, schema);
+    }
+
+    Struct struct = hRecord.getDelegate();
+    for (String fieldName : struct.getFieldsMap().keySet()) {
+      if (schema.indexOf(fieldName) < 0) {
+        throw new HStreamDBClientException.InvalidRecordException(
+            "schema " + schema.getId() + " has no field " + fieldName);
+      }
+    }
+    Object[] values = new Object[schema.getFieldCount()];
+    for (int i = 0; i < values.length; ++i) {
+      Value value = struct.getFieldsOrDefault(schema.getFieldName(i), null);
+      if (value != null && value.getKindCase() != Value.KindCase.NULL_VALUE) {
+        values[i] = fromValue(schema, i, value);
+      }
+    }
+    return values;
+  }
+
+  private static Object[] toSchemaValues(MappedHRecord<?> hRecord, HRecordSchema schema) {
+    HRecordMapper<?> mapper = hRecord.getMapper();
+    for (int i = 0; i < mapper.getPropertyCount(); ++i) {
+      if (schema.indexOf(mapper.getPropertyName(i)) < 0) {
+        throw new HStreamDBClientException.InvalidRecordException(
+            "schema " + schema.getId() + " has no field " + mapper.getPropertyName(i));
+      }
+    }
+    Object[] values = new Object[schema.getFieldCount()];
+    for (int i = 0; i < values.length; ++i) {
+      Object value = hRecord.getFieldValue(schema.getFieldName(i));
+      if (value != null) {
+        values[i] = fromObject(schema, i, value);
+      }
+    }
+    return values;
+  }
+
+  private static Object fromObject(HRecordSchema schema, int index, Object value) {
+    HRecordSchema.FieldType fieldType = schema.getFieldType(index);
+    switch (fieldType) {
+      case INT32:
+        if (value instanceof Integer
+            || (value instanceof Long
+                && (Long) value >= Integer.MIN_VALUE
+                && (Long) value <= Integer.MAX_VALUE)) {
+          return ((Number) value).intValue();
+        }
+        break;
+      case INT64:
+        if (value instanceof Integer || value instanceof Long) {
+          return ((Number) value).longValue();
+        }
+        break;
+      case DOUBLE:
+        if (value instanceof Number) {
+          return ((Number) value).doubleValue();
+        }
+        break;
+      case BOOL:
+        if (value instanceof Boolean) {
+          return value;
+        }
+        break;
+      case STRING:
+        if (value instanceof String) {
+          return value;
+        }
+        break;
+    }
+    throw new HStreamDBClientException.InvalidRecordException(
+        String.format(
+            "field %s is %s in schema %s, but got %s",
+            schema.getFieldName(index),
+            fieldType,
+            schema.getId(),
+            value.getClass().getSimpleName()));
+  }
+
+  private static Object fromValue(HRecordSchema schema, int index, Value value) {
+    HRecordSchema.FieldType fieldType = schema.getFieldType(index);
+    switch (fieldType) {
+      case INT32:
+        if (isIntegral(value, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+          return (int) value.getNumberValue();
+        }
+        break;
+      case INT64:
+        // 2^63 is the first double above Long.MAX_VALUE
+        if (isIntegral(value, Long.MIN_VALUE, 0x1p63) && value.getNumberValue() < 0x1p63) {
+          return (long) value.getNumberValue();
+        }
+        break;
+      case DOUBLE:
+        if (value.getKindCase() == Value.KindCase.NUMBER_VALUE) {
+          return value.getNumberValue();
+        }
+        break;
+      case BOOL:
+        if (value.getKindCase() == Value.KindCase.BOOL_VALUE) {
+          return value.getBoolValue();
+        }
+        break;
+      case STRING:
+        if (value.getKindCase() == Value.KindCase.STRING_VALUE) {
+          return value.getStringValue();
+        }
+        break;
+    }
+    throw new HStreamDBClientException.InvalidRecordException(
+        String.format(
+            "field %s is %s in schema %s, but got %s",
+            schema.getFieldName(index),
+            fieldType,
+            schema.getId(),
+            value.getKindCase() == Value.KindCase.NUMBER_VALUE
+                ? value.getNumberValue()
+                : value.getKindCase()));
+  }
+
+  /**
+   * @return whether the value is a whole number in [min, max], a cast would silently truncate it
+   *     otherwise
+   */
+  private static boolean isIntegral(Value value, double min, double max) {
+    if (value.getKindCase() != Value.KindCase.NUMBER_VALUE) {
+      return false;
+    }
+    double number = value.getNumberValue();
+    return number == Math.rint(number) && number >= min && number <= max;
+  }
+
+  private static int computeSize(HRecordSchema.FieldType fieldType, Object value) {
+    switch (fieldType) {
+      case INT32:
+        return CodedOutputStream.computeSInt32SizeNoTag((Integer) value);
+      case INT64:
+        return CodedOutputStream.computeSInt64SizeNoTag((Long) value);
+      case DOUBLE:
+        return CodedOutputStream.computeDoubleSizeNoTag((Double) value);
+      case BOOL:
+        return CodedOutputStream.computeBoolSizeNoTag((Boolean) value);
+      default:
+        return CodedOutputStream.computeStringSizeNoTag((String) value);
+    }
+  }
+
+  private static void write(
+      CodedOutputStream output, HRecordSchema.FieldType fieldType, Object value)
+      throws IOException {
+    switch (fieldType) {
+      case INT32:
+        output.writeSInt32NoTag((Integer) value);
+        break;
+      case INT64:
+        output.writeSInt64NoTag((Long) value);
+        break;
+      case DOUBLE:
+        output.writeDoubleNoTag((Double) value);
+        break;
+      case BOOL:
+        output.writeBoolNoTag((Boolean) value);
+        break;
+      default:
+        output.writeStringNoTag((String) value);
+        break;
+    }
+  }
+
+  private static Object read(CodedInputStream input, HRecordSchema.FieldType fieldType)
+      throws IOException {
+    switch (fieldType) {
+      case INT32:
+        return input.readSInt32();
+      case INT64:
+        return input.readSInt64();
+      case DOUBLE:
+        return input.readDouble();
+      case BOOL:
+        return input.readBool();
+      default:
+        return input.readStringRequireUtf8();
+    }
+  }
+}
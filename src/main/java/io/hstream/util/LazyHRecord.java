@@ -0,0 +1,152 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.google.protobuf.WireFormat;
+import io.hstream.HRecord;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecordHeader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link HRecord} backed by the payload it was received as. Fields are located and decoded only
+ * when a getter asks for them and are cached afterwards, the whole {@link Struct} is decoded only
+ * if {@link #getDelegate()} is called.
+ */
+final class LazyHRecord extends HRecord {
+
+  private interface FieldIndex {
+    /**
+     * @return the value of the field, or null if the record has no field with the name
+     */
+    Value find(String name) throws IOException;
+  }
+
+  private final ByteString payload;
+  private final HStreamRecordHeader.Flag flag;
+  private final Map<String, Value> decodedFields = new HashMap<>();
+  private FieldIndex fieldIndex;
+  private Struct delegate;
+
+  LazyHRecord(ByteString payload, HStreamRecordHeader.Flag flag) {
+    this.payload = payload;
+    this.flag = flag;
+  }
+
+  @Override
+  public synchronized Struct getDelegate() {
+    if (delegate == null) {
+      try {
+        delegate =
+            flag == HStreamRecordHeader.Flag.PROTOBUF
+                ? Struct.parseFrom(payload)
+                : HRecordJsonCodec.decode(payload);
+      } catch (InvalidProtocolBufferException e) {
+        throw new HStreamDBClientException.InvalidRecordException("construct hrecord error", e);
+      }
+      decodedFields.clear();
+      fieldIndex = null;
+    }
+    return delegate;
+  }
+
+  @Override
+  public boolean contains(String name) {
+    return findField(name) != null;
+  }
+
+  @Override
+  protected Value getField(String name) {
+    Value value = findField(name);
+    if (value == null) {
+      throw new IllegalArgumentException("record has no field " + name);
+    }
+    return value;
+  }
+
+  /**
+   * @return the value of the field, or null if the record has no field with the name
+   */
+  private synchronized Value findField(String name) {
+    if (delegate != null) {
+      return delegate.getFieldsOrDefault(name, null);
+    }
+
+    Value value = decodedFields.get(name);
+    if (value == null) {
+      if (fieldIndex == null) {
+        fieldIndex =
+            flag == HStreamRecordHeader.Flag.PROTOBUF
+                ? new ProtobufFieldIndex(payload)
+                : new HRecordJsonCodec.FieldIndex(payload)::find;
+      }
+      try {
+        value = fieldIndex.find(name);
+      } catch (IOException e) {
+        throw new HStreamDBClientException.InvalidRecordException("decode hrecord field error", e);
+      }
+      if (value != null) {
+        decodedFields.put(name, value);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Walks the map entries of an encoded {@link Struct} once, on the first lookup, keeping the
+   * encoded values so they can be decoded when requested. Like protobuf's map parsing, the last of
+   * duplicate keys wins.
+   */
+  private static final class ProtobufFieldIndex implements FieldIndex {
+
+    // a tag is the field number shifted past the three wire type bits
+    private static final int FIELDS_TAG =
+        Struct.FIELDS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int ENTRY_KEY_TAG = 1 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int ENTRY_VALUE_TAG = 2 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    private final CodedInputStream input;
+    private final Map<String, ByteString> encodedValues = new HashMap<>();
+
+    private ProtobufFieldIndex(ByteString payload) {
+      this.input = payload.newCodedInput();
+      // entries and values are sliced out of the payload rather than copied
+      this.input.enableAliasing(true);
+    }
+
+    @Override
+    public Value find(String name) throws IOException {
+      while (!input.isAtEnd()) {
+        int tag = input.readTag();
+        if (tag != FIELDS_TAG) {
+          input.skipField(tag);
+          continue;
+        }
+
+        CodedInputStream entry = input.readBytes().newCodedInput();
+        entry.enableAliasing(true);
+        String key = "";
+        ByteString value = ByteString.EMPTY;
+        int entryTag;
+        while ((entryTag = entry.readTag()) != 0) {
+          if (entryTag == ENTRY_KEY_TAG) {
+            key = entry.readStringRequireUtf8();
+          } else if (entryTag == ENTRY_VALUE_TAG) {
+            value = entry.readBytes();
+          } else {
+            entry.skipField(entryTag);
+          }
+        }
+
+        encodedValues.put(key, value);
+      }
+      ByteString encodedValue = encodedValues.get(name);
+      return encodedValue == null ? null : Value.parseFrom(encodedValue);
+    }
+  }
+}
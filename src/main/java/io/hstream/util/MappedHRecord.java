@@ -0,0 +1,55 @@
+package io.hstream.util;
+
+import io.hstream.BoxedHRecord;
+import io.hstream.HRecord;
+
+/**
+ * A {@link HRecord} view of an object mapped by a {@link HRecordMapper}, fields are read from the
+ * object's properties when asked for.
+ */
+final class MappedHRecord<T> extends BoxedHRecord {
+
+  private final HRecordMapper<T> mapper;
+  private final T object;
+
+  MappedHRecord(HRecordMapper<T> mapper, T object) {
+    this.mapper = mapper;
+    this.object = object;
+  }
+
+  HRecordMapper<T> getMapper() {
+    return mapper;
+  }
+
+  T getObject() {
+    return object;
+  }
+
+  /**
+   * @return the boxed value of the property with the name, null if it is unset or absent
+   */
+  Object getFieldValue(String name) {
+    int index = mapper.indexOf(name);
+    return index < 0 ? null : mapper.getPropertyValue(object, index);
+  }
+
+  @Override
+  protected int getFieldCount() {
+    return mapper.getPropertyCount();
+  }
+
+  @Override
+  protected String getFieldName(int index) {
+    return mapper.getPropertyName(index);
+  }
+
+  @Override
+  protected Object getFieldValue(int index) {
+    return mapper.getPropertyValue(object, index);
+  }
+
+  @Override
+  protected int indexOf(String name) {
+    return mapper.indexOf(name);
+  }
+}
@@ -3,9 +3,8 @@ package io.hstream.util;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Struct;
-import com.google.protobuf.util.JsonFormat;
 import io.hstream.*;
-import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,18 +22,46 @@ public class RecordUtils {
   }
 
   public static HStreamRecord buildHStreamRecordFromHRecord(HRecord hRecord) {
-    try {
+    return buildHStreamRecordFromHRecord(hRecord, HRecordFormat.JSON);
+  }
+
+  public static HStreamRecord buildHStreamRecordFromHRecord(
+      HRecord hRecord, HRecordFormat hRecordFormat) {
+    if (hRecordFormat == HRecordFormat.PROTOBUF) {
       HStreamRecordHeader header =
-          HStreamRecordHeader.newBuilder().setFlag(HStreamRecordHeader.Flag.JSON).build();
-      String json = JsonFormat.printer().print(hRecord.getDelegate());
-      logger.debug("hrecord to json: {}", json);
+          HStreamRecordHeader.newBuilder().setFlag(HStreamRecordHeader.Flag.PROTOBUF).build();
       return HStreamRecord.newBuilder()
           .setHeader(header)
-          .setPayload(ByteString.copyFrom(json, StandardCharsets.UTF_8))
+          .setPayload(hRecord.toByteString())
           .build();
-    } catch (InvalidProtocolBufferException e) {
-      throw new HStreamDBClientException.InvalidRecordException("hrecord to json error", e);
     }
+
+    HStreamRecordHeader header =
+        HStreamRecordHeader.newBuilder().setFlag(HStreamRecordHeader.Flag.JSON).build();
+    ByteString json =
+        hRecord instanceof MappedHRecord
+            ? encodeMappedHRecord((MappedHRecord<?>) hRecord)
+            : HRecordJsonCodec.encode(hRecord.getDelegate());
+    if (logger.isDebugEnabled()) {
+      logger.debug("hrecord to json: {}", json.toStringUtf8());
+    }
+    return HStreamRecord.newBuilder().setHeader(header).setPayload(json).build();
+  }
+
+  private static <T> ByteString encodeMappedHRecord(MappedHRecord<T> hRecord) {
+    return HRecordJsonCodec.encode(hRecord.getObject(), hRecord.getMapper());
+  }
+
+  public static HStreamRecord buildHStreamRecordFromHRecord(HRecord hRecord, HRecordSchema schema) {
+    HStreamRecordHeader header =
+        HStreamRecordHeader.newBuilder()
+            .setFlag(HStreamRecordHeader.Flag.SCHEMA)
+            .putAttributes(HRecordSchemaCodec.SCHEMA_ID_ATTRIBUTE, schema.getId())
+            .build();
+    return HStreamRecord.newBuilder()
+        .setHeader(header)
+        .setPayload(HRecordSchemaCodec.encode(hRecord, schema))
+        .build();
   }
 
   public static byte[] parseRawRecordFromHStreamRecord(HStreamRecord hStreamRecord) {
@@ -47,23 +74,102 @@ public class RecordUtils {
 
   public static HRecord parseHRecordFromHStreamRecord(HStreamRecord hStreamRecord) {
     HStreamRecordHeader.Flag flag = hStreamRecord.getHeader().getFlag();
+    checkNotSchemaRecord(flag);
+    if (flag.equals(HStreamRecordHeader.Flag.PROTOBUF)) {
+      try {
+        return new HRecord(Struct.parseFrom(hStreamRecord.getPayload()));
+      } catch (InvalidProtocolBufferException e) {
+        throw new HStreamDBClientException.InvalidRecordException("construct hrecord error", e);
+      }
+    }
     if (!flag.equals(HStreamRecordHeader.Flag.JSON)) {
       logger.error("expect json record error");
       throw new HStreamDBClientException.InvalidRecordException("not json record");
     }
 
     try {
-      String json = hStreamRecord.getPayload().toStringUtf8();
-      logger.debug("get json payload: {}", json);
-      Struct.Builder structBuilder = Struct.newBuilder();
-      JsonFormat.parser().merge(json, structBuilder);
-      Struct struct = structBuilder.build();
-      return new HRecord(struct);
+      if (logger.isDebugEnabled()) {
+        logger.debug("get json payload: {}", hStreamRecord.getPayload().toStringUtf8());
+      }
+      return new HRecord(HRecordJsonCodec.decode(hStreamRecord.getPayload()));
     } catch (InvalidProtocolBufferException e) {
       throw new HStreamDBClientException.InvalidRecordException("construct hrecord error", e);
     }
   }
 
+  /**
+   * Parse a record written with a {@link HRecordSchema}.
+   *
+   * @param schemas the registered schemas by {@link HRecordSchema#getId()}
+   */
+  public static HRecord parseHRecordFromHStreamRecord(
+      HStreamRecord hStreamRecord, Map<String, HRecordSchema> schemas) {
+    HStreamRecordHeader header = hStreamRecord.getHeader();
+    if (!header.getFlag().equals(HStreamRecordHeader.Flag.SCHEMA)) {
+      return parseHRecordFromHStreamRecord(hStreamRecord);
+    }
+    String schemaId = header.getAttributesOrDefault(HRecordSchemaCodec.SCHEMA_ID_ATTRIBUTE, "");
+    HRecordSchema schema = schemas.get(schemaId);
+    if (schema == null) {
+      logger.error("hrecord schema {} is not registered", schemaId);
+      throw new HStreamDBClientException.InvalidRecordException(
+          "unknown hrecord schema " + schemaId);
+    }
+    try {
+      return HRecordSchemaCodec.decode(hStreamRecord.getPayload(), schema);
+    } catch (InvalidProtocolBufferException e) {
+      throw new HStreamDBClientException.InvalidRecordException("construct hrecord error", e);
+    }
+  }
+
+  /**
+   * Like {@link #parseHRecordFromHStreamRecord(HStreamRecord)}, but the returned {@link HRecord}
+   * keeps the payload and decodes a field only when it is read. A malformed payload is reported by
+   * the getter that reads it.
+   */
+  public static HRecord parseLazyHRecordFromHStreamRecord(HStreamRecord hStreamRecord) {
+    HStreamRecordHeader.Flag flag = hStreamRecord.getHeader().getFlag();
+    checkNotSchemaRecord(flag);
+    if (!flag.equals(HStreamRecordHeader.Flag.JSON)
+        && !flag.equals(HStreamRecordHeader.Flag.PROTOBUF)) {
+      logger.error("expect hrecord error");
+      throw new HStreamDBClientException.InvalidRecordException("not hrecord");
+    }
+    return new LazyHRecord(hStreamRecord.getPayload(), flag);
+  }
+
+  /**
+   * Parse a {@link HRecord} straight into an object. Records without a schema are read through the
+   * field index of {@link #parseLazyHRecordFromHStreamRecord(HStreamRecord)}, so only the mapped
+   * fields are decoded. Every mapped field is read here, so a malformed one fails the parse.
+   *
+   * @param schemas the registered schemas by {@link HRecordSchema#getId()}
+   */
+  public static <T> T parseTypedRecordFromHStreamRecord(
+      HStreamRecord hStreamRecord, HRecordMapper<T> mapper, Map<String, HRecordSchema> schemas) {
+    HRecord hRecord =
+        hStreamRecord.getHeader().getFlag().equals(HStreamRecordHeader.Flag.SCHEMA)
+            ? parseHRecordFromHStreamRecord(hStreamRecord, schemas)
+            : parseLazyHRecordFromHStreamRecord(hStreamRecord);
+    try {
+      return mapper.fromHRecord(hRecord);
+    } catch (HStreamDBClientException.InvalidRecordException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw new HStreamDBClientException.InvalidRecordException(
+          "map hrecord to " + mapper.getType().getName() + " error", e);
+    }
+  }
+
+  private static void checkNotSchemaRecord(HStreamRecordHeader.Flag flag) {
+    // isHRecord accepts schema records, but they can only be decoded with their schema
+    if (flag.equals(HStreamRecordHeader.Flag.SCHEMA)) {
+      logger.error("expect hrecord without schema error");
+      throw new HStreamDBClientException.InvalidRecordException(
+          "schema record, use parseHRecordFromHStreamRecord(record, schemas)");
+    }
+  }
+
   public static boolean isRawRecord(ReceivedRecord receivedRecord) {
     try {
       HStreamRecord hStreamRecord = HStreamRecord.parseFrom(receivedRecord.getRecord());
@@ -89,6 +195,8 @@ public class RecordUtils {
 
   public static boolean isHRecord(HStreamRecord hStreamRecord) {
     HStreamRecordHeader.Flag flag = hStreamRecord.getHeader().getFlag();
-    return flag.equals(HStreamRecordHeader.Flag.JSON);
+    return flag.equals(HStreamRecordHeader.Flag.JSON)
+        || flag.equals(HStreamRecordHeader.Flag.PROTOBUF)
+        || flag.equals(HStreamRecordHeader.Flag.SCHEMA);
   }
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.*;
 import org.slf4j.Logger;
@@ -423,4 +424,44 @@ public class HStreamClientTest {
     Assertions.assertEquals(count * 2, readCount.get());
     consumer.stopAsync().awaitTerminated();
   }
+
+  @Test
+  public void testRawRecordBatchReceiver() throws Exception {
+    Producer producer =
+        client.newProducer().stream(TEST_STREAM).enableBatch().recordCountLimit(10).build();
+    Random random = new Random();
+    final int count = 100;
+    @SuppressWarnings("unchecked")
+    CompletableFuture<RecordId>[] recordIdFutures = new CompletableFuture[count];
+    for (int i = 0; i < count; ++i) {
+      byte[] rawRecord = new byte[100];
+      random.nextBytes(rawRecord);
+      recordIdFutures[i] = producer.writeAsync(rawRecord);
+    }
+    CompletableFuture.allOf(recordIdFutures).join();
+
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicInteger index = new AtomicInteger();
+    Consumer consumer =
+        client
+            .newConsumer()
+            .subscription(TEST_SUBSCRIPTION)
+            .rawRecordBatchReceiver(
+                (receivedRawRecords, responder) -> {
+                  for (ReceivedRawRecord receivedRawRecord : receivedRawRecords) {
+                    Assertions.assertEquals(
+                        recordIdFutures[index.getAndIncrement()].join(),
+                        receivedRawRecord.getRecordId());
+                  }
+                  responder.ack();
+                  if (index.get() == count) {
+                    latch.countDown();
+                  }
+                })
+            .build();
+    consumer.startAsync().awaitRunning();
+
+    Assertions.assertTrue(latch.await(30, TimeUnit.SECONDS));
+    consumer.stopAsync().awaitTerminated();
+  }
 }
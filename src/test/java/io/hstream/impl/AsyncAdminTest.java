@@ -0,0 +1,136 @@
+package io.hstream.impl;
+
+import com.google.protobuf.Empty;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamClient;
+import io.hstream.HStreamDBClientException;
+import io.hstream.ListStreamsResponse;
+import io.hstream.Stream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncAdminTest {
+
+  private final Map<String, Integer> createdStreams = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private final AtomicInteger listCalls = new AtomicInteger();
+
+  private Server server;
+  private HStreamClient client;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    server =
+        ServerBuilder.forPort(0)
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void createStream(
+                      Stream request, StreamObserver<Stream> responseObserver) {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                      Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    if (request.getStreamName().startsWith("bad")) {
+                      responseObserver.onError(Status.ALREADY_EXISTS.asException());
+                      return;
+                    }
+                    createdStreams.put(request.getStreamName(), request.getReplicationFactor());
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                  }
+
+                  @Override
+                  public void listStreams(
+                      Empty request, StreamObserver<ListStreamsResponse> responseObserver) {
+                    listCalls.incrementAndGet();
+                    ListStreamsResponse.Builder response = ListStreamsResponse.newBuilder();
+                    for (String streamName : createdStreams.keySet()) {
+                      response.addStreams(Stream.newBuilder().setStreamName(streamName).build());
+                    }
+                    responseObserver.onNext(response.build());
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    client = HStreamClient.builder().serviceUrl("127.0.0.1:" + server.getPort()).build();
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    client.close();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void testCreateStreamAsyncWithReplicationFactor() {
+    client.createStreamAsync("stream", 2).join();
+    client.createStreamAsync("default").join();
+    Assertions.assertEquals(2, createdStreams.get("stream"));
+    Assertions.assertEquals(3, createdStreams.get("default"));
+  }
+
+  @Test
+  public void testCreateStreamsAsyncBoundsParallelism() {
+    List<String> streamNames = new ArrayList<>();
+    for (int i = 0; i < 200; ++i) {
+      streamNames.add("stream-" + i);
+    }
+    client.createStreamsAsync(streamNames, 1, 8).join();
+    Assertions.assertEquals(200, createdStreams.size());
+    Assertions.assertTrue(maxInFlight.get() <= 8, "max in flight " + maxInFlight.get());
+    Assertions.assertTrue(maxInFlight.get() > 1, "max in flight " + maxInFlight.get());
+  }
+
+  @Test
+  public void testCreateStreamsAsyncReportsEveryFailure() {
+    List<String> streamNames = List.of("good-0", "bad-0", "good-1", "bad-1", "bad-2");
+    CompletionException e =
+        Assertions.assertThrows(
+            CompletionException.class, () -> client.createStreamsAsync(streamNames, 1, 2).join());
+    Assertions.assertTrue(e.getCause() instanceof HStreamDBClientException);
+    Assertions.assertEquals("3 of 5 operations failed", e.getCause().getMessage());
+    Assertions.assertEquals(2, e.getCause().getSuppressed().length);
+    Assertions.assertEquals(2, createdStreams.size());
+  }
+
+  @Test
+  public void testMetadataCacheIsInvalidatedByOwnCreate() throws Exception {
+    try (HStreamClient cachingClient =
+        HStreamClient.builder()
+            .serviceUrl("127.0.0.1:" + server.getPort())
+            .metadataCache(60_000)
+            .build()) {
+      Assertions.assertFalse(cachingClient.streamExists("stream"));
+      Assertions.assertFalse(cachingClient.streamExists("stream"));
+      Assertions.assertEquals(0, cachingClient.listStreams().size());
+      Assertions.assertEquals(1, listCalls.get());
+
+      cachingClient.createStreamAsync("stream").join();
+      Assertions.assertTrue(cachingClient.streamExists("stream"));
+      Assertions.assertEquals(2, listCalls.get());
+    }
+  }
+
+  @Test
+  public void testEmptyBulkCompletes() {
+    Assertions.assertTrue(client.deleteStreamsAsync(List.of(), 4).isDone());
+  }
+}
@@ -0,0 +1,53 @@
+package io.hstream.impl;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ChannelPoolTest {
+
+  @Test
+  public void testSpreadsRoundRobinOverSeparateChannels() {
+    List<ManagedChannel> created = new ArrayList<>();
+    ChannelPool channelPool =
+        new ChannelPool(
+            3,
+            () -> {
+              ManagedChannel channel = InProcessChannelBuilder.forName("pool").build();
+              created.add(channel);
+              return channel;
+            });
+    Assertions.assertEquals(3, created.size());
+    Assertions.assertEquals(3, channelPool.size());
+
+    for (int i = 0; i < 7; ++i) {
+      Assertions.assertEquals(1 + i % 2, channelPool.nextChannel());
+    }
+    Assertions.assertNotSame(channelPool.getStub(0), channelPool.getStub(1));
+    Assertions.assertSame(created.get(2), channelPool.getBlockingStub(2).getChannel());
+
+    channelPool.shutdownNow();
+    for (ManagedChannel channel : created) {
+      Assertions.assertTrue(channel.isShutdown());
+    }
+  }
+
+  @Test
+  public void testAdminChannelIsOnlySharedWhenAlone() {
+    ChannelPool shared = new ChannelPool(1, () -> InProcessChannelBuilder.forName("pool").build());
+    for (int i = 0; i < 3; ++i) {
+      Assertions.assertEquals(ChannelPool.adminChannel, shared.nextChannel());
+    }
+    shared.shutdownNow();
+
+    ChannelPool separate =
+        new ChannelPool(4, () -> InProcessChannelBuilder.forName("pool").build());
+    for (int i = 0; i < 9; ++i) {
+      Assertions.assertNotEquals(ChannelPool.adminChannel, separate.nextChannel());
+    }
+    separate.shutdownNow();
+  }
+}
@@ -0,0 +1,99 @@
+package io.hstream.impl;
+
+import com.google.protobuf.Empty;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamClient;
+import io.hstream.ListStreamsResponse;
+import io.hstream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ClientTransportTest {
+
+  // larger than gRPC's default max inbound message size of 4 MiB
+  private static final int streamCount = 8 * 1024;
+  private static final String padding = "x".repeat(1000);
+
+  private Server server;
+  private String serviceUrl;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    ListStreamsResponse.Builder response = ListStreamsResponse.newBuilder();
+    for (int i = 0; i < streamCount; ++i) {
+      response.addStreams(Stream.newBuilder().setStreamName(padding + i).build());
+    }
+    ListStreamsResponse listStreamsResponse = response.build();
+    server =
+        ServerBuilder.forPort(0)
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void listStreams(
+                      Empty request, StreamObserver<ListStreamsResponse> responseObserver) {
+                    responseObserver.onNext(listStreamsResponse);
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    serviceUrl = "127.0.0.1:" + server.getPort();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.shutdownNow();
+  }
+
+  @Test
+  public void testDefaultsReceiveLargeMessages() throws Exception {
+    try (HStreamClient client = HStreamClient.builder().serviceUrl(serviceUrl).build()) {
+      Assertions.assertEquals(streamCount, client.listStreams().size());
+    }
+  }
+
+  @Test
+  public void testMaxInboundMessageSize() throws Exception {
+    try (HStreamClient client =
+        HStreamClient.builder().serviceUrl(serviceUrl).maxInboundMessageSize(1024 * 1024).build()) {
+      StatusRuntimeException e =
+          Assertions.assertThrows(StatusRuntimeException.class, client::listStreams);
+      Assertions.assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+    }
+  }
+
+  @Test
+  public void testNioTransport() throws Exception {
+    try (HStreamClient client =
+        HStreamClient.builder()
+            .serviceUrl(serviceUrl)
+            .nativeTransport(false)
+            .flowControlWindow(16 * 1024 * 1024)
+            .keepAlive(10_000, 5_000, false)
+            .build()) {
+      Assertions.assertEquals(streamCount, client.listStreams().size());
+    }
+  }
+
+  @Test
+  public void testIoThreads() throws Exception {
+    for (boolean nativeTransport : new boolean[] {true, false}) {
+      try (HStreamClient client =
+          HStreamClient.builder()
+              .serviceUrl(serviceUrl)
+              .nativeTransport(nativeTransport)
+              .ioThreads(1)
+              .channelCount(2)
+              .build()) {
+        Assertions.assertEquals(streamCount, client.listStreams().size());
+      }
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package io.hstream.impl;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.FetchRequest;
+import io.hstream.FetchResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.ReceivedRecord;
+import io.hstream.RecordId;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FetchPrefetcherTest {
+
+  private static final int batchSize = 10;
+
+  private static final class PendingFetch {
+    private final FetchRequest request;
+    private final StreamObserver<FetchResponse> responseObserver;
+
+    private PendingFetch(FetchRequest request, StreamObserver<FetchResponse> responseObserver) {
+      this.request = request;
+      this.responseObserver = responseObserver;
+    }
+
+    private void respond(long batchId) {
+      FetchResponse.Builder response = FetchResponse.newBuilder();
+      for (int i = 0; i < request.getMaxSize(); ++i) {
+        response.addReceivedRecords(
+            ReceivedRecord.newBuilder()
+                .setRecordId(RecordId.newBuilder().setBatchId(batchId).setBatchIndex(i)));
+      }
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    }
+  }
+
+  // fetches wait here until the test responds to them
+  private final BlockingQueue<PendingFetch> pendingFetches = new LinkedBlockingQueue<>();
+  // fetches fail with this status while set
+  private volatile Status fetchFailure;
+  // the number of fetches that fail with UNAVAILABLE before fetches succeed again
+  private final AtomicInteger unavailableFetches = new AtomicInteger();
+  private final AtomicInteger failedFetches = new AtomicInteger();
+  private Server server;
+  private ManagedChannel channel;
+  private ScheduledExecutorService scheduler;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void fetch(
+                      FetchRequest request, StreamObserver<FetchResponse> responseObserver) {
+                    Status failure = fetchFailure;
+                    if (failure == null && unavailableFetches.getAndDecrement() > 0) {
+                      failure = Status.UNAVAILABLE;
+                    }
+                    if (failure != null) {
+                      failedFetches.incrementAndGet();
+                      responseObserver.onError(failure.asRuntimeException());
+                      return;
+                    }
+                    pendingFetches.add(new PendingFetch(request, responseObserver));
+                  }
+                })
+            .build()
+            .start();
+    // responses are handled on the responding thread, so a fetch sent in reaction to a response is
+    // pending by the time respond() returns
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdownNow();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private FetchPrefetcher newFetchPrefetcher(int maxFetchesInFlight, int maxBufferedRecords) {
+    return new FetchPrefetcher(
+        HStreamApiGrpc.newStub(channel),
+        FetchSizer.fixed("subscription", 1000, batchSize),
+        maxFetchesInFlight,
+        maxBufferedRecords,
+        Long.MAX_VALUE,
+        scheduler);
+  }
+
+  private PendingFetch nextFetch() throws InterruptedException {
+    PendingFetch fetch = pendingFetches.poll(5, TimeUnit.SECONDS);
+    Assertions.assertNotNull(fetch);
+    return fetch;
+  }
+
+  @Test
+  public void testFetchesNextBatchWhileProcessing() throws Exception {
+    FetchPrefetcher fetchPrefetcher = newFetchPrefetcher(1, batchSize);
+    fetchPrefetcher.start();
+    nextFetch().respond(0);
+    // the fetched batch fills the buffer
+    Assertions.assertTrue(pendingFetches.isEmpty());
+
+    List<ReceivedRecord> first = fetchPrefetcher.take();
+    Assertions.assertEquals(batchSize, first.size());
+    Assertions.assertEquals(0, first.get(0).getRecordId().getBatchId());
+    // the first batch is still being processed, the next one is already fetched
+    nextFetch().respond(1);
+    Assertions.assertTrue(pendingFetches.isEmpty());
+    Assertions.assertEquals(1, fetchPrefetcher.take().get(0).getRecordId().getBatchId());
+    fetchPrefetcher.stop();
+  }
+
+  @Test
+  public void testBufferIsBoundedByRecords() throws Exception {
+    FetchPrefetcher fetchPrefetcher = newFetchPrefetcher(4, 2 * batchSize);
+    fetchPrefetcher.start();
+    PendingFetch first = nextFetch();
+    PendingFetch second = nextFetch();
+    // two fetches in flight reserve the whole buffer
+    Assertions.assertTrue(pendingFetches.isEmpty());
+    first.respond(0);
+    second.respond(1);
+    Assertions.assertTrue(pendingFetches.isEmpty());
+
+    fetchPrefetcher.take();
+    nextFetch();
+    Assertions.assertTrue(pendingFetches.isEmpty());
+    fetchPrefetcher.stop();
+    Assertions.assertTrue(fetchPrefetcher.take().isEmpty());
+  }
+
+  @Test
+  public void testBatchesAreQueuedInSendOrder() throws Exception {
+    FetchPrefetcher fetchPrefetcher = newFetchPrefetcher(2, 2 * batchSize);
+    fetchPrefetcher.start();
+    PendingFetch first = nextFetch();
+    PendingFetch second = nextFetch();
+
+    second.respond(1);
+    first.respond(0);
+    Assertions.assertEquals(0, fetchPrefetcher.take().get(0).getRecordId().getBatchId());
+    Assertions.assertEquals(1, fetchPrefetcher.take().get(0).getRecordId().getBatchId());
+    fetchPrefetcher.stop();
+  }
+
+  @Test
+  public void testTransientFetchErrorsAreRetried() throws Exception {
+    unavailableFetches.set(3);
+    FetchPrefetcher fetchPrefetcher = newFetchPrefetcher(1, 2 * batchSize);
+    fetchPrefetcher.start();
+    nextFetch().respond(0);
+
+    List<ReceivedRecord> first = fetchPrefetcher.take();
+    Assertions.assertEquals(batchSize, first.size());
+    Assertions.assertEquals(0, first.get(0).getRecordId().getBatchId());
+    Assertions.assertEquals(3, failedFetches.get());
+    fetchPrefetcher.stop();
+  }
+
+  @Test
+  public void testFetchErrorFailsTake() {
+    fetchFailure = Status.PERMISSION_DENIED;
+    FetchPrefetcher fetchPrefetcher = newFetchPrefetcher(1, 2 * batchSize);
+    fetchPrefetcher.start();
+    Assertions.assertThrows(
+        HStreamDBClientException.ConsumerException.class, fetchPrefetcher::take);
+  }
+}
@@ -0,0 +1,56 @@
+package io.hstream.impl;
+
+import io.hstream.FetchRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FetchSizerTest {
+
+  @Test
+  public void testFixedSizing() {
+    FetchSizer fetchSizer = FetchSizer.fixed("subscription", 1000, 100);
+    FetchRequest request = fetchSizer.nextRequest();
+    fetchSizer.onFetched(request, 100, 1);
+    fetchSizer.onFetched(request, 0, 1000);
+
+    request = fetchSizer.nextRequest();
+    Assertions.assertEquals("subscription", request.getSubscriptionId());
+    Assertions.assertEquals(100, request.getMaxSize());
+    Assertions.assertEquals(1000, request.getTimeout());
+  }
+
+  @Test
+  public void testFullBatchesGrowUpToLimit() {
+    FetchSizer fetchSizer = FetchSizer.adaptive("subscription", 1000, 100, 50, 1000);
+    Assertions.assertEquals(50, fetchSizer.nextRequest().getTimeout());
+
+    for (int i = 0; i < 10; ++i) {
+      FetchRequest request = fetchSizer.nextRequest();
+      fetchSizer.onFetched(request, request.getMaxSize(), 10);
+    }
+    Assertions.assertEquals(1000, fetchSizer.nextRequest().getMaxSize());
+
+    // a full batch that took too long shrinks the size again
+    FetchRequest request = fetchSizer.nextRequest();
+    fetchSizer.onFetched(request, request.getMaxSize(), 200);
+    Assertions.assertEquals(500, fetchSizer.nextRequest().getMaxSize());
+  }
+
+  @Test
+  public void testEmptyAndPartialBatchesShrink() {
+    FetchSizer fetchSizer = FetchSizer.adaptive("subscription", 1000, 1000, 100, 1000);
+    for (int i = 0; i < 20; ++i) {
+      fetchSizer.onFetched(fetchSizer.nextRequest(), 0, 100);
+    }
+    FetchRequest request = fetchSizer.nextRequest();
+    // an idle subscription keeps long-polling instead of polling faster
+    Assertions.assertEquals(100, request.getTimeout());
+    Assertions.assertEquals(FetchSizer.minPollRecords, request.getMaxSize());
+
+    // records trickle in, the size stays small
+    fetchSizer.onFetched(request, 5, 10);
+    request = fetchSizer.nextRequest();
+    Assertions.assertEquals(100, request.getTimeout());
+    Assertions.assertEquals(FetchSizer.minPollRecords, request.getMaxSize());
+  }
+}
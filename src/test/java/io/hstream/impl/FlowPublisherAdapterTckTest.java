@@ -0,0 +1,94 @@
+package io.hstream.impl;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.CommandPushQuery;
+import io.hstream.HRecord;
+import io.hstream.HStreamApiGrpc;
+import java.util.concurrent.Flow;
+import org.reactivestreams.tck.TestEnvironment;
+import org.reactivestreams.tck.flow.FlowPublisherVerification;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/** Runs the Reactive Streams TCK against push query publishers served by an in-process server. */
+public class FlowPublisherAdapterTckTest extends FlowPublisherVerification<HRecord> {
+
+  private static final String failingQuery = "fail";
+
+  private Server server;
+  private ManagedChannel channel;
+
+  public FlowPublisherAdapterTckTest() {
+    super(new TestEnvironment(500));
+  }
+
+  @BeforeClass
+  public void startServer() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void executePushQuery(
+                      CommandPushQuery request, StreamObserver<Struct> responseObserver) {
+                    if (request.getQueryText().equals(failingQuery)) {
+                      responseObserver.onError(Status.INVALID_ARGUMENT.asRuntimeException());
+                      return;
+                    }
+                    // the query text is the number of results
+                    long results = Long.parseLong(request.getQueryText());
+                    for (long i = 0; i < results; ++i) {
+                      Struct row =
+                          Struct.newBuilder()
+                              .putFields("index", Value.newBuilder().setNumberValue(i).build())
+                              .build();
+                      responseObserver.onNext(
+                          Struct.newBuilder()
+                              .putFields("SELECT", Value.newBuilder().setStructValue(row).build())
+                              .build());
+                    }
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).build();
+  }
+
+  @AfterClass
+  public void stopServer() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private Flow.Publisher<HRecord> pushQueryPublisher(String queryText) {
+    CommandPushQuery pushQuery = CommandPushQuery.newBuilder().setQueryText(queryText).build();
+    return new FlowPublisherAdapter<>(
+        observer ->
+            PushQueryObserver.subscribe(HStreamApiGrpc.newStub(channel), pushQuery, observer));
+  }
+
+  @Override
+  public Flow.Publisher<HRecord> createFlowPublisher(long elements) {
+    return pushQueryPublisher(String.valueOf(elements));
+  }
+
+  @Override
+  public Flow.Publisher<HRecord> createFailedFlowPublisher() {
+    return pushQueryPublisher(failingQuery);
+  }
+
+  @Override
+  public long maxElementsFromPublisher() {
+    return 1024;
+  }
+}
@@ -0,0 +1,174 @@
+package io.hstream.impl;
+
+import com.google.protobuf.Empty;
+import io.grpc.LoadBalancerRegistry;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import io.hstream.ClientBuilder;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamClient;
+import io.hstream.ListStreamsResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class LatencyAwareLoadBalancerTest {
+
+  private static final String fastEjectionPolicy = "test_fast_ejection";
+  private static final LatencyAwareLoadBalancer.Provider fastEjectionProvider =
+      new LatencyAwareLoadBalancer.Provider(fastEjectionPolicy, false, 3, 1000);
+
+  private final List<Server> servers = new ArrayList<>();
+  private final List<AtomicInteger> callCounts = new ArrayList<>();
+
+  @BeforeAll
+  public static void registerPolicy() {
+    LoadBalancerRegistry.getDefaultRegistry().register(fastEjectionProvider);
+  }
+
+  @AfterAll
+  public static void deregisterPolicy() {
+    LoadBalancerRegistry.getDefaultRegistry().deregister(fastEjectionProvider);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    for (Server server : servers) {
+      server.shutdownNow();
+    }
+  }
+
+  /** Start a server on the loopback interface, answering listStreams after a delay. */
+  private String startServer(long latencyMs, boolean failing) throws Exception {
+    AtomicInteger callCount = new AtomicInteger();
+    Server server =
+        ServerBuilder.forPort(0)
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void listStreams(
+                      Empty request, StreamObserver<ListStreamsResponse> responseObserver) {
+                    callCount.incrementAndGet();
+                    if (failing) {
+                      responseObserver.onError(Status.UNAVAILABLE.asException());
+                      return;
+                    }
+                    try {
+                      Thread.sleep(latencyMs);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                    responseObserver.onNext(ListStreamsResponse.getDefaultInstance());
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    servers.add(server);
+    callCounts.add(callCount);
+    return "127.0.0.1:" + server.getPort();
+  }
+
+  private static void callConcurrently(HStreamClient client, int threads, int callsPerThread)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; ++i) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int j = 0; j < callsPerThread; ++j) {
+                  client.listStreams();
+                }
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testLeastOutstandingRequestsUsesEveryServer() throws Exception {
+    List<String> serviceUrls =
+        List.of(startServer(5, false), startServer(5, false), startServer(5, false));
+    try (HStreamClient client = HStreamClient.builder().serviceUrls(serviceUrls).build()) {
+      callConcurrently(client, 6, 20);
+    }
+    for (AtomicInteger callCount : callCounts) {
+      Assertions.assertTrue(callCount.get() > 10, "calls per server " + callCounts);
+    }
+  }
+
+  @Test
+  public void testEwmaLatencyAvoidsSlowServer() throws Exception {
+    List<String> serviceUrls =
+        List.of(startServer(2, false), startServer(2, false), startServer(100, false));
+    try (HStreamClient client =
+        HStreamClient.builder()
+            .serviceUrls(serviceUrls)
+            .loadBalancingPolicy(ClientBuilder.EWMA_LATENCY)
+            .build()) {
+      callConcurrently(client, 4, 50);
+    }
+    int slowCalls = callCounts.get(2).get();
+    Assertions.assertTrue(
+        slowCalls * 5 < callCounts.get(0).get() + callCounts.get(1).get(),
+        "calls per server " + callCounts);
+  }
+
+  @Test
+  public void testFailingServerIsEjectedAndReadded() throws Exception {
+    List<String> serviceUrls = List.of(startServer(0, false), startServer(0, true));
+    try (HStreamClient client =
+        HStreamClient.builder()
+            .serviceUrls(serviceUrls)
+            .loadBalancingPolicy(fastEjectionPolicy)
+            .build()) {
+      int failures = 0;
+      for (int i = 0; i < 50; ++i) {
+        try {
+          client.listStreams();
+        } catch (StatusRuntimeException e) {
+          failures++;
+        }
+      }
+      // ejected after 3 consecutive failures
+      Assertions.assertEquals(3, failures);
+      Assertions.assertEquals(3, callCounts.get(1).get());
+
+      // readded once the ejection window has passed, then ejected again after 3 more failures
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (callCounts.get(1).get() < 6 && System.nanoTime() < deadline) {
+        try {
+          client.listStreams();
+        } catch (StatusRuntimeException e) {
+          failures++;
+        }
+        Thread.sleep(10);
+      }
+      Assertions.assertEquals(6, callCounts.get(1).get());
+      for (int i = 0; i < 50; ++i) {
+        try {
+          client.listStreams();
+        } catch (StatusRuntimeException e) {
+          failures++;
+        }
+      }
+      Assertions.assertEquals(6, failures);
+      Assertions.assertEquals(6, callCounts.get(1).get());
+    }
+  }
+}
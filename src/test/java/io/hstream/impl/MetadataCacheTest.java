@@ -0,0 +1,96 @@
+package io.hstream.impl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MetadataCacheTest {
+
+  private static final long ttlMs = 1000;
+
+  private final AtomicLong nanoClock = new AtomicLong();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final AtomicReference<List<String>> names = new AtomicReference<>(List.of("a", "b"));
+  // completes loads at once if null
+  private volatile CompletableFuture<List<String>> pendingLoad;
+
+  private final MetadataCache<String> cache =
+      new MetadataCache<>(
+          () -> {
+            loads.incrementAndGet();
+            return pendingLoad != null
+                ? pendingLoad
+                : CompletableFuture.completedFuture(names.get());
+          },
+          Function.identity(),
+          ttlMs,
+          nanoClock::get);
+
+  private void advanceMs(long ms) {
+    nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+  }
+
+  @Test
+  public void testServesFromCacheWithinTtl() {
+    Assertions.assertTrue(cache.get().join().byKey.containsKey("a"));
+    advanceMs(500);
+    names.set(List.of("c"));
+    Assertions.assertEquals(List.of("a", "b"), cache.get().join().values);
+    Assertions.assertEquals(1, loads.get());
+
+    advanceMs(600);
+    Assertions.assertEquals(List.of("c"), cache.get().join().values);
+    Assertions.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testRefreshesAheadOfExpiry() {
+    cache.get().join();
+    pendingLoad = new CompletableFuture<>();
+    advanceMs(900);
+
+    // the stale listing is served while it is reloaded, and only one reload is started
+    Assertions.assertEquals(List.of("a", "b"), cache.get().join().values);
+    Assertions.assertEquals(List.of("a", "b"), cache.get().join().values);
+    Assertions.assertEquals(2, loads.get());
+
+    pendingLoad.complete(List.of("c"));
+    Assertions.assertEquals(List.of("c"), cache.get().join().values);
+    Assertions.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testInvalidateDropsListingAndInFlightLoad() {
+    cache.get().join();
+    pendingLoad = new CompletableFuture<>();
+    advanceMs(900);
+    cache.get();
+    CompletableFuture<List<String>> staleLoad = pendingLoad;
+
+    cache.invalidate();
+    pendingLoad = null;
+    names.set(List.of("c"));
+    Assertions.assertEquals(List.of("c"), cache.get().join().values);
+    Assertions.assertEquals(3, loads.get());
+
+    // a load started before the invalidation is not cached
+    staleLoad.complete(List.of("a", "b"));
+    Assertions.assertEquals(List.of("c"), cache.get().join().values);
+    Assertions.assertEquals(3, loads.get());
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() {
+    pendingLoad = CompletableFuture.failedFuture(new RuntimeException("unavailable"));
+    Assertions.assertThrows(RuntimeException.class, () -> cache.get().join());
+    pendingLoad = null;
+    Assertions.assertEquals(List.of("a", "b"), cache.get().join().values);
+    Assertions.assertEquals(2, loads.get());
+  }
+}
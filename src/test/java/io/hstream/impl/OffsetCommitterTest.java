@@ -0,0 +1,199 @@
+package io.hstream.impl;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.CommittedOffset;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.RecordId;
+import io.hstream.Responder;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OffsetCommitterTest {
+
+  private final List<RecordId> committedOffsets = new CopyOnWriteArrayList<>();
+  private Server server;
+  private ManagedChannel channel;
+  private ScheduledExecutorService scheduler;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void commitOffset(
+                      CommittedOffset request, StreamObserver<CommittedOffset> responseObserver) {
+                    committedOffsets.add(request.getOffset());
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdownNow();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private OffsetCommitter newOffsetCommitter(long commitIntervalMs, int commitAckCount) {
+    return OffsetCommitter.cumulative(
+        HStreamApiGrpc.newStub(channel),
+        HStreamApiGrpc.newBlockingStub(channel),
+        "subscription",
+        commitIntervalMs,
+        commitAckCount,
+        scheduler);
+  }
+
+  private OffsetCommitter newOutOfOrderOffsetCommitter(int maxUnackedRecords) {
+    return OffsetCommitter.outOfOrder(
+        HStreamApiGrpc.newStub(channel),
+        HStreamApiGrpc.newBlockingStub(channel),
+        "subscription",
+        60 * 1000,
+        Integer.MAX_VALUE,
+        maxUnackedRecords,
+        scheduler);
+  }
+
+  private static RecordId recordId(int index) {
+    return RecordId.newBuilder().setBatchId(1).setBatchIndex(index).build();
+  }
+
+  @Test
+  public void testAcksAreCumulative() {
+    OffsetCommitter offsetCommitter = newOffsetCommitter(60 * 1000, Integer.MAX_VALUE);
+    Responder first = offsetCommitter.track(recordId(0));
+    Responder second = offsetCommitter.track(recordId(1));
+    Responder third = offsetCommitter.track(recordId(2));
+    Responder fourth = offsetCommitter.track(recordId(3));
+
+    offsetCommitter.commitSync();
+    Assertions.assertTrue(committedOffsets.isEmpty());
+
+    second.ack();
+    offsetCommitter.commitSync();
+    Assertions.assertEquals(List.of(recordId(1)), committedOffsets);
+
+    // already covered by the ack of the second record
+    first.ack();
+    offsetCommitter.commitSync();
+    Assertions.assertEquals(List.of(recordId(1)), committedOffsets);
+
+    fourth.ack();
+    third.ack();
+    fourth.ack();
+    offsetCommitter.commitSync();
+    Assertions.assertEquals(List.of(recordId(1), recordId(3)), committedOffsets);
+  }
+
+  @Test
+  public void testOutOfOrderAcksCommitOnlyAckedPrefix() {
+    OffsetCommitter offsetCommitter = newOutOfOrderOffsetCommitter(Integer.MAX_VALUE);
+    Responder first = offsetCommitter.track(recordId(0));
+    Responder second = offsetCommitter.track(recordId(1));
+    Responder third = offsetCommitter.track(recordId(2));
+
+    third.ack();
+    offsetCommitter.commitSync();
+    Assertions.assertTrue(committedOffsets.isEmpty());
+
+    first.ack();
+    offsetCommitter.commitSync();
+    Assertions.assertEquals(List.of(recordId(0)), committedOffsets);
+
+    second.ack();
+    offsetCommitter.commitSync();
+    Assertions.assertEquals(List.of(recordId(0), recordId(2)), committedOffsets);
+  }
+
+  @Test
+  public void testCoalescesAcksByCount() throws Exception {
+    OffsetCommitter offsetCommitter = newOffsetCommitter(60 * 1000, 10);
+    for (int i = 0; i < 100; ++i) {
+      offsetCommitter.track(recordId(i)).ack();
+    }
+    scheduler.submit(() -> {}).get();
+    offsetCommitter.commitSync();
+
+    Assertions.assertTrue(committedOffsets.size() <= 10, committedOffsets::toString);
+    Assertions.assertEquals(recordId(99), committedOffsets.get(committedOffsets.size() - 1));
+  }
+
+  @Test
+  public void testCommitsOnInterval() throws Exception {
+    OffsetCommitter offsetCommitter = newOffsetCommitter(10, Integer.MAX_VALUE);
+    offsetCommitter.track(recordId(0)).ack();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (committedOffsets.isEmpty() && System.currentTimeMillis() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assertions.assertEquals(List.of(recordId(0)), committedOffsets);
+  }
+
+  @Test
+  public void testUnackedRecordPausesTracking() throws Exception {
+    OffsetCommitter offsetCommitter = newOutOfOrderOffsetCommitter(3);
+    Responder unacked = offsetCommitter.track(recordId(0));
+    offsetCommitter.track(recordId(1)).ack();
+    offsetCommitter.track(recordId(2)).ack();
+
+    CountDownLatch tracked = new CountDownLatch(1);
+    Thread dispatcher =
+        new Thread(
+            () -> {
+              offsetCommitter.track(recordId(3)).ack();
+              tracked.countDown();
+            });
+    dispatcher.start();
+    Assertions.assertFalse(tracked.await(200, TimeUnit.MILLISECONDS));
+
+    unacked.ack();
+    Assertions.assertTrue(tracked.await(5, TimeUnit.SECONDS));
+    dispatcher.join();
+    offsetCommitter.commitSync();
+    Assertions.assertEquals(List.of(recordId(3)), committedOffsets);
+  }
+
+  @Test
+  public void testUnackedRecordWaitIsInterruptible() throws Exception {
+    OffsetCommitter offsetCommitter = newOutOfOrderOffsetCommitter(1);
+    offsetCommitter.track(recordId(0));
+
+    CountDownLatch failed = new CountDownLatch(1);
+    Thread dispatcher =
+        new Thread(
+            () -> {
+              try {
+                offsetCommitter.track(recordId(1));
+              } catch (HStreamDBClientException e) {
+                failed.countDown();
+              }
+            });
+    dispatcher.start();
+    dispatcher.interrupt();
+    Assertions.assertTrue(failed.await(5, TimeUnit.SECONDS));
+  }
+}
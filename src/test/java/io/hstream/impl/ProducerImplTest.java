@@ -0,0 +1,254 @@
+package io.hstream.impl;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.AppendRequest;
+import io.hstream.AppendResponse;
+import io.hstream.BufferFullPolicy;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.Producer;
+import io.hstream.ProducerBuilder;
+import io.hstream.RecordId;
+import io.hstream.util.RecordUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ProducerImplTest {
+
+  private static final byte[] payload = new byte[100];
+  private static final int recordSize =
+      RecordUtils.buildHStreamRecordFromRawRecord(payload).getSerializedSize();
+
+  private static final class PendingAppend {
+    private final AppendRequest request;
+    private final StreamObserver<AppendResponse> responseObserver;
+
+    private PendingAppend(AppendRequest request, StreamObserver<AppendResponse> responseObserver) {
+      this.request = request;
+      this.responseObserver = responseObserver;
+    }
+
+    private void respond(long batchId) {
+      AppendResponse.Builder response = AppendResponse.newBuilder();
+      for (int i = 0; i < request.getRecordsCount(); ++i) {
+        response.addRecordIds(RecordId.newBuilder().setBatchId(batchId).setBatchIndex(i));
+      }
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    }
+  }
+
+  // appends wait here until the test responds to them
+  private final BlockingQueue<PendingAppend> pendingAppends = new LinkedBlockingQueue<>();
+
+  private Server server;
+  private ManagedChannel channel;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void append(
+                      AppendRequest request, StreamObserver<AppendResponse> responseObserver) {
+                    pendingAppends.add(new PendingAppend(request, responseObserver));
+                  }
+                })
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private ProducerBuilder newProducerBuilder(HStreamApiGrpc.HStreamApiStub stub) {
+    return new ProducerBuilder(stub)
+        .stream("stream").enableBatch().recordCountLimit(1).maxLingerMs(0).maxInFlightRequests(1);
+  }
+
+  private ProducerBuilder newProducerBuilder() {
+    return newProducerBuilder(HStreamApiGrpc.newStub(channel));
+  }
+
+  private PendingAppend nextAppend() throws InterruptedException {
+    PendingAppend append = pendingAppends.poll(5, TimeUnit.SECONDS);
+    Assertions.assertNotNull(append);
+    return append;
+  }
+
+  @Test
+  public void testRecordIdsCompleteInSendOrder() throws Exception {
+    Producer producer = newProducerBuilder().maxInFlightRequests(2).build();
+    List<Long> completed = Collections.synchronizedList(new ArrayList<>());
+    CompletableFuture<RecordId> first = producer.writeAsync(payload);
+    CompletableFuture<RecordId> second = producer.writeAsync(payload);
+    first.thenAccept(recordId -> completed.add(recordId.getBatchId()));
+    second.thenAccept(recordId -> completed.add(recordId.getBatchId()));
+    PendingAppend firstAppend = nextAppend();
+    PendingAppend secondAppend = nextAppend();
+
+    secondAppend.respond(2);
+    Assertions.assertFalse(second.isDone());
+    firstAppend.respond(1);
+    second.get(5, TimeUnit.SECONDS);
+    Assertions.assertEquals(List.of(1L, 2L), completed);
+  }
+
+  @Test
+  public void testWriterBlocksAtMaxInFlightRequests() throws Exception {
+    Producer producer = newProducerBuilder().maxInFlightRequests(2).build();
+    producer.writeAsync(payload);
+    producer.writeAsync(payload);
+
+    CompletableFuture<CompletableFuture<RecordId>> third =
+        CompletableFuture.supplyAsync(() -> producer.writeAsync(payload));
+    Thread.sleep(200);
+    Assertions.assertFalse(third.isDone());
+
+    nextAppend().respond(1);
+    third.get(5, TimeUnit.SECONDS);
+    nextAppend().respond(2);
+    nextAppend().respond(3);
+    Assertions.assertEquals(3, third.get().get(5, TimeUnit.SECONDS).getBatchId());
+  }
+
+  @Test
+  public void testCloseFlushesBufferedRecords() throws Exception {
+    Producer producer = newProducerBuilder().recordCountLimit(100).maxLingerMs(60 * 1000).build();
+    CompletableFuture<RecordId> future = producer.writeAsync(payload);
+    Assertions.assertTrue(pendingAppends.isEmpty());
+
+    CompletableFuture<Void> closed = CompletableFuture.runAsync(producer::close);
+    nextAppend().respond(1);
+    closed.get(5, TimeUnit.SECONDS);
+    Assertions.assertEquals(1, future.get().getBatchId());
+  }
+
+  @Test
+  public void testRejectsRecordLargerThanBufferMemory() {
+    Producer producer = newProducerBuilder().bufferMemory(recordSize - 1).build();
+    Assertions.assertThrows(
+        HStreamDBClientException.BufferFullException.class, () -> producer.writeAsync(payload));
+    Assertions.assertTrue(pendingAppends.isEmpty());
+  }
+
+  @Test
+  public void testBufferMemoryMustFitAnInt() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> newProducerBuilder().bufferMemory(Integer.MAX_VALUE + 1L));
+  }
+
+  @Test
+  public void testFailFastWhenBufferIsFull() throws Exception {
+    Producer producer =
+        newProducerBuilder()
+            .bufferMemory(recordSize)
+            .bufferFullPolicy(BufferFullPolicy.FAIL_FAST)
+            .build();
+    CompletableFuture<RecordId> first = producer.writeAsync(payload);
+    Assertions.assertThrows(
+        HStreamDBClientException.BufferFullException.class, () -> producer.writeAsync(payload));
+
+    nextAppend().respond(1);
+    Assertions.assertEquals(1, first.get(5, TimeUnit.SECONDS).getBatchId());
+    // the memory of the answered batch is free again
+    producer.writeAsync(payload);
+    nextAppend().respond(2);
+  }
+
+  @Test
+  public void testBlockUntilBufferIsFreed() throws Exception {
+    Producer producer =
+        newProducerBuilder()
+            .bufferMemory(recordSize)
+            .bufferFullPolicy(BufferFullPolicy.BLOCK)
+            .build();
+    producer.writeAsync(payload);
+
+    CompletableFuture<CompletableFuture<RecordId>> second =
+        CompletableFuture.supplyAsync(() -> producer.writeAsync(payload));
+    Thread.sleep(200);
+    Assertions.assertFalse(second.isDone());
+
+    nextAppend().respond(1);
+    second.get(5, TimeUnit.SECONDS);
+    nextAppend().respond(2);
+    Assertions.assertEquals(2, second.get().get(5, TimeUnit.SECONDS).getBatchId());
+  }
+
+  @Test
+  public void testBlockWithTimeoutGivesUp() throws Exception {
+    Producer producer =
+        newProducerBuilder()
+            .bufferMemory(recordSize)
+            .bufferFullPolicy(BufferFullPolicy.BLOCK_WITH_TIMEOUT)
+            .maxBlockMs(100)
+            .build();
+    producer.writeAsync(payload);
+
+    long startNanos = System.nanoTime();
+    Assertions.assertThrows(
+        HStreamDBClientException.BufferFullException.class, () -> producer.writeAsync(payload));
+    Assertions.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+    nextAppend().respond(1);
+  }
+
+  @Test
+  public void testSynchronousSendFailureReleasesBuffer() throws Exception {
+    AtomicBoolean failNextCall = new AtomicBoolean(true);
+    HStreamApiGrpc.HStreamApiStub stub =
+        HStreamApiGrpc.newStub(channel)
+            .withInterceptors(
+                new ClientInterceptor() {
+                  @Override
+                  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                      MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+                    if (failNextCall.getAndSet(false)) {
+                      throw new IllegalStateException("injected failure");
+                    }
+                    return next.newCall(method, callOptions);
+                  }
+                });
+    Producer producer =
+        newProducerBuilder(stub)
+            .bufferMemory(recordSize)
+            .bufferFullPolicy(BufferFullPolicy.FAIL_FAST)
+            .build();
+
+    CompletableFuture<RecordId> failed = producer.writeAsync(payload);
+    Assertions.assertThrows(CompletionException.class, failed::join);
+
+    CompletableFuture<RecordId> second = producer.writeAsync(payload);
+    nextAppend().respond(2);
+    Assertions.assertEquals(2, second.get(5, TimeUnit.SECONDS).getBatchId());
+  }
+}
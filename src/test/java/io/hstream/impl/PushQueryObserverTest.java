@@ -0,0 +1,164 @@
+package io.hstream.impl;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.CommandPushQuery;
+import io.hstream.Demand;
+import io.hstream.FlowControlledObserver;
+import io.hstream.HRecord;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.Observer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PushQueryObserverTest {
+
+  private static final int resultCount = 100;
+
+  // counted down once the server has queued every result of the query
+  private final CountDownLatch resultsQueued = new CountDownLatch(1);
+  private Server server;
+  private ManagedChannel channel;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void executePushQuery(
+                      CommandPushQuery request, StreamObserver<Struct> responseObserver) {
+                    // results the client has not asked for stay queued on the server side
+                    for (int i = 0; i < resultCount; ++i) {
+                      Struct row =
+                          Struct.newBuilder()
+                              .putFields("index", Value.newBuilder().setNumberValue(i).build())
+                              .build();
+                      responseObserver.onNext(
+                          Struct.newBuilder()
+                              .putFields("SELECT", Value.newBuilder().setStructValue(row).build())
+                              .build());
+                    }
+                    responseObserver.onCompleted();
+                    resultsQueued.countDown();
+                  }
+                })
+            .build()
+            .start();
+    // queued results are delivered on the requesting thread, so request() returns after them
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private static class RecordingObserver implements FlowControlledObserver<HRecord> {
+    private final List<Integer> indexes = new CopyOnWriteArrayList<>();
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile Demand demand;
+    private volatile Throwable error;
+
+    @Override
+    public void onSubscribe(Demand demand) {
+      this.demand = demand;
+    }
+
+    @Override
+    public void onNext(HRecord value) {
+      indexes.add(value.getInt("index"));
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+      completed.countDown();
+    }
+  }
+
+  private void subscribe(Observer<? super HRecord> observer) {
+    PushQueryObserver.subscribe(
+        HStreamApiGrpc.newStub(channel),
+        CommandPushQuery.newBuilder().setQueryText("SELECT * FROM s EMIT CHANGES;").build(),
+        observer);
+  }
+
+  @Test
+  public void testDeliversOnlyRequestedValues() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    subscribe(observer);
+    Assertions.assertNotNull(observer.demand);
+    Assertions.assertTrue(resultsQueued.await(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(observer.indexes.isEmpty());
+
+    observer.demand.request(10);
+    Assertions.assertEquals(10, observer.indexes.size());
+    observer.demand.request(5);
+    Assertions.assertEquals(15, observer.indexes.size());
+
+    observer.demand.request(Long.MAX_VALUE);
+    Assertions.assertTrue(observer.completed.await(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(resultCount, observer.indexes.size());
+    for (int i = 0; i < resultCount; ++i) {
+      Assertions.assertEquals(i, observer.indexes.get(i));
+    }
+  }
+
+  @Test
+  public void testCancelStopsDelivery() throws Exception {
+    RecordingObserver observer = new RecordingObserver();
+    subscribe(observer);
+    Assertions.assertTrue(resultsQueued.await(10, TimeUnit.SECONDS));
+    observer.demand.request(3);
+    Assertions.assertEquals(3, observer.indexes.size());
+
+    observer.demand.cancel();
+    observer.demand.request(10);
+    Assertions.assertEquals(3, observer.indexes.size());
+    Assertions.assertNull(observer.error);
+    Assertions.assertEquals(1, observer.completed.getCount());
+  }
+
+  @Test
+  public void testPlainObserverReceivesEverything() throws Exception {
+    List<HRecord> received = new CopyOnWriteArrayList<>();
+    CountDownLatch completed = new CountDownLatch(1);
+    subscribe(
+        new Observer<HRecord>() {
+          @Override
+          public void onNext(HRecord value) {
+            received.add(value);
+          }
+
+          @Override
+          public void onError(Throwable t) {}
+
+          @Override
+          public void onCompleted() {
+            completed.countDown();
+          }
+        });
+    Assertions.assertTrue(completed.await(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(resultCount, received.size());
+  }
+}
@@ -0,0 +1,87 @@
+package io.hstream.impl;
+
+import io.hstream.HStreamRecord;
+import io.hstream.HStreamRecordHeader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ReceiverLanesTest {
+
+  private static HStreamRecord hStreamRecord(String key) {
+    return HStreamRecord.newBuilder()
+        .setHeader(HStreamRecordHeader.newBuilder().setKey(key).build())
+        .build();
+  }
+
+  @Test
+  public void testSameKeyInOrderDifferentKeysInParallel() throws Exception {
+    ReceiverLanes receiverLanes =
+        new ReceiverLanes(4, hStreamRecord -> hStreamRecord.getHeader().getKey(), 100);
+    Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+    String[] keys = {"a", "b", "c", "d", "e"};
+    CountDownLatch done = new CountDownLatch(500);
+    // every lane blocks until all lanes have started, which requires them to run in parallel
+    CountDownLatch started = new CountDownLatch(2);
+
+    for (int i = 0; i < 500; ++i) {
+      String key = keys[i % keys.length];
+      int index = i;
+      HStreamRecord hStreamRecord = hStreamRecord(key);
+      int lane = receiverLanes.laneOf(hStreamRecord);
+      Assertions.assertEquals(lane, receiverLanes.laneOf(hStreamRecord));
+      receiverLanes.execute(
+          lane,
+          1,
+          () -> {
+            if (index < 2) {
+              started.countDown();
+              try {
+                Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            }
+            processed.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(index);
+            done.countDown();
+          });
+    }
+
+    Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+    receiverLanes.shutdownNow();
+    for (List<Integer> indexes : processed.values()) {
+      for (int i = 1; i < indexes.size(); ++i) {
+        Assertions.assertTrue(indexes.get(i - 1) < indexes.get(i), indexes::toString);
+      }
+    }
+    Assertions.assertEquals(0, started.getCount());
+  }
+
+  @Test
+  public void testShutdownFinishesDispatchedRecords() throws Exception {
+    ReceiverLanes receiverLanes = new ReceiverLanes(2, hStreamRecord -> null, 100);
+    AtomicInteger processed = new AtomicInteger();
+    for (int i = 0; i < 10; ++i) {
+      receiverLanes.execute(
+          receiverLanes.laneOf(hStreamRecord("")),
+          1,
+          () -> {
+            try {
+              Thread.sleep(10);
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            processed.incrementAndGet();
+          });
+    }
+
+    Assertions.assertTrue(receiverLanes.shutdown(5000));
+    Assertions.assertEquals(10, processed.get());
+  }
+}
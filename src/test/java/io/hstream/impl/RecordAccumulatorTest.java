@@ -0,0 +1,195 @@
+package io.hstream.impl;
+
+import com.google.protobuf.ByteString;
+import io.hstream.HStreamRecord;
+import io.hstream.HStreamRecordHeader;
+import io.hstream.RecordId;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RecordAccumulatorTest {
+
+  private static HStreamRecord rawRecord(int size) {
+    return HStreamRecord.newBuilder()
+        .setHeader(HStreamRecordHeader.newBuilder().setFlag(HStreamRecordHeader.Flag.RAW))
+        .setPayload(ByteString.copyFrom(new byte[size]))
+        .build();
+  }
+
+  private static RecordAccumulator.BatchSender completingSender(
+      ConcurrentLinkedQueue<Integer> batchSizes) {
+    AtomicLong batchId = new AtomicLong();
+    return (records, futures) -> {
+      batchSizes.add(records.size());
+      long id = batchId.incrementAndGet();
+      for (int i = 0; i < futures.size(); ++i) {
+        futures.get(i).complete(RecordId.newBuilder().setBatchId(id).setBatchIndex(i).build());
+      }
+      return CompletableFuture.completedFuture(null);
+    };
+  }
+
+  @Test
+  public void testConcurrentAppend() throws Exception {
+    ConcurrentLinkedQueue<Integer> batchSizes = new ConcurrentLinkedQueue<>();
+    RecordAccumulator accumulator =
+        new RecordAccumulator(10, Integer.MAX_VALUE, 0, null, 1, completingSender(batchSizes));
+
+    final int threadCount = 8;
+    final int recordsPerThread = 1005;
+    ConcurrentLinkedQueue<CompletableFuture<RecordId>> futures = new ConcurrentLinkedQueue<>();
+    CountDownLatch latch = new CountDownLatch(threadCount);
+    for (int t = 0; t < threadCount; ++t) {
+      new Thread(
+              () -> {
+                for (int i = 0; i < recordsPerThread; ++i) {
+                  futures.add(accumulator.append(rawRecord(10)));
+                }
+                latch.countDown();
+              })
+          .start();
+    }
+    latch.await();
+    accumulator.flush();
+
+    Assertions.assertEquals(threadCount * recordsPerThread, futures.size());
+    futures.forEach(future -> Assertions.assertTrue(future.isDone()));
+    Assertions.assertEquals(
+        threadCount * recordsPerThread, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    batchSizes.forEach(size -> Assertions.assertTrue(size <= 10));
+  }
+
+  @Test
+  public void testContendedAppendKeepsInFlightWindow() throws Exception {
+    ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+    try {
+      AtomicInteger inFlight = new AtomicInteger();
+      AtomicInteger maxInFlight = new AtomicInteger();
+      AtomicInteger sentRecords = new AtomicInteger();
+      RecordAccumulator accumulator =
+          new RecordAccumulator(
+              10,
+              Integer.MAX_VALUE,
+              0,
+              null,
+              2,
+              (records, futures) -> {
+                sentRecords.addAndGet(records.size());
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                CompletableFuture<Void> response = new CompletableFuture<>();
+                responder.schedule(
+                    () -> {
+                      inFlight.decrementAndGet();
+                      futures.forEach(
+                          future -> future.complete(RecordId.newBuilder().setBatchId(1).build()));
+                      response.complete(null);
+                    },
+                    100,
+                    TimeUnit.MICROSECONDS);
+                return response;
+              });
+
+      final int threadCount = 32;
+      final int recordsPerThread = 503;
+      ConcurrentLinkedQueue<CompletableFuture<RecordId>> futures = new ConcurrentLinkedQueue<>();
+      CountDownLatch latch = new CountDownLatch(threadCount);
+      for (int t = 0; t < threadCount; ++t) {
+        new Thread(
+                () -> {
+                  for (int i = 0; i < recordsPerThread; ++i) {
+                    futures.add(accumulator.append(rawRecord(10)));
+                  }
+                  latch.countDown();
+                })
+            .start();
+      }
+      Assertions.assertTrue(latch.await(30, TimeUnit.SECONDS));
+      accumulator.flush();
+
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+          .get(10, TimeUnit.SECONDS);
+      Assertions.assertEquals(threadCount * recordsPerThread, sentRecords.get());
+      Assertions.assertTrue(maxInFlight.get() <= 2);
+    } finally {
+      responder.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testBatchBytesLimit() {
+    ConcurrentLinkedQueue<Integer> batchSizes = new ConcurrentLinkedQueue<>();
+    int recordSize = rawRecord(100).getSerializedSize();
+    RecordAccumulator accumulator =
+        new RecordAccumulator(100, recordSize * 3, 0, null, 1, completingSender(batchSizes));
+
+    for (int i = 0; i < 7; ++i) {
+      accumulator.append(rawRecord(100));
+    }
+    Assertions.assertEquals(List.of(3, 3), List.copyOf(batchSizes));
+    accumulator.flush();
+    Assertions.assertEquals(List.of(3, 3, 1), List.copyOf(batchSizes));
+  }
+
+  @Test
+  public void testLinger() throws Exception {
+    ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor();
+    try {
+      ConcurrentLinkedQueue<Integer> batchSizes = new ConcurrentLinkedQueue<>();
+      RecordAccumulator accumulator =
+          new RecordAccumulator(
+              100, Integer.MAX_VALUE, 50, lingerTimer, 1, completingSender(batchSizes));
+
+      CompletableFuture<RecordId> future = accumulator.append(rawRecord(10));
+      Assertions.assertFalse(future.isDone());
+      future.get(5, TimeUnit.SECONDS);
+      Assertions.assertEquals(List.of(1), List.copyOf(batchSizes));
+    } finally {
+      lingerTimer.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWriterWaitsForInFlightWindow() throws Exception {
+    ConcurrentLinkedQueue<CompletableFuture<Void>> responses = new ConcurrentLinkedQueue<>();
+    RecordAccumulator accumulator =
+        new RecordAccumulator(
+            1,
+            Integer.MAX_VALUE,
+            0,
+            null,
+            1,
+            (records, futures) -> {
+              CompletableFuture<Void> response = new CompletableFuture<>();
+              responses.add(response);
+              return response;
+            });
+
+    accumulator.append(rawRecord(10));
+    Assertions.assertEquals(1, responses.size());
+
+    CountDownLatch appended = new CountDownLatch(1);
+    Thread writer =
+        new Thread(
+            () -> {
+              accumulator.append(rawRecord(10));
+              appended.countDown();
+            });
+    writer.start();
+    Assertions.assertFalse(appended.await(200, TimeUnit.MILLISECONDS));
+    Assertions.assertEquals(1, responses.size());
+
+    responses.poll().complete(null);
+    Assertions.assertTrue(appended.await(5, TimeUnit.SECONDS));
+    Assertions.assertEquals(1, responses.size());
+    writer.join();
+  }
+}
@@ -0,0 +1,250 @@
+package io.hstream.impl;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.AppendRequest;
+import io.hstream.AppendResponse;
+import io.hstream.AppendStreamRequest;
+import io.hstream.AppendStreamResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamRecord;
+import io.hstream.RecordId;
+import io.hstream.util.RecordUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StreamingAppenderTest {
+
+  private static final int responseGroupSize = 3;
+
+  private final AtomicInteger streams = new AtomicInteger();
+  private final AtomicInteger unaryAppends = new AtomicInteger();
+  private final CountDownLatch halfClosed = new CountDownLatch(1);
+  private volatile boolean appendStreamSupported = true;
+  private volatile boolean failStreams;
+  private Server server;
+  private ManagedChannel channel;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void append(
+                      AppendRequest request, StreamObserver<AppendResponse> responseObserver) {
+                    int batch = unaryAppends.getAndIncrement();
+                    responseObserver.onNext(
+                        AppendResponse.newBuilder()
+                            .addAllRecordIds(recordIds(batch, request.getRecordsCount()))
+                            .build());
+                    responseObserver.onCompleted();
+                  }
+
+                  @Override
+                  public StreamObserver<AppendStreamRequest> appendStream(
+                      StreamObserver<AppendStreamResponse> responseObserver) {
+                    if (!appendStreamSupported) {
+                      return super.appendStream(responseObserver);
+                    }
+                    streams.incrementAndGet();
+                    // responds to every group of batches in reverse order
+                    List<AppendStreamRequest> group = new ArrayList<>();
+                    return new StreamObserver<>() {
+                      @Override
+                      public void onNext(AppendStreamRequest request) {
+                        if (failStreams) {
+                          responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                          return;
+                        }
+                        group.add(request);
+                        if (group.size() < responseGroupSize) {
+                          return;
+                        }
+                        for (int i = group.size() - 1; i >= 0; --i) {
+                          AppendStreamRequest batch = group.get(i);
+                          responseObserver.onNext(
+                              AppendStreamResponse.newBuilder()
+                                  .setSequence(batch.getSequence())
+                                  .addAllRecordIds(
+                                      recordIds(batch.getSequence(), batch.getRecordsCount()))
+                                  .build());
+                        }
+                        group.clear();
+                      }
+
+                      @Override
+                      public void onError(Throwable t) {}
+
+                      @Override
+                      public void onCompleted() {
+                        halfClosed.countDown();
+                        responseObserver.onCompleted();
+                      }
+                    };
+                  }
+                })
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).build();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private static List<RecordId> recordIds(long batchId, int count) {
+    List<RecordId> recordIds = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      recordIds.add(RecordId.newBuilder().setBatchId(batchId).setBatchIndex(i).build());
+    }
+    return recordIds;
+  }
+
+  private static List<HStreamRecord> records(int count) {
+    List<HStreamRecord> records = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      records.add(RecordUtils.buildHStreamRecordFromRawRecord(new byte[] {(byte) i}));
+    }
+    return records;
+  }
+
+  private StreamingAppender newStreamingAppender() {
+    return newStreamingAppender(0, null);
+  }
+
+  private StreamingAppender newStreamingAppender(
+      long requestTimeoutMs, ScheduledExecutorService scheduler) {
+    HStreamApiGrpc.HStreamApiStub stub = HStreamApiGrpc.newStub(channel);
+    return new StreamingAppender(
+        stub,
+        "stream",
+        records -> {
+          CompletableFuture<List<RecordId>> future = new CompletableFuture<>();
+          stub.append(
+              AppendRequest.newBuilder().setStreamName("stream").addAllRecords(records).build(),
+              new StreamObserver<>() {
+                @Override
+                public void onNext(AppendResponse response) {
+                  future.complete(response.getRecordIdsList());
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                  future.completeExceptionally(t);
+                }
+
+                @Override
+                public void onCompleted() {}
+              });
+          return future;
+        },
+        requestTimeoutMs,
+        scheduler);
+  }
+
+  @Test
+  public void testMatchesResponsesBySequence() {
+    StreamingAppender streamingAppender = newStreamingAppender();
+    List<CompletableFuture<List<RecordId>>> futures = new ArrayList<>();
+    for (int i = 0; i < 2 * responseGroupSize; ++i) {
+      futures.add(streamingAppender.append(records(i + 1)));
+    }
+
+    for (int i = 0; i < futures.size(); ++i) {
+      Assertions.assertEquals(recordIds(i, i + 1), futures.get(i).join());
+    }
+    Assertions.assertEquals(1, streams.get());
+    Assertions.assertEquals(0, unaryAppends.get());
+  }
+
+  @Test
+  public void testFallsBackToUnaryAppend() {
+    appendStreamSupported = false;
+    StreamingAppender streamingAppender = newStreamingAppender();
+    Assertions.assertEquals(2, streamingAppender.append(records(2)).join().size());
+    Assertions.assertEquals(3, streamingAppender.append(records(3)).join().size());
+    Assertions.assertEquals(2, unaryAppends.get());
+  }
+
+  @Test
+  public void testBrokenStreamFailsPendingBatchesAndIsReplaced() {
+    failStreams = true;
+    StreamingAppender streamingAppender = newStreamingAppender();
+    Assertions.assertThrows(
+        CompletionException.class, () -> streamingAppender.append(records(1)).join());
+
+    failStreams = false;
+    List<CompletableFuture<List<RecordId>>> futures = new ArrayList<>();
+    for (int i = 0; i < responseGroupSize; ++i) {
+      futures.add(streamingAppender.append(records(1)));
+    }
+    for (int i = 0; i < futures.size(); ++i) {
+      Assertions.assertEquals(recordIds(i, 1), futures.get(i).join());
+    }
+    Assertions.assertEquals(2, streams.get());
+  }
+
+  @Test
+  public void testCloseHalfClosesStream() throws Exception {
+    StreamingAppender streamingAppender = newStreamingAppender();
+    List<CompletableFuture<List<RecordId>>> futures = new ArrayList<>();
+    for (int i = 0; i < responseGroupSize; ++i) {
+      futures.add(streamingAppender.append(records(1)));
+    }
+    futures.forEach(CompletableFuture::join);
+
+    streamingAppender.close();
+    Assertions.assertTrue(halfClosed.await(5, TimeUnit.SECONDS));
+    Assertions.assertThrows(
+        CompletionException.class, () -> streamingAppender.append(records(1)).join());
+  }
+
+  @Test
+  public void testBatchWithoutResponseTimesOut() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      StreamingAppender streamingAppender = newStreamingAppender(100, scheduler);
+      // the server only responds once a whole group of batches has arrived
+      CompletableFuture<List<RecordId>> stalled = streamingAppender.append(records(1));
+      ExecutionException e =
+          Assertions.assertThrows(
+              ExecutionException.class, () -> stalled.get(5, TimeUnit.SECONDS));
+      Assertions.assertEquals(
+          Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(e.getCause()).getCode());
+
+      // the late response of the timed out batch is dropped, the stream keeps working
+      List<CompletableFuture<List<RecordId>>> futures = new ArrayList<>();
+      for (int i = 1; i < responseGroupSize; ++i) {
+        futures.add(streamingAppender.append(records(1)));
+      }
+      for (int i = 0; i < futures.size(); ++i) {
+        Assertions.assertEquals(recordIds(i + 1, 1), futures.get(i).get(5, TimeUnit.SECONDS));
+      }
+      Assertions.assertEquals(1, streams.get());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package io.hstream.impl;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.ReceivedRecord;
+import io.hstream.RecordId;
+import io.hstream.StreamingFetchRequest;
+import io.hstream.StreamingFetchResponse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StreamingFetcherTest {
+
+  private static final int backlog = 25;
+  private static final int pushSize = 5;
+
+  private final List<RecordId> ackedOffsets = new CopyOnWriteArrayList<>();
+  private final CountDownLatch streamCompleted = new CountDownLatch(1);
+  private volatile boolean streamingFetchSupported = true;
+  private final AtomicInteger openedStreams = new AtomicInteger();
+  // the number of streams the server closes on their first request, alternately by completing and
+  // failing them
+  private final AtomicInteger streamsToClose = new AtomicInteger();
+  // guarded by this
+  private int granted;
+  private int credits;
+  private int pushed;
+  private Server server;
+  private ManagedChannel channel;
+  private ScheduledExecutorService scheduler;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public StreamObserver<StreamingFetchRequest> streamingFetch(
+                      StreamObserver<StreamingFetchResponse> responseObserver) {
+                    if (!streamingFetchSupported) {
+                      return super.streamingFetch(responseObserver);
+                    }
+                    openedStreams.incrementAndGet();
+                    return new StreamObserver<>() {
+                      @Override
+                      public void onNext(StreamingFetchRequest request) {
+                        int toClose = streamsToClose.getAndUpdate(c -> Math.max(c - 1, 0));
+                        if (toClose > 0) {
+                          if (toClose % 2 == 0) {
+                            responseObserver.onCompleted();
+                          } else {
+                            responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                          }
+                          return;
+                        }
+                        if (request.hasAckedOffset()) {
+                          ackedOffsets.add(request.getAckedOffset());
+                        }
+                        push(request.getCredits(), responseObserver);
+                      }
+
+                      @Override
+                      public void onError(Throwable t) {}
+
+                      @Override
+                      public void onCompleted() {
+                        responseObserver.onCompleted();
+                        streamCompleted.countDown();
+                      }
+                    };
+                  }
+                })
+            .build()
+            .start();
+    // requests are handled on the sending thread, so credits are granted by the time take() returns
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdownNow();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private synchronized void push(
+      int grantedCredits, StreamObserver<StreamingFetchResponse> responseObserver) {
+    granted += grantedCredits;
+    credits += grantedCredits;
+    while (credits > 0 && pushed < backlog) {
+      int count = Math.min(Math.min(credits, pushSize), backlog - pushed);
+      StreamingFetchResponse.Builder response = StreamingFetchResponse.newBuilder();
+      for (int i = 0; i < count; ++i) {
+        response.addReceivedRecords(
+            ReceivedRecord.newBuilder()
+                .setRecordId(RecordId.newBuilder().setBatchIndex(pushed + i)));
+      }
+      responseObserver.onNext(response.build());
+      credits -= count;
+      pushed += count;
+    }
+  }
+
+  private synchronized int getGranted() {
+    return granted;
+  }
+
+  private StreamingFetcher newStreamingFetcher(int maxBufferedRecords) {
+    return new StreamingFetcher(
+        HStreamApiGrpc.newStub(channel),
+        "subscription",
+        maxBufferedRecords,
+        Long.MAX_VALUE,
+        scheduler);
+  }
+
+  @Test
+  public void testPushesRecordsWithinCredits() throws Exception {
+    StreamingFetcher streamingFetcher = newStreamingFetcher(2 * pushSize);
+    streamingFetcher.start();
+
+    int next = 0;
+    List<ReceivedRecord> batch = streamingFetcher.take();
+    Assertions.assertEquals(pushSize, batch.size());
+    // the buffer is granted when the stream opens, and the taken records once taken
+    Assertions.assertEquals(3 * pushSize, getGranted());
+    while (true) {
+      for (ReceivedRecord receivedRecord : batch) {
+        Assertions.assertEquals(next++, receivedRecord.getRecordId().getBatchIndex());
+      }
+      if (next == backlog) {
+        break;
+      }
+      batch = streamingFetcher.take();
+    }
+    streamingFetcher.stop();
+  }
+
+  @Test
+  public void testSendsAcksOnStream() throws Exception {
+    StreamingFetcher streamingFetcher = newStreamingFetcher(2 * pushSize);
+    streamingFetcher.start();
+    RecordId ackedOffset = streamingFetcher.take().get(pushSize - 1).getRecordId();
+
+    Assertions.assertTrue(streamingFetcher.sendAck(ackedOffset));
+    streamingFetcher.stop();
+    Assertions.assertTrue(streamCompleted.await(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(List.of(ackedOffset), ackedOffsets);
+    Assertions.assertFalse(streamingFetcher.sendAck(ackedOffset));
+  }
+
+  @Test
+  public void testClosedStreamIsReopened() throws Exception {
+    streamsToClose.set(2);
+    StreamingFetcher streamingFetcher = newStreamingFetcher(2 * pushSize);
+    streamingFetcher.start();
+
+    List<ReceivedRecord> batch = streamingFetcher.take();
+    Assertions.assertEquals(pushSize, batch.size());
+    Assertions.assertEquals(0, batch.get(0).getRecordId().getBatchIndex());
+    Assertions.assertEquals(3, openedStreams.get());
+    streamingFetcher.stop();
+  }
+
+  @Test
+  public void testUnsupportedStreamingFetchFailsTake() {
+    streamingFetchSupported = false;
+    StreamingFetcher streamingFetcher = newStreamingFetcher(2 * pushSize);
+    streamingFetcher.start();
+    HStreamDBClientException.ConsumerException e =
+        Assertions.assertThrows(
+            HStreamDBClientException.ConsumerException.class, streamingFetcher::take);
+    Assertions.assertEquals(
+        Status.Code.UNIMPLEMENTED, Status.fromThrowable(e.getCause()).getCode());
+  }
+}
@@ -0,0 +1,133 @@
+package io.hstream.impl;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.AckableRecord;
+import io.hstream.CommittedOffset;
+import io.hstream.ConsumerHeartbeatRequest;
+import io.hstream.ConsumerHeartbeatResponse;
+import io.hstream.FetchRequest;
+import io.hstream.FetchResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.ReceivedRawRecord;
+import io.hstream.ReceivedRecord;
+import io.hstream.RecordId;
+import io.hstream.SubscribeRequest;
+import io.hstream.SubscribeResponse;
+import io.hstream.util.RecordUtils;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import org.reactivestreams.tck.TestEnvironment;
+import org.reactivestreams.tck.flow.FlowPublisherVerification;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * Runs the Reactive Streams TCK against subscription publishers fetching from an in-process server
+ * with an endless backlog. The server returns a few more records than a fetch asks for, which the
+ * publisher must hold back until they are requested. A subscription never completes, so the TCK
+ * skips the rules that need a publisher to complete.
+ */
+public class SubscriptionPublisherTckTest
+    extends FlowPublisherVerification<AckableRecord<ReceivedRawRecord>> {
+
+  private static final ByteString record =
+      RecordUtils.buildHStreamRecordFromRawRecord(new byte[] {1, 2, 3}).toByteString();
+
+  private static final int extraRecordsPerFetch = 3;
+
+  private final AtomicLong fetches = new AtomicLong();
+  private Server server;
+  private ManagedChannel channel;
+
+  public SubscriptionPublisherTckTest() {
+    super(new TestEnvironment(500));
+  }
+
+  @BeforeClass
+  public void startServer() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void subscribe(
+                      SubscribeRequest request,
+                      StreamObserver<SubscribeResponse> responseObserver) {
+                    responseObserver.onNext(
+                        SubscribeResponse.newBuilder()
+                            .setSubscriptionId(request.getSubscriptionId())
+                            .build());
+                    responseObserver.onCompleted();
+                  }
+
+                  @Override
+                  public void sendConsumerHeartbeat(
+                      ConsumerHeartbeatRequest request,
+                      StreamObserver<ConsumerHeartbeatResponse> responseObserver) {
+                    responseObserver.onNext(ConsumerHeartbeatResponse.getDefaultInstance());
+                    responseObserver.onCompleted();
+                  }
+
+                  @Override
+                  public void fetch(
+                      FetchRequest request, StreamObserver<FetchResponse> responseObserver) {
+                    long batchId = fetches.getAndIncrement();
+                    FetchResponse.Builder response = FetchResponse.newBuilder();
+                    for (int i = 0; i < request.getMaxSize() + extraRecordsPerFetch; ++i) {
+                      response.addReceivedRecords(
+                          ReceivedRecord.newBuilder()
+                              .setRecordId(
+                                  RecordId.newBuilder().setBatchId(batchId).setBatchIndex(i))
+                              .setRecord(record));
+                    }
+                    responseObserver.onNext(response.build());
+                    responseObserver.onCompleted();
+                  }
+
+                  @Override
+                  public void commitOffset(
+                      CommittedOffset request, StreamObserver<CommittedOffset> responseObserver) {
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).build();
+  }
+
+  @AfterClass
+  public void stopServer() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Override
+  public Flow.Publisher<AckableRecord<ReceivedRawRecord>> createFlowPublisher(long elements) {
+    return SubscriptionPublisher.ofRawRecords(
+        HStreamApiGrpc.newStub(channel),
+        HStreamApiGrpc.newBlockingStub(channel),
+        "subscription",
+        100,
+        100,
+        1000,
+        1000);
+  }
+
+  @Override
+  public Flow.Publisher<AckableRecord<ReceivedRawRecord>> createFailedFlowPublisher() {
+    return null;
+  }
+
+  @Override
+  public long maxElementsFromPublisher() {
+    return publisherUnableToSignalOnComplete();
+  }
+}
@@ -0,0 +1,155 @@
+package io.hstream.impl;
+
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.hstream.AppendRequest;
+import io.hstream.AppendResponse;
+import io.hstream.HStreamApiGrpc;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import io.hstream.RecordId;
+import io.hstream.util.RecordUtils;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class UnaryAppenderTest {
+
+  private static final List<HStreamRecord> records =
+      List.of(RecordUtils.buildHStreamRecordFromRawRecord(new byte[] {1}));
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final CountDownLatch cancelled = new CountDownLatch(1);
+  // the status to fail a call with, by the call's index, OK to succeed and null to never respond
+  private volatile IntFunction<Status> behavior = call -> Status.OK;
+
+  private Server server;
+  private ManagedChannel channel;
+  private ScheduledExecutorService scheduler;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(
+                new HStreamApiGrpc.HStreamApiImplBase() {
+                  @Override
+                  public void append(
+                      AppendRequest request, StreamObserver<AppendResponse> responseObserver) {
+                    Status status = behavior.apply(calls.getAndIncrement());
+                    if (status == null) {
+                      Context.current()
+                          .addListener(context -> cancelled.countDown(), Runnable::run);
+                      return;
+                    }
+                    if (!status.isOk()) {
+                      responseObserver.onError(status.asException());
+                      return;
+                    }
+                    responseObserver.onNext(
+                        AppendResponse.newBuilder()
+                            .addRecordIds(RecordId.newBuilder().setBatchId(1).build())
+                            .build());
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdownNow();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private UnaryAppender newAppender(long requestTimeoutMs, int maxRetries, double hedgePercentile) {
+    return new UnaryAppender(
+        HStreamApiGrpc.newStub(channel),
+        "stream",
+        requestTimeoutMs,
+        maxRetries,
+        1,
+        10,
+        hedgePercentile,
+        scheduler);
+  }
+
+  private static Status.Code failureCode(CompletionException e) {
+    Assertions.assertTrue(e.getCause() instanceof HStreamDBClientException);
+    return Status.fromThrowable(e.getCause().getCause()).getCode();
+  }
+
+  @Test
+  public void testDeadlineFailsHangingAppend() {
+    behavior = call -> null;
+    UnaryAppender appender = newAppender(100, 0, 0);
+    CompletionException e =
+        Assertions.assertThrows(CompletionException.class, () -> appender.append(records).join());
+    Assertions.assertEquals(Status.Code.DEADLINE_EXCEEDED, failureCode(e));
+  }
+
+  @Test
+  public void testRetriesUnavailable() {
+    behavior = call -> call < 2 ? Status.UNAVAILABLE : Status.OK;
+    UnaryAppender appender = newAppender(1000, 3, 0);
+    Assertions.assertEquals(1, appender.append(records).join().size());
+    Assertions.assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRetries() {
+    behavior = call -> Status.UNAVAILABLE;
+    UnaryAppender appender = newAppender(1000, 2, 0);
+    CompletionException e =
+        Assertions.assertThrows(CompletionException.class, () -> appender.append(records).join());
+    Assertions.assertEquals(Status.Code.UNAVAILABLE, failureCode(e));
+    Assertions.assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testDoesNotRetryOtherErrors() {
+    behavior = call -> Status.INVALID_ARGUMENT;
+    UnaryAppender appender = newAppender(1000, 3, 0);
+    CompletionException e =
+        Assertions.assertThrows(CompletionException.class, () -> appender.append(records).join());
+    Assertions.assertEquals(Status.Code.INVALID_ARGUMENT, failureCode(e));
+    Assertions.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testHedgesSlowAppend() throws Exception {
+    UnaryAppender appender = newAppender(10_000, 0, 0.9);
+    for (int i = 0; i < LatencyTracker.minSamples; ++i) {
+      appender.append(records).join();
+    }
+
+    int slowCall = calls.get();
+    behavior = call -> call == slowCall ? null : Status.OK;
+    long startNanos = System.nanoTime();
+    Assertions.assertEquals(1, appender.append(records).join().size());
+    Assertions.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5));
+    Assertions.assertEquals(slowCall + 2, calls.get());
+    // the slow call is cancelled once the hedged one has won
+    Assertions.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+  }
+}
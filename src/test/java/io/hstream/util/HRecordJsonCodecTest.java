@@ -0,0 +1,95 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.Values;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HRecordJsonCodecTest {
+
+  private static Struct sampleStruct() {
+    Struct nested =
+        Struct.newBuilder()
+            .putFields("empty_struct", Values.of(Struct.newBuilder().build()))
+            .putFields("empty_list", Values.of(ListValue.newBuilder().build()))
+            .build();
+    return Struct.newBuilder()
+        .putFields("int", Values.of(1))
+        .putFields("negative", Values.of(-42))
+        .putFields("fraction", Values.of(0.1))
+        .putFields("large", Values.of(1.5e300))
+        .putFields("small", Values.of(1e-7))
+        .putFields("long", Values.of(123456789012345678L))
+        .putFields("nan", Values.of(Double.NaN))
+        .putFields("infinity", Values.of(Double.NEGATIVE_INFINITY))
+        .putFields("string", Values.of("a\"b\\c\n\t\u0001<>&='/\u007fé中😀 "))
+        .putFields("bool", Values.of(true))
+        .putFields("null", Values.ofNull())
+        .putFields("unset", Value.newBuilder().build())
+        .putFields("nested", Values.of(nested))
+        .putFields(
+            "list",
+            Values.of(
+                ListValue.newBuilder().addValues(Values.of(1)).addValues(Values.of("x")).build()))
+        .putFields("key \"é\"", Values.of(false))
+        .build();
+  }
+
+  @Test
+  public void testEncodeMatchesJsonFormat() throws Exception {
+    Struct struct = sampleStruct();
+    String expected = JsonFormat.printer().omittingInsignificantWhitespace().print(struct);
+    Assertions.assertEquals(expected, HRecordJsonCodec.encode(struct).toStringUtf8());
+  }
+
+  @Test
+  public void testDecodeMatchesJsonFormat() throws Exception {
+    Struct struct = sampleStruct();
+    for (String json :
+        new String[] {
+          JsonFormat.printer().print(struct),
+          JsonFormat.printer().omittingInsignificantWhitespace().print(struct)
+        }) {
+      Struct.Builder expected = Struct.newBuilder();
+      JsonFormat.parser().merge(json, expected);
+      Assertions.assertEquals(
+          expected.build(), HRecordJsonCodec.decode(ByteString.copyFromUtf8(json)));
+    }
+  }
+
+  @Test
+  public void testDecodeEscapes() throws Exception {
+    Struct struct =
+        HRecordJsonCodec.decode(
+            ByteString.copyFromUtf8("{\"k\\u00e9\":\"\\ud83d\\ude00\\/\\b\",\"n\":-1.5e2}"));
+    Assertions.assertEquals("😀/\b", struct.getFieldsOrThrow("ké").getStringValue());
+    Assertions.assertEquals(-150, struct.getFieldsOrThrow("n").getNumberValue());
+  }
+
+  @Test
+  public void testDecodeNegativeZero() throws Exception {
+    String json = "{\"a\":-0,\"b\":0}";
+    Struct.Builder expected = Struct.newBuilder();
+    JsonFormat.parser().merge(json, expected);
+    Struct struct = HRecordJsonCodec.decode(ByteString.copyFromUtf8(json));
+    Assertions.assertEquals(expected.build(), struct);
+    Assertions.assertEquals(
+        Double.doubleToRawLongBits(-0.0),
+        Double.doubleToRawLongBits(struct.getFieldsOrThrow("a").getNumberValue()));
+  }
+
+  @Test
+  public void testDecodeInvalidJson() {
+    for (String json : new String[] {"", "{", "{\"a\":}", "{\"a\":1,}", "{\"a\":1} x", "[1]"}) {
+      Assertions.assertThrows(
+          InvalidProtocolBufferException.class,
+          () -> HRecordJsonCodec.decode(ByteString.copyFromUtf8(json)),
+          json);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package io.hstream.util;
+
+import io.hstream.HRecord;
+import io.hstream.HRecordFormat;
+import io.hstream.HRecordSchema;
+import io.hstream.HStreamRecord;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HRecordMapperTest {
+
+  public static class Reading {
+    private String device;
+    private boolean valid;
+    private Integer count;
+
+    public Reading() {}
+
+    Reading(String device, boolean valid, Integer count) {
+      this.device = device;
+      this.valid = valid;
+      this.count = count;
+    }
+
+    public String getDevice() {
+      return device;
+    }
+
+    public void setDevice(String device) {
+      this.device = device;
+    }
+
+    public boolean isValid() {
+      return valid;
+    }
+
+    public void setValid(boolean valid) {
+      this.valid = valid;
+    }
+
+    public Integer getCount() {
+      return count;
+    }
+
+    public void setCount(Integer count) {
+      this.count = count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Reading)) {
+        return false;
+      }
+      Reading reading = (Reading) o;
+      return Objects.equals(device, reading.device)
+          && valid == reading.valid
+          && Objects.equals(count, reading.count);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(device, valid, count);
+    }
+  }
+
+  public static class ReadingBean {
+    private String device;
+    private long sequence;
+    private double value;
+
+    public String getDevice() {
+      return device;
+    }
+
+    public void setDevice(String device) {
+      this.device = device;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public void setSequence(long sequence) {
+      this.sequence = sequence;
+    }
+
+    public double getValue() {
+      return value;
+    }
+
+    public void setValue(double value) {
+      this.value = value;
+    }
+
+    public String getDescription() {
+      return device + "#" + sequence;
+    }
+  }
+
+  @Test
+  public void testMapperIsCachedPerClass() {
+    Assertions.assertSame(HRecordMapper.of(Reading.class), HRecordMapper.of(Reading.class));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> HRecordMapper.of(Thread.class));
+  }
+
+  @Test
+  public void testBeanRoundTrip() {
+    HRecordMapper<Reading> mapper = HRecordMapper.of(Reading.class);
+    Reading reading = new Reading("sensor <1>", true, null);
+
+    HRecord hRecord = mapper.toHRecord(reading);
+    Assertions.assertEquals("sensor <1>", hRecord.getString("device"));
+    Assertions.assertFalse(hRecord.contains("count"));
+
+    for (HRecordFormat format : HRecordFormat.values()) {
+      HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(hRecord, format);
+      HStreamRecord expected =
+          RecordUtils.buildHStreamRecordFromHRecord(new HRecord(hRecord.getDelegate()), format);
+      Assertions.assertEquals(expected.getPayload(), hStreamRecord.getPayload());
+
+      Assertions.assertEquals(
+          reading,
+          mapper.fromHRecord(RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord)));
+    }
+  }
+
+  @Test
+  public void testBeanRoundTripThroughSchema() {
+    HRecordMapper<ReadingBean> mapper = HRecordMapper.of(ReadingBean.class);
+    HRecordSchema schema =
+        HRecordSchema.newBuilder()
+            .field("device", HRecordSchema.FieldType.STRING)
+            .field("sequence", HRecordSchema.FieldType.INT64)
+            .field("value", HRecordSchema.FieldType.DOUBLE)
+            .build();
+    ReadingBean bean = new ReadingBean();
+    bean.setDevice("sensor");
+    bean.setSequence(Long.MAX_VALUE);
+    bean.setValue(-0.5);
+
+    HStreamRecord hStreamRecord =
+        RecordUtils.buildHStreamRecordFromHRecord(mapper.toHRecord(bean), schema);
+    ReadingBean decoded =
+        mapper.fromHRecord(
+            RecordUtils.parseHRecordFromHStreamRecord(
+                hStreamRecord, Map.of(schema.getId(), schema)));
+    Assertions.assertEquals("sensor", decoded.getDevice());
+    Assertions.assertEquals(Long.MAX_VALUE, decoded.getSequence());
+    Assertions.assertEquals(-0.5, decoded.getValue());
+  }
+
+  @Test
+  public void testRecordRoundTrip(@TempDir Path dir) throws Exception {
+    // the sources are built for java 11, so the record is compiled when the test runs
+    Assumptions.assumeTrue(Runtime.version().feature() >= 16, "java records need java 16");
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Assumptions.assumeTrue(compiler != null, "no java compiler");
+    Path source = dir.resolve("Point.java");
+    Files.writeString(source, "public record Point(String name, long id, Double value) {}");
+    Assertions.assertEquals(
+        0, compiler.run(null, null, null, "-d", dir.toString(), source.toString()));
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()})) {
+      assertRecordRoundTrip(loader.loadClass("Point"));
+    }
+  }
+
+  private static <T> void assertRecordRoundTrip(Class<T> type) throws Exception {
+    HRecordMapper<T> mapper = HRecordMapper.of(type);
+    T point = type.cast(type.getDeclaredConstructors()[0].newInstance("p", Long.MAX_VALUE, null));
+
+    HRecord hRecord = mapper.toHRecord(point);
+    Assertions.assertEquals("p", hRecord.getString("name"));
+    Assertions.assertEquals(Long.MAX_VALUE, hRecord.getLong("id"));
+    Assertions.assertFalse(hRecord.contains("value"));
+    IllegalArgumentException e =
+        Assertions.assertThrows(IllegalArgumentException.class, () -> hRecord.getDouble("value"));
+    Assertions.assertTrue(e.getMessage().contains("value"), e.getMessage());
+    Assertions.assertEquals(point, mapper.fromHRecord(hRecord));
+
+    T small = type.cast(type.getDeclaredConstructors()[0].newInstance("q", 42L, 0.5));
+    HStreamRecord hStreamRecord =
+        RecordUtils.buildHStreamRecordFromHRecord(mapper.toHRecord(small), HRecordFormat.JSON);
+    Assertions.assertEquals(
+        small, mapper.fromHRecord(RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord)));
+  }
+
+  @Test
+  public void testMissingFieldsKeepDefaults() {
+    HRecordMapper<Reading> mapper = HRecordMapper.of(Reading.class);
+    Reading reading = mapper.fromHRecord(HRecord.newBuilder().put("device", "x").build());
+    Assertions.assertEquals(new Reading("x", false, null), reading);
+  }
+}
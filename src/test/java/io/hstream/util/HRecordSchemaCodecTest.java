@@ -0,0 +1,132 @@
+package io.hstream.util;
+
+import io.hstream.HRecord;
+import io.hstream.HRecordSchema;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HRecordSchemaCodecTest {
+
+  private static final HRecordSchema schema =
+      HRecordSchema.newBuilder()
+          .field("id", HRecordSchema.FieldType.INT64)
+          .field("count", HRecordSchema.FieldType.INT32)
+          .field("score", HRecordSchema.FieldType.DOUBLE)
+          .field("valid", HRecordSchema.FieldType.BOOL)
+          .field("name", HRecordSchema.FieldType.STRING)
+          .build();
+
+  @Test
+  public void testSchemaIdIsStable() {
+    HRecordSchema same =
+        HRecordSchema.newBuilder()
+            .field("id", HRecordSchema.FieldType.INT64)
+            .field("count", HRecordSchema.FieldType.INT32)
+            .field("score", HRecordSchema.FieldType.DOUBLE)
+            .field("valid", HRecordSchema.FieldType.BOOL)
+            .field("name", HRecordSchema.FieldType.STRING)
+            .build();
+    HRecordSchema retyped =
+        HRecordSchema.newBuilder()
+            .field("id", HRecordSchema.FieldType.DOUBLE)
+            .field("count", HRecordSchema.FieldType.INT32)
+            .field("score", HRecordSchema.FieldType.DOUBLE)
+            .field("valid", HRecordSchema.FieldType.BOOL)
+            .field("name", HRecordSchema.FieldType.STRING)
+            .build();
+    Assertions.assertEquals(schema.getId(), same.getId());
+    Assertions.assertNotEquals(schema.getId(), retyped.getId());
+  }
+
+  @Test
+  public void testRoundTripKeepsLongsExact() {
+    long id = (1L << 53) + 1;
+    HRecord hRecord =
+        schema
+            .newRecordBuilder()
+            .put("id", id)
+            .put("count", -7)
+            .put("score", 0.25)
+            .put("valid", true)
+            .put("name", "中文 name")
+            .build();
+    Assertions.assertEquals(id, hRecord.getLong("id"));
+
+    HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(hRecord, schema);
+    Assertions.assertTrue(RecordUtils.isHRecord(hStreamRecord));
+    HRecord decoded =
+        RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord, Map.of(schema.getId(), schema));
+    Assertions.assertEquals(id, decoded.getLong("id"));
+    Assertions.assertEquals(-7, decoded.getInt("count"));
+    Assertions.assertEquals(0.25, decoded.getDouble("score"));
+    Assertions.assertTrue(decoded.getBoolean("valid"));
+    Assertions.assertEquals("中文 name", decoded.getString("name"));
+    Assertions.assertEquals(hRecord.getDelegate(), decoded.getDelegate());
+
+    HStreamRecord jsonRecord = RecordUtils.buildHStreamRecordFromHRecord(hRecord);
+    Assertions.assertTrue(
+        hStreamRecord.getPayload().size() * 2 < jsonRecord.getPayload().size(),
+        "schema payload should be much smaller than json");
+  }
+
+  @Test
+  public void testUnsetAndPlainHRecordFields() {
+    HRecord hRecord = HRecord.newBuilder().put("count", 3).put("name", "x").build();
+    HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(hRecord, schema);
+    HRecord decoded =
+        RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord, Map.of(schema.getId(), schema));
+    Assertions.assertEquals(3, decoded.getInt("count"));
+    Assertions.assertEquals("x", decoded.getString("name"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> decoded.getLong("id"));
+    Assertions.assertEquals(hRecord.getDelegate(), decoded.getDelegate());
+  }
+
+  @Test
+  public void testInvalidRecords() {
+    Assertions.assertThrows(
+        HStreamDBClientException.InvalidRecordException.class,
+        () ->
+            RecordUtils.buildHStreamRecordFromHRecord(
+                HRecord.newBuilder().put("unknown", 1).build(), schema));
+    Assertions.assertThrows(
+        HStreamDBClientException.InvalidRecordException.class,
+        () ->
+            RecordUtils.buildHStreamRecordFromHRecord(
+                HRecord.newBuilder().put("id", "not a number").build(), schema));
+    // numbers of an integer field must be whole and in range, a cast would silently truncate them
+    for (HRecord hRecord :
+        List.of(
+            HRecord.newBuilder().put("id", 1.5).build(),
+            HRecord.newBuilder().put("id", 0x1p63).build(),
+            HRecord.newBuilder().put("id", Double.NaN).build(),
+            HRecord.newBuilder().put("count", 0x1p31).build(),
+            HRecord.newBuilder().put("count", -0.5).build())) {
+      Assertions.assertThrows(
+          HStreamDBClientException.InvalidRecordException.class,
+          () -> RecordUtils.buildHStreamRecordFromHRecord(hRecord, schema));
+    }
+    HRecord decoded =
+        RecordUtils.parseHRecordFromHStreamRecord(
+            RecordUtils.buildHStreamRecordFromHRecord(
+                HRecord.newBuilder()
+                    .put("id", -0x1p63)
+                    .put("count", (double) Integer.MIN_VALUE)
+                    .build(),
+                schema),
+            Map.of(schema.getId(), schema));
+    Assertions.assertEquals(Long.MIN_VALUE, decoded.getLong("id"));
+    Assertions.assertEquals(Integer.MIN_VALUE, decoded.getInt("count"));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> schema.newRecordBuilder().put("name", 1));
+
+    HStreamRecord hStreamRecord =
+        RecordUtils.buildHStreamRecordFromHRecord(schema.newRecordBuilder().build(), schema);
+    Assertions.assertThrows(
+        HStreamDBClientException.InvalidRecordException.class,
+        () -> RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord, Map.of()));
+  }
+}
@@ -0,0 +1,114 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.Values;
+import io.hstream.HArray;
+import io.hstream.HRecord;
+import io.hstream.HRecordFormat;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import io.hstream.HStreamRecordHeader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LazyHRecordTest {
+
+  private static HRecord sampleHRecord() {
+    return HRecord.newBuilder()
+        .put("bool", true)
+        .put("int", 42)
+        .put("long", 1234567890123L)
+        .put("double", 3.5)
+        .put("string", "a,b}\"c]")
+        .put("array", HArray.newBuilder().add(1).add("x").build())
+        .put("record", HRecord.newBuilder().put("inner", "value").build())
+        .put("last", "end")
+        .build();
+  }
+
+  private static void assertFields(HRecord hRecord) {
+    // read out of payload order so later lookups hit fields that were already scanned
+    Assertions.assertEquals("end", hRecord.getString("last"));
+    Assertions.assertTrue(hRecord.getBoolean("bool"));
+    Assertions.assertEquals(42, hRecord.getInt("int"));
+    Assertions.assertEquals(1234567890123L, hRecord.getLong("long"));
+    Assertions.assertEquals(3.5, hRecord.getDouble("double"));
+    Assertions.assertEquals("a,b}\"c]", hRecord.getString("string"));
+    Assertions.assertEquals(2, hRecord.getHArray("array").size());
+    Assertions.assertEquals("value", hRecord.getHRecord("record").getString("inner"));
+    Assertions.assertEquals("end", hRecord.getString("last"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> hRecord.getString("missing"));
+  }
+
+  @Test
+  public void testLazyJsonHRecord() {
+    HRecord expected = sampleHRecord();
+    HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(expected);
+    HRecord lazy = RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord);
+    Assertions.assertTrue(lazy instanceof LazyHRecord);
+    assertFields(lazy);
+    Assertions.assertEquals(expected.getDelegate(), lazy.getDelegate());
+    assertFields(lazy);
+  }
+
+  @Test
+  public void testLazyProtobufHRecord() {
+    HRecord expected = sampleHRecord();
+    HStreamRecord hStreamRecord =
+        RecordUtils.buildHStreamRecordFromHRecord(expected, HRecordFormat.PROTOBUF);
+    HRecord lazy = RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord);
+    assertFields(lazy);
+    Assertions.assertEquals(expected.getDelegate(), lazy.getDelegate());
+  }
+
+  @Test
+  public void testLazyJsonHRecordWithWhitespace() {
+    HRecord lazy =
+        new LazyHRecord(
+            ByteString.copyFromUtf8(
+                " {\n  \"a\" : [ 1 , {\"b\": \"]\"} ] ,\n  \"c\" : -1.5e1 \n}\n"),
+            HStreamRecordHeader.Flag.JSON);
+    Assertions.assertEquals(-15, lazy.getDouble("c"));
+    Assertions.assertEquals("]", lazy.getHArray("a").getHRecord(1).getString("b"));
+  }
+
+  @Test
+  public void testMalformedPayloadFailsOnRead() {
+    HRecord lazy =
+        new LazyHRecord(
+            ByteString.copyFromUtf8("{\"a\": 1, \"b\": }"), HStreamRecordHeader.Flag.JSON);
+    Assertions.assertEquals(1, lazy.getInt("a"));
+    Assertions.assertThrows(
+        HStreamDBClientException.InvalidRecordException.class, () -> lazy.getInt("b"));
+  }
+
+  @Test
+  public void testLastDuplicateKeyWins() {
+    HRecord json =
+        new LazyHRecord(
+            ByteString.copyFromUtf8("{\"a\": 1, \"b\": 2, \"a\": 3}"),
+            HStreamRecordHeader.Flag.JSON);
+    Assertions.assertEquals(3, json.getInt("a"));
+    Assertions.assertEquals(2, json.getInt("b"));
+
+    // concatenated messages are merged, the map entries of both are on the wire
+    ByteString payload =
+        Struct.newBuilder()
+            .putFields("a", Values.of(1))
+            .putFields("b", Values.of(2))
+            .build()
+            .toByteString()
+            .concat(Struct.newBuilder().putFields("a", Values.of(3)).build().toByteString());
+    HRecord protobuf = new LazyHRecord(payload, HStreamRecordHeader.Flag.PROTOBUF);
+    Assertions.assertEquals(3, protobuf.getInt("a"));
+    Assertions.assertEquals(2, protobuf.getInt("b"));
+    Assertions.assertEquals(
+        protobuf.getDelegate().getFieldsMap(),
+        Struct.newBuilder()
+            .putFields("a", Values.of(3))
+            .putFields("b", Values.of(2))
+            .build()
+            .getFieldsMap());
+  }
+}
@@ -0,0 +1,96 @@
+package io.hstream.util;
+
+import com.google.protobuf.ByteString;
+import io.hstream.HArray;
+import io.hstream.HRecord;
+import io.hstream.HRecordFormat;
+import io.hstream.HRecordSchema;
+import io.hstream.HStreamDBClientException;
+import io.hstream.HStreamRecord;
+import io.hstream.HStreamRecordHeader;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RecordUtilsTest {
+
+  private static HRecord sampleHRecord() {
+    HRecord nested = HRecord.newBuilder().put("name", "nested").put("flag", true).build();
+    return HRecord.newBuilder()
+        .put("key1", 10)
+        .put("key2", "hello \"world\" <&>")
+        .put("key3", false)
+        .put("key4", nested)
+        .put("key5", HArray.newBuilder().add(1).add("two").add(nested).build())
+        .build();
+  }
+
+  @Test
+  public void testJsonRoundTrip() {
+    HRecord hRecord = sampleHRecord();
+    HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(hRecord);
+
+    Assertions.assertEquals(HStreamRecordHeader.Flag.JSON, hStreamRecord.getHeader().getFlag());
+    Assertions.assertTrue(RecordUtils.isHRecord(hStreamRecord));
+    Assertions.assertEquals(
+        hRecord.getDelegate(),
+        RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord).getDelegate());
+  }
+
+  @Test
+  public void testProtobufRoundTrip() {
+    HRecord hRecord = sampleHRecord();
+    HStreamRecord hStreamRecord =
+        RecordUtils.buildHStreamRecordFromHRecord(hRecord, HRecordFormat.PROTOBUF);
+
+    Assertions.assertEquals(HStreamRecordHeader.Flag.PROTOBUF, hStreamRecord.getHeader().getFlag());
+    Assertions.assertTrue(RecordUtils.isHRecord(hStreamRecord));
+    Assertions.assertFalse(RecordUtils.isRawRecord(hStreamRecord));
+    Assertions.assertEquals(
+        hRecord.getDelegate(),
+        RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord).getDelegate());
+  }
+
+  @Test
+  public void testSchemaRecordNeedsSchemas() {
+    HRecordSchema schema =
+        HRecordSchema.newBuilder().field("id", HRecordSchema.FieldType.INT64).build();
+    HRecord hRecord = schema.newRecordBuilder().put("id", 1L).build();
+    HStreamRecord hStreamRecord = RecordUtils.buildHStreamRecordFromHRecord(hRecord, schema);
+
+    Assertions.assertTrue(RecordUtils.isHRecord(hStreamRecord));
+    HStreamDBClientException.InvalidRecordException e =
+        Assertions.assertThrows(
+            HStreamDBClientException.InvalidRecordException.class,
+            () -> RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord));
+    Assertions.assertTrue(
+        e.getMessage().contains("parseHRecordFromHStreamRecord(record, schemas)"));
+    Assertions.assertThrows(
+        HStreamDBClientException.InvalidRecordException.class,
+        () -> RecordUtils.parseLazyHRecordFromHStreamRecord(hStreamRecord));
+    Assertions.assertEquals(
+        1L,
+        RecordUtils.parseHRecordFromHStreamRecord(hStreamRecord, Map.of(schema.getId(), schema))
+            .getLong("id"));
+  }
+
+  @Test
+  public void testTypedRecordIsMappedWhileParsed() {
+    HRecordMapper<HRecordMapperTest.Reading> mapper =
+        HRecordMapper.of(HRecordMapperTest.Reading.class);
+    HStreamRecord hStreamRecord =
+        RecordUtils.buildHStreamRecordFromHRecord(
+            mapper.toHRecord(new HRecordMapperTest.Reading("x", true, 3)));
+    Assertions.assertEquals(
+        new HRecordMapperTest.Reading("x", true, 3),
+        RecordUtils.parseTypedRecordFromHStreamRecord(hStreamRecord, mapper, Map.of()));
+
+    HStreamRecord truncated =
+        hStreamRecord.toBuilder()
+            .setPayload(ByteString.copyFromUtf8("{\"device\": \"x\", \"count\": "))
+            .build();
+    Assertions.assertThrows(
+        HStreamDBClientException.InvalidRecordException.class,
+        () -> RecordUtils.parseTypedRecordFromHStreamRecord(truncated, mapper, Map.of()));
+  }
+}